@@ -20,14 +20,27 @@ package com.frostwire;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import javax.imageio.ImageIO;
 
-import org.limewire.concurrent.ThreadExecutor;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.FileUtils;
 
 import com.frostwire.logging.Logger;
 import com.frostwire.util.HttpClient;
@@ -35,6 +48,13 @@ import com.frostwire.util.HttpClientFactory;
 import com.limegroup.gnutella.settings.SharingSettings;
 
 /**
+ * Two level image cache, decoded images are kept in a memory LRU bounded by
+ * bytes (and softly referenced once evicted from it), and the original image
+ * bytes are kept on disk.
+ * <p>
+ * Disk reads and downloads run in a small pool of threads, and concurrent
+ * requests for the same image share a single load.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -43,6 +63,10 @@ public class ImageCache {
 
     private static final Logger LOG = Logger.getLogger(ImageCache.class);
 
+    private static final long MEMORY_MAX_BYTES = 32 * 1024 * 1024;
+
+    private static final int FETCH_THREADS = 3;
+
     private static ImageCache instance;
 
     public synchronized static ImageCache instance() {
@@ -52,18 +76,37 @@ public class ImageCache {
         return instance;
     }
 
+    private final LinkedHashMap<String, BufferedImage> images;
+    private long imagesBytes;
+    private final Map<String, SoftReference<BufferedImage>> evicted;
+
+    private final Map<String, List<OnLoadedListener>> pending;
+    private final ExecutorService fetchExecutor;
+
     private ImageCache() {
+        images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+        evicted = new HashMap<String, SoftReference<BufferedImage>>();
+        pending = new HashMap<String, List<OnLoadedListener>>();
+        fetchExecutor = ExecutorsHelper.newFixedSizeThreadPool(FETCH_THREADS, "ImageCache");
     }
 
+    /**
+     * Returns the image if it's already decoded in memory, calling the listener
+     * right away. Otherwise it returns null and the image is loaded from disk,
+     * or downloaded, in the background and the listener called when done.
+     */
     public BufferedImage getImage(URL url, OnLoadedListener listener) {
-        if (isCached(url)) {
-            return loadFromCache(url, listener);
-        } else if (!url.getProtocol().equals("http")) {
-            return loadFromResource(url, listener);
-        } else {
-            loadFromUrl(url, listener);
-            return null;
+        BufferedImage image = getFromMemory(url.toString());
+
+        if (image != null) {
+            if (listener != null) {
+                listener.onLoaded(url, image, true, false);
+            }
+            return image;
         }
+
+        fetch(url, listener);
+        return null;
     }
 
     private File getCacheFile(URL url) {
@@ -99,82 +142,173 @@ public class ImageCache {
         return file.exists();
     }
 
-    private BufferedImage loadFromCache(URL url, OnLoadedListener listener) {
+    private BufferedImage getFromMemory(String key) {
+        synchronized (images) {
+            BufferedImage image = images.get(key);
+
+            if (image == null) {
+                SoftReference<BufferedImage> ref = evicted.remove(key);
+                image = ref != null ? ref.get() : null;
+                if (image != null) {
+                    putInMemory(key, image);
+                }
+            }
+
+            return image;
+        }
+    }
+
+    private void putInMemory(String key, BufferedImage image) {
+        synchronized (images) {
+            BufferedImage old = images.put(key, image);
+            if (old != null) {
+                imagesBytes -= sizeOf(old);
+            }
+            imagesBytes += sizeOf(image);
+
+            Iterator<Map.Entry<String, BufferedImage>> it = images.entrySet().iterator();
+            while (imagesBytes > MEMORY_MAX_BYTES && images.size() > 1 && it.hasNext()) {
+                Map.Entry<String, BufferedImage> e = it.next();
+                imagesBytes -= sizeOf(e.getValue());
+                evicted.put(e.getKey(), new SoftReference<BufferedImage>(e.getValue()));
+                it.remove();
+            }
+
+            // forget the references already cleared by the garbage collector
+            Iterator<SoftReference<BufferedImage>> refs = evicted.values().iterator();
+            while (refs.hasNext()) {
+                if (refs.next().get() == null) {
+                    refs.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Approximate bytes used by the decoded image.
+     */
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * Math.max(1, image.getColorModel().getPixelSize() / 8);
+    }
+
+    private void fetch(final URL url, OnLoadedListener listener) {
+        String key = url.toString();
+
+        synchronized (pending) {
+            List<OnLoadedListener> listeners = pending.get(key);
+
+            if (listeners != null) {
+                // already loading, just wait for it
+                if (listener != null) {
+                    listeners.add(listener);
+                }
+                return;
+            }
+
+            listeners = new ArrayList<OnLoadedListener>(2);
+            if (listener != null) {
+                listeners.add(listener);
+            }
+            pending.put(key, listeners);
+        }
+
+        fetchExecutor.execute(new Runnable() {
+            public void run() {
+                load(url);
+            }
+        });
+    }
+
+    private void load(URL url) {
+        String key = url.toString();
+        BufferedImage image = null;
+        boolean fromCache = false;
+
         try {
             File file = getCacheFile(url);
-            BufferedImage image = ImageIO.read(file);
-            listener.onLoaded(url, image, true, false);
-            return image;
+
+            if (file.exists()) {
+                fromCache = true;
+                image = ImageIO.read(file);
+            } else {
+                byte[] data;
+                if (url.getProtocol().equals("http")) {
+                    HttpClient newInstance = HttpClientFactory.newInstance();
+                    data = newInstance.getBytes(key);
+                } else {
+                    data = readBytes(url);
+                }
+
+                if (data == null) {
+                    throw new IOException("ImageCache.load() got nothing at " + key);
+                }
+
+                image = ImageIO.read(new ByteArrayInputStream(data));
+
+                if (image != null) {
+                    saveToCache(url, data);
+                }
+            }
+
+            if (image == null) {
+                throw new IOException("ImageCache.load() unable to decode image at " + key);
+            }
+
+            putInMemory(key, image);
         } catch (Throwable e) {
-            LOG.error("Failed to load image from cache: " + url, e);
+            LOG.error("Failed to load image: " + url, e);
             if (e instanceof OutOfMemoryError) {
                 e.printStackTrace(); // this is a special condition
             }
-            listener.onLoaded(url, null, false, true);
-            return null;
+            image = null;
         }
-    }
 
-    private BufferedImage loadFromResource(URL url, OnLoadedListener listener) {
-        try {
-            BufferedImage image = ImageIO.read(url);
-            saveToCache(url, image, 0);
-            listener.onLoaded(url, image, false, false);
-            return image;
-        } catch (Throwable e) {
-            LOG.error("Failed to load image from resource: " + url, e);
-            listener.onLoaded(url, null, false, true);
-            return null;
+        List<OnLoadedListener> listeners;
+        synchronized (pending) {
+            listeners = pending.remove(key);
         }
-    }
 
-    private void loadFromUrl(final URL url, final OnLoadedListener listener) {
-        ThreadExecutor.startThread(new Thread(new Runnable() {
-            public void run() {
+        if (listeners != null) {
+            for (OnLoadedListener listener : listeners) {
                 try {
-                    BufferedImage image = null;
-                    HttpClient newInstance = HttpClientFactory.newInstance();
-                    byte[] data = newInstance.getBytes(url.toString());
-                    
-                    if (data == null) {
-                        throw new IOException("ImageCache.loadUrl() got nothing at " + url.toString());
-                    }
-
-                    if (data != null) {
-                        image = ImageIO.read(new ByteArrayInputStream(data));
-                        saveToCache(url, image, System.currentTimeMillis());
-                    }
-                    
-                    if (listener != null && image != null) {
-                        listener.onLoaded(url, image, false, false);
-                    }
+                    listener.onLoaded(url, image, fromCache, image == null);
                 } catch (Throwable e) {
-                    LOG.error("Failed to load image from: " + url, e);
-                    listener.onLoaded(url, null, false, true);
+                    LOG.error("Error notifying image loaded: " + url, e);
                 }
             }
-        }),"ImageCache.loadFromUrl");
+        }
     }
 
-    private void saveToCache(URL url, BufferedImage image, long date) {
+    private static byte[] readBytes(URL url) throws IOException {
+        InputStream in = null;
         try {
-            File file = getCacheFile(url);
-
-            if (file.exists()) {
-                file.delete();
+            in = url.openStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
             }
+            return out.toByteArray();
+        } finally {
+            FileUtils.close(in);
+        }
+    }
 
-            String filename = file.getName();
-            int dotIndex = filename.lastIndexOf('.');
-            String ext = filename.substring(dotIndex + 1);
-
-            String formatName = ImageIO.getImageReadersBySuffix(ext).next().getFormatName();
+    /**
+     * Writes the original bytes, no need to encode the image again.
+     */
+    private void saveToCache(URL url, byte[] data) {
+        try {
+            File file = getCacheFile(url);
 
             if (!file.getParentFile().exists()) {
-                file.mkdirs();
+                file.getParentFile().mkdirs();
             }
-            ImageIO.write(image, formatName, file);
-            file.setLastModified(date);
+
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+            Files.write(temp.toPath(), data);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
         } catch (Throwable e) {
             LOG.error("Failed to save image to cache: " + url, e);
         }
@@ -183,7 +317,8 @@ public class ImageCache {
     public interface OnLoadedListener {
 
         /**
-         * This is called in the event that the image was downloaded and cached
+         * This is called in the event that the image was loaded, or failed to load.
+         * Unless the image was already in memory it's called from a background thread.
          */
         public void onLoaded(URL url, BufferedImage image, boolean fromCache, boolean fail);
     }
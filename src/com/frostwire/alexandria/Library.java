@@ -18,7 +18,11 @@ public class Library extends LibraryDatabaseEntity {
     private int _version;
 
     public Library(File libraryFile) {
-        super(new LibraryDatabase(libraryFile));
+        this(libraryFile, false);
+    }
+
+    public Library(File libraryFile, boolean mvcc) {
+        super(new LibraryDatabase(libraryFile, mvcc));
         LibraryDB.fill(db, this);
     }
 
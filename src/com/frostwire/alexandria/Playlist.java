@@ -17,9 +17,11 @@
 
 package com.frostwire.alexandria;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.frostwire.alexandria.db.LibraryDatabase;
 import com.frostwire.alexandria.db.LibraryDatabaseEntity;
@@ -27,7 +29,13 @@ import com.frostwire.alexandria.db.PlaylistDB;
 import com.frostwire.alexandria.db.PlaylistItemDB;
 
 /**
- * 
+ * A playlist of the library.
+ * <p>
+ * The items of a playlist read from the database are loaded the first time
+ * they are needed. Until then, the count, the duration and windows of items
+ * are answered with queries. Reloading reuses the item instances already
+ * handed out, so they stay valid as keys and table rows.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -39,14 +47,22 @@ public class Playlist extends LibraryDatabaseEntity {
     private String _description;
 
     private boolean deleted;
+    private boolean dirty;
 
     private List<PlaylistItem> _items;
 
+    private volatile boolean loaded;
+
+    // items of windows read before the whole playlist was loaded, by id
+    private final Map<Integer, PlaylistItem> windowItems;
+
     public Playlist(LibraryDatabase libraryDB) {
         super(libraryDB);
         _id = LibraryDatabase.OBJECT_INVALID_ID;
-        _items = Collections.synchronizedList(new LinkedList<PlaylistItem>());
+        _items = Collections.synchronizedList(new ArrayList<PlaylistItem>());
         this.deleted = false;
+        this.loaded = false;
+        this.windowItems = new HashMap<Integer, PlaylistItem>();
     }
 
     public Playlist(LibraryDatabase libraryDB, int id, String name, String description) {
@@ -54,8 +70,10 @@ public class Playlist extends LibraryDatabaseEntity {
         _id = id;
         _name = name;
         _description = description;
-        _items = new LinkedList<PlaylistItem>();
+        _items = new ArrayList<PlaylistItem>();
         this.deleted = false;
+        this.loaded = true;
+        this.windowItems = new HashMap<Integer, PlaylistItem>();
     }
 
     public boolean isStarred() {
@@ -76,6 +94,7 @@ public class Playlist extends LibraryDatabaseEntity {
 
     public void setName(String name) {
         _name = name;
+        dirty = true;
     }
 
     public String getDescription() {
@@ -84,12 +103,118 @@ public class Playlist extends LibraryDatabaseEntity {
 
     public void setDescription(String description) {
         _description = description;
+        dirty = true;
+    }
+
+    /**
+     * Returns true if the name or the description changed since the playlist
+     * was read or saved. The items keep their own flag.
+     */
+    public boolean isDirty() {
+        return dirty;
     }
 
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * Returns all the items, loading them if they are not loaded yet.
+     */
     public List<PlaylistItem> getItems() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    refresh();
+                }
+            }
+        }
         return _items;
     }
 
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns up to limit items, starting at offset, in playlist order.
+     * If the items are not loaded, only the window is read.
+     */
+    public List<PlaylistItem> getItems(int offset, int limit) {
+        if (loaded || db == null) {
+            synchronized (_items) {
+                int from = Math.min(offset, _items.size());
+                int to = (int) Math.min((long) offset + limit, _items.size());
+                return new ArrayList<PlaylistItem>(_items.subList(from, to));
+            }
+        }
+
+        synchronized (this) {
+            if (loaded) {
+                return getItems(offset, limit);
+            }
+            List<PlaylistItem> items = PlaylistItemDB.getPlaylistItems(db, this, offset, limit, getReusableItems());
+            for (PlaylistItem item : items) {
+                windowItems.put(item.getId(), item);
+            }
+            return items;
+        }
+    }
+
+    /**
+     * Returns the items with the ids, in the order of the ids, without loading
+     * the playlist. The instances already handed out are the ones returned, and
+     * the items of a regular playlist come with their positions in it.
+     */
+    public List<PlaylistItem> getItems(List<Integer> ids) {
+        if (db == null) {
+            return new ArrayList<PlaylistItem>();
+        }
+
+        synchronized (this) {
+            List<PlaylistItem> items = PlaylistItemDB.getPlaylistItems(db, this, ids, getReusableItems());
+
+            // the starred playlist is not backed by its own rows, it has no positions
+            if (!isStarred()) {
+                Map<Integer, Integer> positions = PlaylistItemDB.getPlaylistItemPositions(db, this, ids);
+                for (PlaylistItem item : items) {
+                    Integer position = positions.get(item.getId());
+                    if (position != null) {
+                        item.setPosition(position);
+                    }
+                }
+            }
+
+            if (!loaded) {
+                for (PlaylistItem item : items) {
+                    windowItems.put(item.getId(), item);
+                }
+            }
+
+            return items;
+        }
+    }
+
+    public int getItemCount() {
+        if (loaded || db == null) {
+            return _items.size();
+        }
+        return PlaylistItemDB.getPlaylistItemCount(db, this);
+    }
+
+    public float getDurationInSecs() {
+        if (loaded || db == null) {
+            float totalSecs = 0;
+            synchronized (_items) {
+                for (PlaylistItem item : _items) {
+                    totalSecs += item.getTrackDurationInSecs();
+                }
+            }
+            return totalSecs;
+        }
+        return PlaylistItemDB.getPlaylistDurationInSecs(db, this);
+    }
+
     public boolean isDeleted() {
         return deleted;
     }
@@ -109,11 +234,48 @@ public class Playlist extends LibraryDatabaseEntity {
 
     public synchronized void refresh() {
         if (db != null) {
-            _items.clear();
-            _items.addAll(PlaylistItemDB.getPlaylistItems(db, this));
+            List<PlaylistItem> items = PlaylistItemDB.getPlaylistItems(db, this, getReusableItems());
+
+            synchronized (_items) {
+                _items.clear();
+                _items.addAll(items);
+            }
+
+            windowItems.clear();
+            loaded = true;
         }
     }
 
+    /**
+     * Makes the items be read again from the database the next time they
+     * are needed. The current instances are kept and refilled.
+     */
+    public synchronized void invalidate() {
+        // the starred playlist is not backed by its own rows
+        if (db != null && _id >= 0) {
+            loaded = false;
+        }
+    }
+
+    private Map<Integer, PlaylistItem> getReusableItems() {
+        Map<Integer, PlaylistItem> reuse = new HashMap<Integer, PlaylistItem>();
+        synchronized (_items) {
+            for (PlaylistItem item : _items) {
+                reuse.put(item.getId(), item);
+            }
+        }
+        reuse.putAll(windowItems);
+        return reuse;
+    }
+
+    /**
+     * Starts a batch of inserts, moves and deletes on the items of this
+     * playlist, saved all at once by {@link PlaylistEdit#commit()}.
+     */
+    public PlaylistEdit edit() {
+        return new PlaylistEdit(this);
+    }
+
     public PlaylistItem newItem(String filePath, String fileName, long fileSize, String fileExtension, String trackTitle, float trackDurationInSecs, String trackArtist, String trackAlbum, String coverArtPath, String trackBitrate, String trackComment, String trackGenre, String trackNumber,
             String trackYear, boolean starred) {
         return new PlaylistItem(this, LibraryDatabase.OBJECT_NOT_SAVED_ID, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred);
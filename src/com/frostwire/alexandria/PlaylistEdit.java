@@ -0,0 +1,428 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.alexandria;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.frostwire.alexandria.db.LibraryDatabase;
+import com.frostwire.alexandria.db.PlaylistItemDB;
+
+/**
+ * A batch of inserts, moves and deletes on the items of a playlist, applied
+ * to a copy of the items and saved in a single transaction on commit.
+ * <p>
+ * Rows passed to the edit refer to the items as they were when the edit
+ * was made, but the operations are kept as items and the items they go
+ * before, and replayed on commit over the items of the playlist at that
+ * time, so concurrent edits and reloads don't undo each other. Saved items
+ * are matched by id, since they may be other instances of the same rows,
+ * as the ones of a search, and unsaved ones by identity.
+ * <p>
+ * Sort indexes are sparse, spaced by {@link #SORT_INDEX_GAP}, so an insert
+ * or a move only gives new sort indexes to the rows it touches, taken from
+ * the gap between their new neighbors. The whole playlist is renumbered
+ * only when a gap runs out.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class PlaylistEdit {
+
+    public static final int SORT_INDEX_GAP = 1024;
+
+    private final Playlist playlist;
+    private final List<PlaylistItem> items;
+    private final List<Operation> operations;
+
+    PlaylistEdit(Playlist playlist) {
+        this.playlist = playlist;
+        List<PlaylistItem> current = playlist.getItems();
+        synchronized (current) {
+            this.items = new ArrayList<PlaylistItem>(current);
+        }
+        this.operations = new ArrayList<Operation>();
+    }
+
+    public PlaylistEdit add(List<PlaylistItem> newItems) {
+        return add(-1, newItems);
+    }
+
+    /**
+     * Inserts new items at the index, or at the end if the index is -1 or
+     * out of range. Items coming from other playlists are saved as copies.
+     */
+    public PlaylistEdit add(int index, List<PlaylistItem> newItems) {
+        if (index < 0 || index > items.size()) {
+            index = items.size();
+        }
+
+        for (PlaylistItem item : newItems) {
+            item.setId(LibraryDatabase.OBJECT_NOT_SAVED_ID);
+            item.setPlaylist(playlist);
+        }
+
+        operations.add(new Operation(Operation.ADD, new ArrayList<PlaylistItem>(newItems), anchor(items, index)));
+        items.addAll(index, newItems);
+
+        return this;
+    }
+
+    /**
+     * Moves the items at the indexes so that they are placed, in the same
+     * order, before the item at the index.
+     */
+    public PlaylistEdit move(int[] indexes, int index) {
+        if (index < 0 || index > items.size()) {
+            index = items.size();
+        }
+
+        int[] sorted = indexes.clone();
+        Arrays.sort(sorted);
+
+        List<PlaylistItem> moved = new ArrayList<PlaylistItem>(sorted.length);
+        int target = index;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] < 0 || sorted[i] >= items.size() || (i > 0 && sorted[i] == sorted[i - 1])) {
+                continue;
+            }
+            moved.add(items.get(sorted[i]));
+            if (sorted[i] < index) {
+                target--;
+            }
+        }
+
+        removeAll(items, moved);
+        operations.add(new Operation(Operation.MOVE, moved, anchor(items, target)));
+        items.addAll(target, moved);
+
+        return this;
+    }
+
+    /**
+     * Removes the items from the playlist, the saved ones are deleted.
+     */
+    public PlaylistEdit remove(Collection<PlaylistItem> toRemove) {
+        operations.add(new Operation(Operation.REMOVE, new ArrayList<PlaylistItem>(toRemove), null));
+        removeAll(items, toRemove);
+
+        return this;
+    }
+
+    /**
+     * Replays the operations over the current items of the playlist, saves
+     * the result and, if it succeeded, replaces the items of the playlist.
+     *
+     * @return false if the playlist is gone or the transaction failed
+     */
+    public boolean commit() {
+        LibraryDatabase db = playlist.getLibraryDatabase();
+        if (db == null) {
+            return false;
+        }
+
+        synchronized (playlist) {
+            if (playlist.isDeleted()) {
+                return false;
+            }
+
+            List<PlaylistItem> current = playlist.getItems();
+            List<PlaylistItem> result;
+            synchronized (current) {
+                result = new ArrayList<PlaylistItem>(current);
+            }
+
+            ItemIndex touched = new ItemIndex();
+            List<PlaylistItem> deleted = new ArrayList<PlaylistItem>();
+
+            for (Operation operation : operations) {
+                operation.apply(result, touched, deleted);
+            }
+
+            int[] sortIndexes = computeSortIndexes(result, touched);
+
+            List<PlaylistItem> inserts = new ArrayList<PlaylistItem>();
+            List<PlaylistItem> updates = new ArrayList<PlaylistItem>();
+            List<PlaylistItem> reindexed = new ArrayList<PlaylistItem>();
+            List<Integer> oldSortIndexes = new ArrayList<Integer>();
+
+            for (int i = 0; i < result.size(); i++) {
+                PlaylistItem item = result.get(i);
+                if (item.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
+                    inserts.add(item);
+                } else if (item.getSortIndex() != sortIndexes[i] && !playlist.isStarred()) {
+                    // the starred playlist is a view over the items of the other playlists,
+                    // their sort indexes are not its own
+                    updates.add(item);
+                } else {
+                    continue;
+                }
+                reindexed.add(item);
+                oldSortIndexes.add(item.getSortIndex());
+                item.setSortIndex(sortIndexes[i]);
+            }
+
+            if (!PlaylistItemDB.saveBatch(db, inserts, updates, deleted)) {
+                // rolled back, the items keep the sort indexes they have in the database
+                for (int i = 0; i < reindexed.size(); i++) {
+                    reindexed.get(i).setSortIndex(oldSortIndexes.get(i));
+                }
+                return false;
+            }
+
+            for (int i = 0; i < result.size(); i++) {
+                result.get(i).setPosition(i + 1);
+            }
+
+            synchronized (current) {
+                current.clear();
+                current.addAll(result);
+            }
+
+            items.clear();
+            items.addAll(result);
+            operations.clear();
+
+            return true;
+        }
+    }
+
+    /**
+     * The item the items inserted at the index go before, null for the end.
+     */
+    private static PlaylistItem anchor(List<PlaylistItem> list, int index) {
+        return index < list.size() ? list.get(index) : null;
+    }
+
+    private static int indexOf(List<PlaylistItem> list, PlaylistItem anchor) {
+        if (anchor != null) {
+            for (int i = 0; i < list.size(); i++) {
+                if (isSame(list.get(i), anchor)) {
+                    return i;
+                }
+            }
+        }
+        return list.size();
+    }
+
+    /**
+     * Saved items are the same if they have the same id, unsaved ones all
+     * share the same id, so only if they are the same instance.
+     */
+    private static boolean isSame(PlaylistItem a, PlaylistItem b) {
+        return a == b || (isSaved(a) && a.getId() == b.getId());
+    }
+
+    private static boolean isSaved(PlaylistItem item) {
+        return item.getId() >= 0;
+    }
+
+    private static void removeAll(List<PlaylistItem> list, Collection<PlaylistItem> toRemove) {
+        if (toRemove.isEmpty()) {
+            return;
+        }
+
+        ItemIndex index = new ItemIndex();
+        index.addAll(toRemove);
+
+        List<PlaylistItem> kept = new ArrayList<PlaylistItem>(list.size());
+        for (PlaylistItem item : list) {
+            if (!index.contains(item)) {
+                kept.add(item);
+            }
+        }
+
+        list.clear();
+        list.addAll(kept);
+    }
+
+    /**
+     * Untouched items keep their sort indexes, each run of touched items is
+     * spread over the gap between its neighbors. If the untouched ones are
+     * not strictly increasing or a gap is too small, as it happens with the
+     * old dense indexes, everything is renumbered.
+     */
+    private static int[] computeSortIndexes(List<PlaylistItem> items, ItemIndex touched) {
+        int n = items.size();
+        int[] sortIndexes = new int[n];
+
+        if (fillGaps(items, touched, sortIndexes)) {
+            return sortIndexes;
+        }
+
+        int gap = (int) Math.min(SORT_INDEX_GAP, Integer.MAX_VALUE / (n + 1L));
+        for (int i = 0; i < n; i++) {
+            sortIndexes[i] = (i + 1) * gap;
+        }
+
+        return sortIndexes;
+    }
+
+    private static boolean fillGaps(List<PlaylistItem> items, ItemIndex touched, int[] sortIndexes) {
+        int n = items.size();
+
+        int last = 0;
+        for (int i = 0; i < n; i++) {
+            PlaylistItem item = items.get(i);
+            if (!touched.contains(item)) {
+                if (item.getSortIndex() <= last) {
+                    return false;
+                }
+                last = item.getSortIndex();
+                sortIndexes[i] = last;
+            }
+        }
+
+        int i = 0;
+        while (i < n) {
+            if (!touched.contains(items.get(i))) {
+                i++;
+                continue;
+            }
+
+            int j = i;
+            while (j < n && touched.contains(items.get(j))) {
+                j++;
+            }
+
+            long run = j - i;
+            long low = i > 0 ? sortIndexes[i - 1] : 0;
+            long high = j < n ? sortIndexes[j] : low + (run + 1) * SORT_INDEX_GAP;
+
+            if (high - low <= run || high > Integer.MAX_VALUE) {
+                return false;
+            }
+
+            long step = (high - low) / (run + 1);
+            for (int k = i; k < j; k++) {
+                sortIndexes[k] = (int) (low + step * (k - i + 1));
+            }
+
+            i = j;
+        }
+
+        return true;
+    }
+
+    /**
+     * An operation of the edit in terms of items, so that it can be applied
+     * to the items of the playlist at commit time.
+     */
+    private static final class Operation {
+
+        static final int ADD = 0;
+        static final int MOVE = 1;
+        static final int REMOVE = 2;
+
+        private final int type;
+        private final List<PlaylistItem> operands;
+        private final PlaylistItem anchor;
+
+        public Operation(int type, List<PlaylistItem> operands, PlaylistItem anchor) {
+            this.type = type;
+            this.operands = operands;
+            this.anchor = anchor;
+        }
+
+        /**
+         * Items gone from the playlist since the edit was made are not
+         * moved, and an anchor that is gone stands for the end.
+         */
+        void apply(List<PlaylistItem> items, ItemIndex touched, List<PlaylistItem> deleted) {
+            switch (type) {
+            case ADD:
+                items.addAll(indexOf(items, anchor), operands);
+                touched.addAll(operands);
+                break;
+            case MOVE:
+                ItemIndex present = new ItemIndex();
+                present.addAll(items);
+                List<PlaylistItem> moved = new ArrayList<PlaylistItem>(operands.size());
+                for (PlaylistItem item : operands) {
+                    // the instance of the playlist, the operand may be another one of the same row
+                    PlaylistItem own = present.get(item);
+                    if (own != null) {
+                        moved.add(own);
+                    }
+                }
+                removeAll(items, moved);
+                items.addAll(indexOf(items, anchor), moved);
+                touched.addAll(moved);
+                break;
+            case REMOVE:
+                removeAll(items, operands);
+                for (PlaylistItem item : operands) {
+                    touched.remove(item);
+                    if (isSaved(item)) {
+                        deleted.add(item);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * A set of items that finds saved items by id and unsaved ones by
+     * identity, see {@link PlaylistEdit#isSame}.
+     */
+    private static final class ItemIndex {
+
+        private final Map<Integer, PlaylistItem> saved = new HashMap<Integer, PlaylistItem>();
+        private final Map<PlaylistItem, PlaylistItem> unsaved = new IdentityHashMap<PlaylistItem, PlaylistItem>();
+
+        void add(PlaylistItem item) {
+            if (isSaved(item)) {
+                saved.put(item.getId(), item);
+            } else {
+                unsaved.put(item, item);
+            }
+        }
+
+        void addAll(Collection<PlaylistItem> items) {
+            for (PlaylistItem item : items) {
+                add(item);
+            }
+        }
+
+        void remove(PlaylistItem item) {
+            if (isSaved(item)) {
+                saved.remove(item.getId());
+            } else {
+                unsaved.remove(item);
+            }
+        }
+
+        /**
+         * The item of the set that is the same as the given one, or null.
+         */
+        PlaylistItem get(PlaylistItem item) {
+            return isSaved(item) ? saved.get(item.getId()) : unsaved.get(item);
+        }
+
+        boolean contains(PlaylistItem item) {
+            return get(item) != null;
+        }
+    }
+}
@@ -24,6 +24,10 @@ public class PlaylistItem extends LibraryDatabaseEntity {
     private String trackYear;
     private boolean starred;
     private int sortIndex;
+    private int position;
+
+    // changed since last read or saved
+    private boolean dirty;
 
     public PlaylistItem(Playlist playlist) {
         super(playlist != null ? playlist.getLibraryDatabase() : null);
@@ -51,7 +55,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
         this.trackNumber = trackNumber;
         this.trackYear = trackYear;
         this.starred = starred;
-        this.sortIndex = playlist != null ? (playlist.getItems().size() + 1) : 0; // set sortIndex to the last position (1-based) by default
+        // sortIndex is assigned when the item is placed in the playlist, see PlaylistEdit
     }
 
     public Playlist getPlaylist() {
@@ -77,6 +81,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setFilePath(String filePath) {
         this.filePath = filePath;
+        this.dirty = true;
     }
 
     public String getFileName() {
@@ -85,6 +90,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setFileName(String fileName) {
         this.fileName = fileName;
+        this.dirty = true;
     }
 
     public long getFileSize() {
@@ -93,6 +99,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setFileSize(long fileSize) {
         this.fileSize = fileSize;
+        this.dirty = true;
     }
 
     public String getFileExtension() {
@@ -101,6 +108,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setFileExtension(String fileExtension) {
         this.fileExtension = fileExtension;
+        this.dirty = true;
     }
 
     public String getTrackTitle() {
@@ -109,6 +117,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackTitle(String trackTitle) {
         this.trackTitle = trackTitle;
+        this.dirty = true;
     }
 
     public float getTrackDurationInSecs() {
@@ -117,6 +126,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackDurationInSecs(float trackDurationInSecs) {
         this.trackDurationInSecs = trackDurationInSecs;
+        this.dirty = true;
     }
 
     public String getTrackArtist() {
@@ -125,6 +135,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackArtist(String artistName) {
         this.trackArtist = artistName;
+        this.dirty = true;
     }
 
     public String getTrackAlbum() {
@@ -133,6 +144,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackAlbum(String albumName) {
         this.trackAlbum = albumName;
+        this.dirty = true;
     }
 
     public String getCoverArtPath() {
@@ -141,6 +153,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setCoverArtPath(String coverArtPath) {
         this.coverArtPath = coverArtPath;
+        this.dirty = true;
     }
 
     public String getTrackBitrate() {
@@ -149,6 +162,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackBitrate(String bitrate) {
         this.trackBitrate = bitrate;
+        this.dirty = true;
     }
 
     public String getTrackComment() {
@@ -157,6 +171,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackComment(String comment) {
         this.trackComment = comment;
+        this.dirty = true;
     }
 
     public String getTrackGenre() {
@@ -165,6 +180,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackGenre(String genre) {
         this.trackGenre = genre;
+        this.dirty = true;
     }
 
     public String getTrackNumber() {
@@ -173,6 +189,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackNumber(String track) {
         this.trackNumber = track;
+        this.dirty = true;
     }
 
     public String getTrackYear() {
@@ -181,6 +198,7 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setTrackYear(String year) {
         this.trackYear = year;
+        this.dirty = true;
     }
 
     public boolean isStarred() {
@@ -189,6 +207,20 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setStarred(boolean starred) {
         this.starred = starred;
+        this.dirty = true;
+    }
+
+    /**
+     * Returns true if a saved field changed since the item was read from or
+     * saved to the database. Setters mark the item even if the value is the
+     * same, so a save still propagates the starred flag.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
     }
 
     public void save() {
@@ -224,5 +256,18 @@ public class PlaylistItem extends LibraryDatabaseEntity {
 
     public void setSortIndex(int sortIndex) {
         this.sortIndex = sortIndex;
+        this.dirty = true;
+    }
+
+    /**
+     * The 1-based position of the item in its playlist, as last loaded or
+     * edited. Unlike the sort index it's contiguous, but it's not saved.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package com.frostwire.alexandria.db;
 
-import java.util.ArrayList;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
 
 import com.frostwire.alexandria.InternetRadioStation;
@@ -41,6 +42,34 @@ public class InternetRadioStationDB {
         obj.setBookmarked(bookmarked);
     }
 
+    public static void fill(ResultSet row, InternetRadioStation obj) throws SQLException {
+        obj.setId(row.getInt(1));
+        obj.setName(row.getString(2));
+        obj.setDescription(row.getString(3));
+        obj.setUrl(row.getString(4));
+        obj.setBitrate(row.getString(5));
+        obj.setType(row.getString(6));
+        obj.setWebsite(row.getString(7));
+        obj.setGenre(row.getString(8));
+        obj.setPls(row.getString(9));
+        obj.setBookmarked(row.getBoolean(10));
+    }
+
+    /**
+     * Maps each row, with the columns internetRadioStationId, name,
+     * description, url, bitrate, type, website, genre, pls and bookmarked,
+     * to a new station.
+     */
+    public static LibraryDatabase.RowMapper<InternetRadioStation> newStationMapper(final LibraryDatabase db) {
+        return new LibraryDatabase.RowMapper<InternetRadioStation>() {
+            public InternetRadioStation map(ResultSet row) throws SQLException {
+                InternetRadioStation station = new InternetRadioStation(db);
+                fill(row, station);
+                return station;
+            }
+        };
+    }
+
     public static void save(LibraryDatabase db, InternetRadioStation obj) {
         if (obj.getId() == LibraryDatabase.OBJECT_INVALID_ID) {
             return;
@@ -61,17 +90,7 @@ public class InternetRadioStationDB {
     }
     
     public static List<InternetRadioStation> getInternetRadioStations(LibraryDatabase db) {
-        List<List<Object>> result = db.query("SELECT internetRadioStationId, name, description, url, bitrate, type, website, genre, pls, bookmarked FROM InternetRadioStations");
-
-        List<InternetRadioStation> internetRadioStations = new ArrayList<InternetRadioStation>(result.size());
-
-        for (List<Object> row : result) {
-            InternetRadioStation internetRadioStation = new InternetRadioStation(db);
-            InternetRadioStationDB.fill(row, internetRadioStation);
-            internetRadioStations.add(internetRadioStation);
-        }
-
-        return internetRadioStations;
+        return db.query(newStationMapper(db), "SELECT internetRadioStationId, name, description, url, bitrate, type, website, genre, pls, bookmarked FROM InternetRadioStations");
     }
 
     
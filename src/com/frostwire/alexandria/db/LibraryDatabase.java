@@ -9,12 +9,37 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.constant.ErrorCode;
 
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
 
+/**
+ * The library H2 database, opened in embedded mode.
+ * <p>
+ * Writes are serialized on a single connection, while queries are run on a
+ * small pool of read only connections, so loading a playlist or searching
+ * doesn't wait behind a long batch of writes. A query that finds no idle
+ * read connection in a short while, or that runs while its thread already
+ * holds one, falls back to the write connection. Every connection keeps a
+ * cache of its prepared statements.
+ * <p>
+ * MVCC, which lets readers see the last committed data instead of blocking
+ * on the table locks of an open write transaction, is experimental in the
+ * bundled H2 1.3.164, so it's only used when asked for. Without it a reader
+ * would wait on the table locks of any open transaction, so all queries go
+ * through the write connection, as transactions do. A query that times out
+ * on a lock is run again there, instead of reading as empty.
+ */
 public class LibraryDatabase {
 
     public static final int OBJECT_NOT_SAVED_ID = -1;
@@ -22,14 +47,41 @@ public class LibraryDatabase {
     public static final int STARRED_PLAYLIST_ID = -3;
 
     public static final int LIBRARY_VERSION_PLAYLIST_SORT_INDEXES = 4; // indicates db version when playlist sort indexes were added
-    public static final int LIBRARY_DATABASE_VERSION = 4;
-    
+    public static final int LIBRARY_VERSION_PLAYLIST_ITEMS_INDEX = 5; // indicates db version when the (playlistId, sortIndex) index was added
+    public static final int LIBRARY_VERSION_PLAYLIST_ITEMS_SEARCH_INDEX = 6; // indicates db version when playlist items left the H2 full text index
+    public static final int LIBRARY_VERSION_TRACKS = 7; // indicates db version when the starred flag and tags moved to the Tracks table
+    public static final int LIBRARY_DATABASE_VERSION = 7;
+
+    private static final int MAX_READ_CONNECTIONS = 3;
+    private static final long READ_CONNECTION_TIMEOUT_MILLIS = 200;
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    private static final RowMapper<List<Object>> LIST_ROW_MAPPER = new RowMapper<List<Object>>() {
+        public List<Object> map(ResultSet resultSet) throws SQLException {
+            int numColums = resultSet.getMetaData().getColumnCount();
+            List<Object> row = new ArrayList<Object>(numColums);
+            for (int i = 1; i <= numColums; i++) {
+                row.add(resultSet.getObject(i));
+            }
+            return row;
+        }
+    };
+
     private final File _databaseFile;
     private final String _name;
     
-    private Connection _connection;
+    private final PooledConnection _connection;
+
+    private final BlockingQueue<PooledConnection> _readConnections;
+    private final List<PooledConnection> _openedReadConnections;
+    // set while the thread holds a read connection, nested queries don't wait for another
+    private final ThreadLocal<Boolean> _reading;
+
+    private final boolean _mvcc;
 
-    private boolean _closed;
+    private final PlaylistItemsIndex _itemsIndex;
+
+    private volatile boolean _closed;
 
     static {
         try {
@@ -40,12 +92,33 @@ public class LibraryDatabase {
     }
 
     public LibraryDatabase(File databaseFile) {
+        this(databaseFile, false);
+    }
+
+    /**
+     * @param mvcc whether to open the database in the experimental MVCC mode
+     */
+    public LibraryDatabase(File databaseFile, boolean mvcc) {
         _databaseFile = databaseFile;
+        _mvcc = mvcc;
 
         File path = databaseFile;
         _name = databaseFile.getName();
 
-        _connection = openOrCreateDatabase(path, _name);
+        _readConnections = new LinkedBlockingQueue<PooledConnection>();
+        _openedReadConnections = new ArrayList<PooledConnection>(MAX_READ_CONNECTIONS);
+        _reading = new ThreadLocal<Boolean>();
+
+        // before the upgrades, which may save items
+        _itemsIndex = new PlaylistItemsIndex(this, new File(path, "playlistitems_index"));
+
+        Connection connection = openOrCreateDatabase(path, _name);
+        _connection = connection != null ? new PooledConnection(connection) : null;
+        _closed = connection == null;
+
+        if (!_closed) {
+            _itemsIndex.open();
+        }
     }
 
     public File getDatabaseFile() {
@@ -56,16 +129,60 @@ public class LibraryDatabase {
         return _name;
     }
 
+    public PlaylistItemsIndex getPlaylistItemsIndex() {
+        return _itemsIndex;
+    }
+
     public boolean isClosed() {
         return _closed;
     }
 
-    public synchronized List<List<Object>> query(String statementSql, Object... arguments) {
+    public List<List<Object>> query(String statementSql, Object... arguments) {
+        return query(LIST_ROW_MAPPER, statementSql, arguments);
+    }
+
+    /**
+     * Runs the query in a read connection, mapping each row as it's read.
+     * @param mapper
+     * @return the mapped rows, or an empty list in case of error
+     */
+    public <T> List<T> query(RowMapper<T> mapper, String statementSql, Object... arguments) {
         if (isClosed()) {
-            return new ArrayList<List<Object>>();
+            return new ArrayList<T>();
+        }
+
+        PooledConnection connection = acquireReadConnection();
+
+        if (connection == null) {
+            // no read connection available, use the write one
+            synchronized (this) {
+                if (isClosed() || _connection == null) {
+                    return new ArrayList<T>();
+                }
+                return query(_connection, mapper, statementSql, arguments);
+            }
+        }
+
+        _reading.set(Boolean.TRUE);
+        try {
+            return execute(connection, mapper, statementSql, arguments);
+        } catch (SQLException e) {
+            if (e.getErrorCode() != ErrorCode.LOCK_TIMEOUT_1) {
+                e.printStackTrace();
+                return new ArrayList<T>();
+            }
+        } finally {
+            _reading.remove();
+            releaseReadConnection(connection);
         }
 
-        return query(_connection, statementSql, arguments);
+        // a transaction held the lock, once in the monitor it's over
+        synchronized (this) {
+            if (isClosed() || _connection == null) {
+                return new ArrayList<T>();
+            }
+            return query(_connection, mapper, statementSql, arguments);
+        }
     }
 
     /**
@@ -104,17 +221,67 @@ public class LibraryDatabase {
         return OBJECT_INVALID_ID;
     }
 
+    /**
+     * Runs the work in a single transaction, rolling everything back if
+     * it fails.
+     * @param transaction
+     * @return false if the database is closed or the transaction failed
+     */
+    public synchronized boolean runInTransaction(Transaction transaction) {
+        if (isClosed()) {
+            return false;
+        }
+
+        Connection connection = _connection.connection;
+        boolean autoCommit = true;
+
+        try {
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            transaction.run(connection);
+
+            connection.commit();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            try {
+                connection.rollback();
+            } catch (SQLException e1) {
+            }
+        } finally {
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+            }
+        }
+
+        return false;
+    }
+
     public synchronized void close() {
         if (isClosed()) {
             return;
         }
 
+        // commits the pending changes, which may still read the database
+        _itemsIndex.close();
+
         _closed = true;
 
+        synchronized (_openedReadConnections) {
+            for (PooledConnection connection : _openedReadConnections) {
+                connection.close();
+            }
+            _openedReadConnections.clear();
+            _readConnections.clear();
+        }
+
         try {
-            Statement statement = _connection.createStatement();
+            _connection.closeStatements();
+            Statement statement = _connection.connection.createStatement();
             statement.execute("SHUTDOWN");
-            _connection.close();
+            _connection.connection.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -143,10 +310,24 @@ public class LibraryDatabase {
             setupLuceneIndex(connection);
         }
         
-        if (newVersion == 4) {
+        // items are read with their tracks, so these go before any step reading items,
+        // and without them the version stays as it is, for the next start to try again
+        if (oldVersion < LIBRARY_VERSION_TRACKS && !setupTracks(connection)) {
+            return;
+        }
+
+        if (oldVersion < LIBRARY_VERSION_PLAYLIST_SORT_INDEXES) {
             setupPlaylistIndexes(connection);
         }
 
+        if (oldVersion < LIBRARY_VERSION_PLAYLIST_ITEMS_INDEX) {
+            setupPlaylistItemsIndex(connection);
+        }
+
+        if (oldVersion < LIBRARY_VERSION_PLAYLIST_ITEMS_SEARCH_INDEX) {
+            dropPlaylistItemsFullTextIndex(connection);
+        }
+
         update(connection, "UPDATE Library SET version = ?", LIBRARY_DATABASE_VERSION);
     }
 
@@ -156,6 +337,10 @@ public class LibraryDatabase {
             sb.append("jdbc:h2:");
             sb.append(new File(path, name).getAbsolutePath());
 
+            if (_mvcc) {
+                sb.append(";MVCC=TRUE");
+            }
+
             if (!createIfNotExists) {
                 sb.append(";ifexists=true");
             }
@@ -182,6 +367,8 @@ public class LibraryDatabase {
                 "CREATE TABLE PlaylistItems (playlistItemId INTEGER IDENTITY, filePath VARCHAR(10000), fileName VARCHAR(500), fileSize BIGINT, fileExtension VARCHAR(10), trackTitle VARCHAR(500), trackDurationInSecs REAL, trackArtist VARCHAR(500), trackAlbum VARCHAR(500), coverArtPath VARCHAR(10000), trackBitrate VARCHAR(10), trackComment VARCHAR(500), trackGenre VARCHAR(20), trackNumber VARCHAR(6), trackYear VARCHAR(6), playlistId INTEGER, starred BOOLEAN, sortIndex INTEGER)");
         update(connection, "CREATE INDEX idx_PlaylistItems_filePath ON PlaylistItems (filePath)");
         update(connection, "CREATE INDEX idx_PlaylistItems_starred ON PlaylistItems (starred)");
+        setupPlaylistItemsIndex(connection);
+        setupTracks(connection);
 
         setupInternetRadioStationsTable(connection);
 
@@ -229,28 +416,141 @@ public class LibraryDatabase {
             return OBJECT_INVALID_ID;
         }
 
-        Statement statement = null;
         ResultSet resultSet = null;
 
         try {
-            statement = _connection.createStatement();
-            resultSet = statement.executeQuery("CALL IDENTITY()");
+            resultSet = _connection.prepare("CALL IDENTITY()").executeQuery();
 
             resultSet.next();
 
             return resultSet.getInt(1);
         } catch (Exception e) {
             e.printStackTrace();
+            _connection.discard("CALL IDENTITY()");
         } finally {
-            if (statement != null) {
+            close(resultSet);
+        }
+
+        return OBJECT_INVALID_ID;
+    }
+
+    private <T> List<T> query(PooledConnection connection, RowMapper<T> mapper, String statementSql, Object... arguments) {
+        try {
+            return execute(connection, mapper, statementSql, arguments);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return new ArrayList<T>();
+    }
+
+    private <T> List<T> execute(PooledConnection connection, RowMapper<T> mapper, String statementSql, Object... arguments) throws SQLException {
+        ResultSet resultSet = null;
+
+        try {
+            PreparedStatement statement = connection.prepare(statementSql);
+            bind(statement, arguments);
+
+            resultSet = statement.executeQuery();
+
+            List<T> result = new ArrayList<T>();
+            while (resultSet.next()) {
+                result.add(mapper.map(resultSet));
+            }
+            return result;
+        } catch (SQLException e) {
+            connection.discard(statementSql);
+            throw e;
+        } catch (RuntimeException e) {
+            connection.discard(statementSql);
+            throw e;
+        } finally {
+            close(resultSet);
+        }
+    }
+
+    private int update(PooledConnection connection, String statementSql, Object... arguments) {
+        try {
+            PreparedStatement statement = connection.prepare(statementSql);
+            bind(statement, arguments);
+
+            return statement.executeUpdate();
+        } catch (Exception e) {
+            e.printStackTrace();
+            connection.discard(statementSql);
+        }
+
+        return -1;
+    }
+
+    private static void bind(PreparedStatement statement, Object[] arguments) throws SQLException {
+        if (arguments != null) {
+            for (int i = 0; i < arguments.length; i++) {
+                statement.setObject(i + 1, arguments[i]);
+            }
+        }
+    }
+
+    private static void close(ResultSet resultSet) {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * Returns an idle read connection, opening a new one if the pool is not
+     * full yet, or null if none could be opened or got idle in time, if the
+     * thread already holds one, or if MVCC is off.
+     */
+    private PooledConnection acquireReadConnection() {
+        // without MVCC a read connection would only wait on the table locks of the write one
+        if (!_mvcc || _reading.get() != null) {
+            return null;
+        }
+
+        PooledConnection connection = _readConnections.poll();
+        if (connection != null) {
+            return connection;
+        }
+
+        synchronized (_openedReadConnections) {
+            if (!isClosed() && _openedReadConnections.size() < MAX_READ_CONNECTIONS) {
+                Connection c = openConnection(_databaseFile, _name, false);
+                if (c == null) {
+                    return null;
+                }
                 try {
-                    statement.close();
+                    c.setReadOnly(true);
                 } catch (SQLException e) {
+                    // only a hint
                 }
+                connection = new PooledConnection(c);
+                _openedReadConnections.add(connection);
+                return connection;
+            }
+
+            if (_openedReadConnections.isEmpty()) {
+                return null;
             }
         }
 
-        return OBJECT_INVALID_ID;
+        try {
+            return _readConnections.poll(READ_CONNECTION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void releaseReadConnection(PooledConnection connection) {
+        if (isClosed()) {
+            connection.close();
+        } else {
+            _readConnections.offer(connection);
+        }
     }
 
     private List<List<Object>> query(Connection connection, String statementSql, Object... arguments) {
@@ -331,9 +631,26 @@ public class LibraryDatabase {
         update(connection, "CREATE ALIAS IF NOT EXISTS FTL_INIT FOR \"org.h2.fulltext.FullTextLucene2.init\"");
         update(connection, "CALL FTL_INIT()");
 
-        update(connection, "CALL FTL_CREATE_INDEX('PUBLIC', 'PLAYLISTITEMS', 'FILEPATH, TRACKTITLE, TRACKARTIST, TRACKALBUM, TRACKGENRE, TRACKYEAR')");
+        // playlist items are indexed by PlaylistItemsIndex, without triggers
         update(connection, "CALL FTL_CREATE_INDEX('PUBLIC', 'INTERNETRADIOSTATIONS', 'NAME, DESCRIPTION, GENRE')");
     }
+
+    private boolean setupTracks(final Connection connection) {
+        try {
+            TrackDB.setup(connection);
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void dropPlaylistItemsFullTextIndex(final Connection connection) {
+        update(connection, "DROP TRIGGER IF EXISTS PUBLIC.FTL_PLAYLISTITEMS");
+        update(connection, "DELETE FROM FTL.INDEXES WHERE SCHEMA = 'PUBLIC' AND TABLE = 'PLAYLISTITEMS'");
+        // rebuilds the H2 index files with the radio stations only
+        update(connection, "CALL FTL_REINDEX()");
+    }
     
     private void setupPlaylistIndexes(final Connection connection) {
         
@@ -353,4 +670,98 @@ public class LibraryDatabase {
             }
         }
     }
+
+    /**
+     * Items are read per playlist and in order, so the index answers those
+     * queries without a scan or a sort.
+     */
+    private void setupPlaylistItemsIndex(final Connection connection) {
+        update(connection, "CREATE INDEX IF NOT EXISTS idx_PlaylistItems_playlistId_sortIndex ON PlaylistItems (playlistId, sortIndex)");
+    }
+
+    /**
+     * Work to be done with the connection inside a transaction.
+     */
+    public interface Transaction {
+
+        void run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Maps the current row of a result set, without moving it.
+     */
+    public interface RowMapper<T> {
+
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * A connection with a LRU cache of prepared statements, used by one
+     * thread at a time.
+     */
+    private static final class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+
+        public PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+
+                private static final long serialVersionUID = -2916467307460183217L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+            return statement;
+        }
+
+        /**
+         * Drops a statement that failed, it may be unusable.
+         */
+        public void discard(String sql) {
+            closeStatement(statements.remove(sql));
+        }
+
+        public void closeStatements() {
+            Iterator<PreparedStatement> it = statements.values().iterator();
+            while (it.hasNext()) {
+                closeStatement(it.next());
+                it.remove();
+            }
+        }
+
+        public void close() {
+            closeStatements();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+            }
+        }
+
+        private static void closeStatement(PreparedStatement statement) {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
 }
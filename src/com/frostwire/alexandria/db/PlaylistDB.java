@@ -1,9 +1,11 @@
 package com.frostwire.alexandria.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
@@ -28,10 +30,17 @@ public class PlaylistDB {
         p.setId(id);
         p.setName(name);
         p.setDescription(description);
-        p.refresh();
+        p.setDirty(false);
+        // the items are loaded when first needed, see Playlist.getItems()
     }
 
-    public static void save(LibraryDatabase db, Playlist obj) {
+    /**
+     * Saves what changed since the playlist was read or saved: the name and
+     * description if they changed and, if the items are loaded, the new and
+     * the changed items, all in one transaction. Removed items are deleted
+     * by {@link com.frostwire.alexandria.PlaylistEdit}.
+     */
+    public static void save(LibraryDatabase db, final Playlist obj) {
         if (obj.getId() == LibraryDatabase.OBJECT_INVALID_ID) {
             return;
         }
@@ -39,23 +48,63 @@ public class PlaylistDB {
         if (obj.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
             int id = db.insert("INSERT INTO Playlists (name, description) VALUES (LEFT(?, 500), LEFT(?, 10000))", obj.getName(), obj.getDescription());
             obj.setId(id);
-        } else {
-            db.update("DELETE FROM PlaylistItems WHERE playlistId = ?", obj.getId());
-            Object[] statementObjects = createPlaylistUpdateStatement(obj);
-            db.update((String) statementObjects[0], (Object[]) statementObjects[1]);
+            obj.setDirty(false);
         }
-        
-        List<PlaylistItem> items = new ArrayList<PlaylistItem>(obj.getItems());
 
-        for (PlaylistItem item : items) {
-            item.setId(LibraryDatabase.OBJECT_NOT_SAVED_ID);
-            item.save();
+        final boolean dirty = obj.isDirty();
+        final List<PlaylistItem> inserts = new ArrayList<PlaylistItem>();
+        final List<PlaylistItem> updates = new ArrayList<PlaylistItem>();
+
+        // unloaded items are the ones in the database
+        if (obj.isLoaded()) {
+            List<PlaylistItem> items = obj.getItems();
+            synchronized (items) {
+                for (PlaylistItem item : items) {
+                    if (item.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
+                        inserts.add(item);
+                    } else if (item.getId() >= 0 && item.isDirty()) {
+                        updates.add(item);
+                    }
+                }
+            }
+        }
+
+        if (!dirty && inserts.isEmpty() && updates.isEmpty()) {
+            return;
+        }
+
+        final int[] ids = new int[inserts.size()];
+
+        boolean saved = db.runInTransaction(new LibraryDatabase.Transaction() {
+            public void run(Connection connection) throws SQLException {
+                if (dirty) {
+                    Object[] statementObjects = createPlaylistUpdateStatement(obj);
+                    PreparedStatement statement = connection.prepareStatement((String) statementObjects[0]);
+                    try {
+                        Object[] values = (Object[]) statementObjects[1];
+                        for (int i = 0; i < values.length; i++) {
+                            statement.setObject(i + 1, values[i]);
+                        }
+                        statement.executeUpdate();
+                    } finally {
+                        statement.close();
+                    }
+                }
+
+                PlaylistItemDB.saveItems(connection, inserts, updates, ids);
+            }
+        });
+
+        if (saved) {
+            obj.setDirty(false);
+            PlaylistItemDB.onSaved(db, inserts, ids, updates, Collections.<PlaylistItem> emptyList());
         }
     }
 
     public static void delete(LibraryDatabase db, Playlist obj) {
         db.update("DELETE FROM PlaylistItems WHERE playlistId = ?", obj.getId());
         db.update("DELETE FROM Playlists WHERE playlistId = ?", obj.getId());
+        db.getPlaylistItemsIndex().deletePlaylist(obj.getId());
     }
 
     public static List<Playlist> getPlaylists(LibraryDatabase db) {
@@ -83,24 +132,17 @@ public class PlaylistDB {
         return playlist;
     }
     
+    /**
+     * The starred playlist has an item per starred track, the first item of
+     * each track, so it's read from the tracks instead of all the items.
+     */
     public static Playlist getStarredPlaylist(LibraryDatabase db) {
-        String query = "SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred " + "FROM PlaylistItems WHERE starred = ?";
-
-        List<List<Object>> result = db.query(query, true);
+        String query = "SELECT " + PlaylistItemDB.COLUMNS + " FROM (SELECT MIN(J.playlistItemId) AS firstItemId FROM Tracks S JOIN PlaylistItems J ON J.trackId = S.trackId WHERE S.starred = TRUE GROUP BY S.trackId) F "
+                + "JOIN PlaylistItems I ON I.playlistItemId = F.firstItemId LEFT JOIN Tracks T ON T.trackId = I.trackId";
 
         Playlist playlist = new Playlist(db, LibraryDatabase.STARRED_PLAYLIST_ID, "starred", "starred");
 
-        List<PlaylistItem> items = new ArrayList<PlaylistItem>(result.size());
-        Set<String> paths = new HashSet<String>();
-
-        for (List<Object> row : result) {
-            PlaylistItem item = new PlaylistItem(playlist);
-            PlaylistItemDB.fill(row, item);
-            if (!paths.contains(item.getFilePath())) {
-                items.add(item);
-                paths.add(item.getFilePath());
-            }
-        }
+        List<PlaylistItem> items = db.query(PlaylistItemDB.newItemMapper(playlist), query);
 
         playlist.getItems().addAll(items);
 
@@ -108,18 +150,10 @@ public class PlaylistDB {
     }
 
     public static void updatePlaylistItemProperties(LibraryDatabase db, String filePath, String title, String artist, String album, String comment, String genre, String track, String year) {
-        Object[] sqlAndValues = createPlaylistItemPropertiesUpdate(filePath, title, artist, album, comment, genre, track, year);
-        db.update((String) sqlAndValues[0], (Object[]) sqlAndValues[1]);
+        TrackDB.updateTags(db, filePath, title, artist, album, comment, genre, track, year);
+        db.getPlaylistItemsIndex().updateFile(filePath);
     }
 
-    private static Object[] createPlaylistItemPropertiesUpdate(String filePath, String title, String artist, String album, String comment, String genre, String track, String year) {
-        String sql = "UPDATE PlaylistItems SET trackTitle = LEFT(?, 500), trackArtist = LEFT(?, 500), trackAlbum = LEFT(?, 500), trackComment = LEFT(?, 500), trackGenre = LEFT(?, 20), trackNumber = LEFT(?, 6), trackYear = LEFT(?, 6) WHERE filePath = LEFT(?, 10000)";
-
-        Object[] values = new Object[] { title, artist, album, comment, genre, track, year, filePath };
-
-        return new Object[] { sql, values };
-    }
-    
     private static Object[] createPlaylistUpdateStatement(Playlist obj) {
         String sql = "UPDATE Playlists SET name = LEFT(?, 500), description = LEFT(?, 10000) WHERE playlistId = ?";
         Object[] values = new Object[] { obj.getName(), obj.getDescription(), obj.getId() };
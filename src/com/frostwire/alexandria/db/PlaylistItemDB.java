@@ -1,19 +1,45 @@
 package com.frostwire.alexandria.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
 
 public class PlaylistItemDB {
 
+    /**
+     * The columns read by {@link #newItemMapper(Playlist)}, sortIndex is optional.
+     * The starred flag and the tags come from the track of the item, see
+     * {@link TrackDB}, the copies in the item rows are no longer read.
+     */
+    public static final String COLUMNS = "I.playlistItemId, I.filePath, I.fileName, I.fileSize, I.fileExtension, T.trackTitle, I.trackDurationInSecs, T.trackArtist, T.trackAlbum, I.coverArtPath, I.trackBitrate, "
+            + "T.trackComment, T.trackGenre, T.trackNumber, T.trackYear, COALESCE(T.starred, FALSE), I.sortIndex";
+
+    /**
+     * The tables of {@link #COLUMNS}, the items as I and their tracks as T.
+     */
+    public static final String TABLES = "PlaylistItems I LEFT JOIN Tracks T ON T.trackId = I.trackId";
+
+    private static final int ID_QUERY_CHUNK_SIZE = 500;
+
     private PlaylistItemDB() {} // don't construct this direclty
 
     public static void fill(LibraryDatabase db, PlaylistItem obj) {
-        List<List<Object>> result = db
-                .query("SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred "
-                        + "FROM PlaylistItems WHERE playlistItemId = ?", obj.getId());
+        List<List<Object>> result = db.query("SELECT " + COLUMNS + " FROM " + TABLES + " WHERE I.playlistItemId = ?", obj.getId());
         if (result.size() > 0) {
             List<Object> row = result.get(0);
             fill(row, obj);
@@ -57,6 +83,53 @@ public class PlaylistItemDB {
         obj.setTrackYear(trackYear);
         obj.setStarred(starred);
         obj.setSortIndex(sortIndex);
+        obj.setDirty(false);
+    }
+
+    public static void fill(ResultSet row, PlaylistItem obj) throws SQLException {
+        obj.setId(row.getInt(1));
+        obj.setFilePath(row.getString(2));
+        obj.setFileName(row.getString(3));
+        obj.setFileSize(row.getLong(4));
+        obj.setFileExtension(row.getString(5));
+        obj.setTrackTitle(row.getString(6));
+        obj.setTrackDurationInSecs(row.getFloat(7));
+        obj.setTrackArtist(row.getString(8));
+        obj.setTrackAlbum(row.getString(9));
+        obj.setCoverArtPath(row.getString(10));
+        obj.setTrackBitrate(row.getString(11));
+        obj.setTrackComment(row.getString(12));
+        obj.setTrackGenre(row.getString(13));
+        obj.setTrackNumber(row.getString(14));
+        obj.setTrackYear(row.getString(15));
+        obj.setStarred(row.getBoolean(16));
+        obj.setSortIndex(row.getMetaData().getColumnCount() < 17 ? 0 : row.getInt(17)); // null is read as 0
+        obj.setDirty(false);
+    }
+
+    /**
+     * Maps each row, with the columns in the order of {@link #COLUMNS}, to a
+     * new item of the playlist.
+     */
+    public static LibraryDatabase.RowMapper<PlaylistItem> newItemMapper(final Playlist playlist) {
+        return newItemMapper(playlist, Collections.<Integer, PlaylistItem> emptyMap());
+    }
+
+    /**
+     * Like {@link #newItemMapper(Playlist)}, but the rows of the ids in
+     * reuse fill those instances.
+     */
+    public static LibraryDatabase.RowMapper<PlaylistItem> newItemMapper(final Playlist playlist, final Map<Integer, PlaylistItem> reuse) {
+        return new LibraryDatabase.RowMapper<PlaylistItem>() {
+            public PlaylistItem map(ResultSet row) throws SQLException {
+                PlaylistItem item = reuse.get(row.getInt(1));
+                if (item == null) {
+                    item = new PlaylistItem(playlist);
+                }
+                fill(row, item);
+                return item;
+            }
+        };
     }
 
     public static void save(LibraryDatabase db, PlaylistItem obj) {
@@ -64,53 +137,319 @@ public class PlaylistItemDB {
             return;
         }
 
+        final List<PlaylistItem> inserts = new ArrayList<PlaylistItem>(1);
+        final List<PlaylistItem> updates = new ArrayList<PlaylistItem>(1);
+
         if (obj.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
-            obj.setStarred(isStarred(db, obj) || obj.isStarred());
-            Object[] sqlAndValues = createPlaylistItemInsert(obj);
-            int id = db.insert((String) sqlAndValues[0], (Object[]) sqlAndValues[1]);
-            obj.setId(id);
-            sqlAndValues = updateStarred(obj);
-            db.update((String) sqlAndValues[0], (Object[]) sqlAndValues[1]);
+            inserts.add(obj);
+        } else if (obj.isDirty()) {
+            updates.add(obj);
         } else {
-            Object[] sqlAndValues = createPlaylistItemUpdate(obj);
-            db.update((String) sqlAndValues[0], (Object[]) sqlAndValues[1]);
-            sqlAndValues = updateStarred(obj);
-            db.update((String) sqlAndValues[0], (Object[]) sqlAndValues[1]);
+            return;
+        }
+
+        final int[] ids = new int[inserts.size()];
+
+        boolean saved = db.runInTransaction(new LibraryDatabase.Transaction() {
+            public void run(Connection connection) throws SQLException {
+                saveItems(connection, inserts, updates, ids);
+            }
+        });
+
+        if (saved) {
+            onSaved(db, inserts, ids, updates, Collections.<PlaylistItem> emptyList());
+        }
+    }
+
+    /**
+     * Applies the changes of a playlist edit in a single transaction. Deletes
+     * and sort index updates are sent in JDBC batches, inserts reuse a single
+     * prepared statement since each one needs its generated id back.
+     * 
+     * @return false if nothing was saved
+     */
+    public static boolean saveBatch(LibraryDatabase db, final List<PlaylistItem> inserts, final List<PlaylistItem> updates, final List<PlaylistItem> deletes) {
+        if (inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty()) {
+            return true;
+        }
+
+        final int[] ids = new int[inserts.size()];
+
+        boolean saved = db.runInTransaction(new LibraryDatabase.Transaction() {
+            public void run(Connection connection) throws SQLException {
+                if (!deletes.isEmpty()) {
+                    PreparedStatement statement = connection.prepareStatement("DELETE FROM PlaylistItems WHERE playlistItemId = ?");
+                    try {
+                        for (PlaylistItem item : deletes) {
+                            statement.setInt(1, item.getId());
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    } finally {
+                        statement.close();
+                    }
+                }
+
+                if (!inserts.isEmpty()) {
+                    insertBatch(connection, inserts, ids);
+                }
+
+                if (!updates.isEmpty()) {
+                    PreparedStatement statement = connection.prepareStatement("UPDATE PlaylistItems SET sortIndex = ? WHERE playlistItemId = ?");
+                    try {
+                        for (PlaylistItem item : updates) {
+                            statement.setInt(1, item.getSortIndex());
+                            statement.setInt(2, item.getId());
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    } finally {
+                        statement.close();
+                    }
+                }
+            }
+        });
+
+        if (saved) {
+            // only the sort index of the updates changed, it's not searchable
+            onSaved(db, inserts, ids, Collections.<PlaylistItem> emptyList(), deletes);
+            for (PlaylistItem item : updates) {
+                item.setDirty(false);
+            }
+        }
+
+        return saved;
+    }
+
+    /**
+     * Inserts the new items and rewrites the changed ones inside a
+     * transaction, the ids of the inserted items are set in ids. Call
+     * {@link #onSaved} once the transaction is committed.
+     */
+    static void saveItems(Connection connection, List<PlaylistItem> inserts, List<PlaylistItem> updates, int[] ids) throws SQLException {
+        if (!inserts.isEmpty()) {
+            insertBatch(connection, inserts, ids);
+        }
+
+        if (!updates.isEmpty()) {
+            updateBatch(connection, updates);
+        }
+    }
+
+    /**
+     * Sets the ids of the inserted items, marks the saved ones as clean and
+     * updates the search index.
+     */
+    static void onSaved(LibraryDatabase db, List<PlaylistItem> inserts, int[] ids, List<PlaylistItem> updates, List<PlaylistItem> deletes) {
+        for (int i = 0; i < ids.length; i++) {
+            inserts.get(i).setId(ids[i]);
+            inserts.get(i).setDirty(false);
+        }
+        for (PlaylistItem item : updates) {
+            item.setDirty(false);
+        }
+
+        PlaylistItemsIndex index = db.getPlaylistItemsIndex();
+        index.delete(deletes);
+        index.update(inserts);
+        // the starred flag is shared by all the items of a file
+        Set<String> starredPaths = new LinkedHashSet<String>();
+        for (PlaylistItem item : inserts) {
+            if (item.isStarred()) {
+                starredPaths.add(item.getFilePath());
+            }
+        }
+        for (PlaylistItem item : updates) {
+            starredPaths.add(item.getFilePath());
+        }
+        for (String path : starredPaths) {
+            index.updateFile(path);
         }
     }
 
     public static void delete(LibraryDatabase db, PlaylistItem obj) {
         db.update("DELETE FROM PlaylistItems WHERE playlistItemId = ?", obj.getId());
+        db.getPlaylistItemsIndex().delete(Collections.singletonList(obj));
     }
     
     public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist) {
-        String query = "SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex "
-                + "FROM PlaylistItems WHERE playlistId = ? ORDER BY sortIndex ASC";
+        return getPlaylistItems(db, playlist, Collections.<Integer, PlaylistItem> emptyMap());
+    }
+
+    /**
+     * Reads all the items of the playlist, filling the instances in reuse
+     * instead of creating new ones for their ids.
+     */
+    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist, Map<Integer, PlaylistItem> reuse) {
+        String query = "SELECT " + COLUMNS + " FROM " + TABLES + " WHERE I.playlistId = ? ORDER BY I.sortIndex ASC";
+
+        List<PlaylistItem> items = db.query(newItemMapper(playlist, reuse), query, playlist.getId());
+
+        for (int i = 0; i < items.size(); i++) {
+            items.get(i).setPosition(i + 1);
+        }
+
+        return items;
+    }
+
+    /**
+     * Reads a window of the items of the playlist, in playlist order. The
+     * (playlistId, sortIndex) index gives the rows already sorted.
+     */
+    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist, int offset, int limit, Map<Integer, PlaylistItem> reuse) {
+        String query = "SELECT " + COLUMNS + " FROM " + TABLES + " WHERE I.playlistId = ? ORDER BY I.sortIndex ASC LIMIT ? OFFSET ?";
+
+        List<PlaylistItem> items = db.query(newItemMapper(playlist, reuse), query, playlist.getId(), limit, offset);
+
+        for (int i = 0; i < items.size(); i++) {
+            items.get(i).setPosition(offset + i + 1);
+        }
+
+        return items;
+    }
+
+    /**
+     * Reads the items with the ids, in the order of the ids, as returned by
+     * the search index. Ids of items no longer in the database are skipped.
+     */
+    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist, List<Integer> ids) {
+        return getPlaylistItems(db, playlist, ids, Collections.<Integer, PlaylistItem> emptyMap());
+    }
 
-        List<List<Object>> result = db.query(query, playlist.getId());
+    /**
+     * Like {@link #getPlaylistItems(LibraryDatabase, Playlist, List)}, but the
+     * rows of the ids in reuse fill those instances.
+     */
+    public static List<PlaylistItem> getPlaylistItems(LibraryDatabase db, Playlist playlist, List<Integer> ids, Map<Integer, PlaylistItem> reuse) {
+        Map<Integer, PlaylistItem> byId = new HashMap<Integer, PlaylistItem>(ids.size());
 
-        List<PlaylistItem> items = new ArrayList<PlaylistItem>(result.size());
+        for (int from = 0; from < ids.size(); from += ID_QUERY_CHUNK_SIZE) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + ID_QUERY_CHUNK_SIZE, ids.size()));
 
-        for (List<Object> row : result) {
-            PlaylistItem item = new PlaylistItem(playlist);
-            PlaylistItemDB.fill(row, item);
-            items.add(item);
+            StringBuilder query = new StringBuilder("SELECT " + COLUMNS + " FROM " + TABLES + " WHERE I.playlistItemId IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+
+            for (PlaylistItem item : db.query(newItemMapper(playlist, reuse), query.toString(), chunk.toArray())) {
+                byId.put(item.getId(), item);
+            }
+        }
+
+        List<PlaylistItem> items = new ArrayList<PlaylistItem>(byId.size());
+        for (Integer id : ids) {
+            PlaylistItem item = byId.get(id);
+            if (item != null) {
+                items.add(item);
+            }
         }
 
         return items;
     }
+
+    /**
+     * Returns the 1-based positions in the playlist of the items with the ids.
+     * Only the ids are read, in order from the (playlistId, sortIndex) index.
+     */
+    public static Map<Integer, Integer> getPlaylistItemPositions(LibraryDatabase db, Playlist playlist, Collection<Integer> ids) {
+        Set<Integer> wanted = new HashSet<Integer>(ids);
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>(wanted.size());
+
+        List<List<Object>> result = db.query("SELECT playlistItemId FROM PlaylistItems WHERE playlistId = ? ORDER BY sortIndex ASC", playlist.getId());
+        for (int i = 0; i < result.size(); i++) {
+            Integer id = (Integer) result.get(i).get(0);
+            if (wanted.contains(id)) {
+                positions.put(id, i + 1);
+            }
+        }
+
+        return positions;
+    }
+
+    public static int getPlaylistItemCount(LibraryDatabase db, Playlist playlist) {
+        List<List<Object>> result = db.query("SELECT COUNT(*) FROM PlaylistItems WHERE playlistId = ?", playlist.getId());
+        if (result.size() > 0 && result.get(0).get(0) != null) {
+            return ((Number) result.get(0).get(0)).intValue();
+        }
+        return 0;
+    }
+
+    public static float getPlaylistDurationInSecs(LibraryDatabase db, Playlist playlist) {
+        List<List<Object>> result = db.query("SELECT SUM(trackDurationInSecs) FROM PlaylistItems WHERE playlistId = ?", playlist.getId());
+        if (result.size() > 0 && result.get(0).get(0) != null) {
+            return ((Number) result.get(0).get(0)).floatValue();
+        }
+        return 0;
+    }
     
-    private static Object[] createPlaylistItemInsert(PlaylistItem item) {
-        String sql = "INSERT INTO PlaylistItems (playlistId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex) "
-                + " VALUES (?, LEFT(?, 10000), LEFT(?, 500), ?, LEFT(?, 10), LEFT(?, 500), ?, LEFT(?, 500), LEFT(?, 500), LEFT(?, 10000), LEFT(?, 10), LEFT(?, 500), LEFT(?, 20), LEFT(?, 6), LEFT(?, 6), ?, ?)";
+    private static Object[] createPlaylistItemInsert(PlaylistItem item, int trackId) {
+        String sql = "INSERT INTO PlaylistItems (playlistId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex, trackId) "
+                + " VALUES (?, LEFT(?, 10000), LEFT(?, 500), ?, LEFT(?, 10), LEFT(?, 500), ?, LEFT(?, 500), LEFT(?, 500), LEFT(?, 10000), LEFT(?, 10), LEFT(?, 500), LEFT(?, 20), LEFT(?, 6), LEFT(?, 6), ?, ?, ?)";
 
         Object[] values = new Object[] { item.getPlaylist().getId(), item.getFilePath(), item.getFileName(), item.getFileSize(), item.getFileExtension(), item.getTrackTitle(),
                 item.getTrackDurationInSecs(), item.getTrackArtist(), item.getTrackAlbum(), item.getCoverArtPath(), item.getTrackBitrate(), item.getTrackComment(),
-                item.getTrackGenre(), item.getTrackNumber(), item.getTrackYear(), item.isStarred(), item.getSortIndex() };
+                item.getTrackGenre(), item.getTrackNumber(), item.getTrackYear(), item.isStarred(), item.getSortIndex(), trackId };
 
         return new Object[] { sql, values };
     }
 
+    private static void insertBatch(Connection connection, List<PlaylistItem> inserts, int[] ids) throws SQLException {
+        // also sets the starred flag of the items from their tracks
+        int[] trackIds = TrackDB.resolve(connection, inserts);
+
+        PreparedStatement statement = null;
+        try {
+            for (int i = 0; i < inserts.size(); i++) {
+                Object[] sqlAndValues = createPlaylistItemInsert(inserts.get(i), trackIds[i]);
+                if (statement == null) {
+                    statement = connection.prepareStatement((String) sqlAndValues[0], Statement.RETURN_GENERATED_KEYS);
+                }
+                Object[] values = (Object[]) sqlAndValues[1];
+                for (int j = 0; j < values.length; j++) {
+                    statement.setObject(j + 1, values[j]);
+                }
+                statement.executeUpdate();
+
+                ResultSet keys = statement.getGeneratedKeys();
+                try {
+                    ids[i] = keys.next() ? keys.getInt(1) : LibraryDatabase.OBJECT_INVALID_ID;
+                } finally {
+                    keys.close();
+                }
+            }
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    private static void updateBatch(Connection connection, List<PlaylistItem> updates) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            for (PlaylistItem item : updates) {
+                Object[] sqlAndValues = createPlaylistItemUpdate(item);
+                if (statement == null) {
+                    statement = connection.prepareStatement((String) sqlAndValues[0]);
+                }
+                Object[] values = (Object[]) sqlAndValues[1];
+                for (int j = 0; j < values.length; j++) {
+                    statement.setObject(j + 1, values[j]);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+
+        // the starred flag is the one of the track, a single row per file
+        TrackDB.update(connection, updates);
+    }
+
     private static Object[] createPlaylistItemUpdate(PlaylistItem item) {
         String sql = "UPDATE PlaylistItems SET filePath = LEFT(?, 10000), fileName = LEFT(?, 500), fileSize = ?, fileExtension = LEFT(?, 10), trackTitle = LEFT(?, 500), trackDurationInSecs = ?, trackArtist = LEFT(?, 500), trackAlbum = LEFT(?, 500), coverArtPath = LEFT(?, 10000), trackBitrate = LEFT(?, 10), trackComment = LEFT(?, 500), trackGenre = LEFT(?, 20), trackNumber = LEFT(?, 6), trackYear = LEFT(?, 6), starred = ?, sortIndex = ? WHERE playlistItemId = ?";
 
@@ -120,22 +459,4 @@ public class PlaylistItemDB {
 
         return new Object[] { sql, values };
     }
-
-    private static Object[] updateStarred(PlaylistItem item) {
-        String sql = "UPDATE PlaylistItems SET starred = ? WHERE filePath = LEFT(?, 10000)";
-
-        Object[] values = new Object[] { item.isStarred(), item.getFilePath() };
-
-        return new Object[] { sql, values };
-    }
-    
-    private static boolean isStarred(LibraryDatabase db, PlaylistItem item) {
-        List<List<Object>> result = db
-                .query("SELECT starred FROM PlaylistItems WHERE filePath = ? LIMIT 1", item.getFilePath());
-        if (result.size() > 0) {
-            return (Boolean) result.get(0).get(0);
-        }
-        
-        return false;
-    }
 }
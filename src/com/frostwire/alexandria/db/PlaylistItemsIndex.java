@@ -0,0 +1,383 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.alexandria.db;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.limewire.concurrent.ExecutorsHelper;
+
+import com.frostwire.alexandria.PlaylistItem;
+
+/**
+ * Full text index of the playlist items, kept by the library next to the
+ * H2 database and searched through a near real time reader.
+ * <p>
+ * Changes are applied to the writer in a single background thread and
+ * committed in batches, a few seconds after the last one, so saving items
+ * never waits for Lucene. Searches see the changes already applied to the
+ * writer even if they are not committed yet. The index is rebuilt from the
+ * database when it's missing or its version changed.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class PlaylistItemsIndex {
+
+    private static final String VERSION = "1";
+    private static final String VERSION_KEY = "version";
+
+    private static final long COMMIT_DELAY_MS = 5000;
+    private static final int REBUILD_PAGE_SIZE = 1000;
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_PLAYLIST_ID = "playlistId";
+    private static final String FIELD_STARRED = "starred";
+    private static final String FIELD_DATA = "data";
+
+    private static final String INDEXED_COLUMNS = "I.playlistItemId, I.playlistId, COALESCE(T.starred, FALSE), I.filePath, T.trackTitle, T.trackArtist, T.trackAlbum, T.trackGenre, T.trackYear";
+
+    private final LibraryDatabase db;
+    private final File path;
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicBoolean commitPending;
+
+    private Analyzer analyzer;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+
+    PlaylistItemsIndex(LibraryDatabase db, File path) {
+        this.db = db;
+        this.path = path;
+        this.executor = new ScheduledThreadPoolExecutor(1, ExecutorsHelper.daemonThreadFactory("PlaylistItemsIndex"));
+        // on close, the pending changes are committed right away
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.commitPending = new AtomicBoolean();
+    }
+
+    /**
+     * Opens the index in the background, rebuilding it if needed.
+     */
+    void open() {
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    Directory directory = FSDirectory.open(path);
+
+                    boolean rebuild = !IndexReader.indexExists(directory) || !VERSION.equals(IndexReader.getCommitUserData(directory).get(VERSION_KEY));
+
+                    Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_35, Collections.emptySet());
+                    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, analyzer);
+                    config.setOpenMode(rebuild ? OpenMode.CREATE : OpenMode.CREATE_OR_APPEND);
+
+                    IndexWriter writer = new IndexWriter(directory, config);
+                    SearcherManager searcherManager = new SearcherManager(writer, true, null, null);
+
+                    synchronized (PlaylistItemsIndex.this) {
+                        PlaylistItemsIndex.this.analyzer = analyzer;
+                        PlaylistItemsIndex.this.writer = writer;
+                        PlaylistItemsIndex.this.searcherManager = searcherManager;
+                    }
+
+                    if (rebuild) {
+                        rebuild(writer);
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the items, replacing what was indexed for their ids.
+     */
+    public void update(Collection<PlaylistItem> items) {
+        final List<Document> docs = new ArrayList<Document>(items.size());
+        for (PlaylistItem item : items) {
+            if (item.getId() >= 0 && item.getPlaylist() != null) {
+                docs.add(newDocument(item.getId(), item.getPlaylist().getId(), item.isStarred(), item.getFilePath(), item.getTrackTitle(), item.getTrackArtist(), item.getTrackAlbum(), item.getTrackGenre(), item.getTrackYear()));
+            }
+        }
+
+        if (docs.isEmpty()) {
+            return;
+        }
+
+        submit(new IndexTask() {
+            public void run(IndexWriter writer) throws Exception {
+                index(writer, docs);
+            }
+        });
+    }
+
+    /**
+     * Indexes again all the items of a file, as read from the database, used
+     * after updates by path like the starred flag or the tags.
+     */
+    public void updateFile(final String filePath) {
+        submit(new IndexTask() {
+            public void run(IndexWriter writer) throws Exception {
+                index(writer, db.query(DOCUMENT_MAPPER, "SELECT " + INDEXED_COLUMNS + " FROM " + PlaylistItemDB.TABLES + " WHERE I.filePath = ?", filePath));
+            }
+        });
+    }
+
+    public void delete(Collection<PlaylistItem> items) {
+        final List<Term> terms = new ArrayList<Term>(items.size());
+        for (PlaylistItem item : items) {
+            if (item.getId() >= 0) {
+                terms.add(new Term(FIELD_ID, String.valueOf(item.getId())));
+            }
+        }
+
+        if (terms.isEmpty()) {
+            return;
+        }
+
+        submit(new IndexTask() {
+            public void run(IndexWriter writer) throws Exception {
+                writer.deleteDocuments(terms.toArray(new Term[terms.size()]));
+            }
+        });
+    }
+
+    public void deletePlaylist(final int playlistId) {
+        submit(new IndexTask() {
+            public void run(IndexWriter writer) throws Exception {
+                writer.deleteDocuments(new Term(FIELD_PLAYLIST_ID, String.valueOf(playlistId)));
+            }
+        });
+    }
+
+    /**
+     * Returns the ids of the best matching items of the playlist, best first.
+     */
+    public List<Integer> search(String query, int playlistId, int limit) {
+        return search(query, new TermQuery(new Term(FIELD_PLAYLIST_ID, String.valueOf(playlistId))), limit);
+    }
+
+    /**
+     * Returns the ids of the best matching starred items, best first.
+     */
+    public List<Integer> searchStarred(String query, int limit) {
+        return search(query, new TermQuery(new Term(FIELD_STARRED, Boolean.TRUE.toString())), limit);
+    }
+
+    /**
+     * Commits what is pending and closes the index.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            try {
+                if (searcherManager != null) {
+                    searcherManager.close();
+                }
+                if (writer != null) {
+                    writer.commit(versionData());
+                    writer.close();
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+            } finally {
+                searcherManager = null;
+                writer = null;
+            }
+        }
+    }
+
+    private List<Integer> search(String text, Query scope, int limit) {
+        SearcherManager searcherManager;
+        Analyzer analyzer;
+        synchronized (this) {
+            searcherManager = this.searcherManager;
+            analyzer = this.analyzer;
+        }
+
+        if (searcherManager == null || text == null || text.trim().length() == 0) {
+            return Collections.emptyList();
+        }
+
+        IndexSearcher searcher = null;
+        try {
+            searcherManager.maybeReopen();
+            searcher = searcherManager.acquire();
+
+            // the parser is not thread safe, it's cheap to create
+            Query query = new QueryParser(Version.LUCENE_35, FIELD_DATA, analyzer).parse(text);
+            Filter filter = new QueryWrapperFilter(scope);
+
+            TopDocs topDocs = searcher.search(query, filter, limit);
+
+            List<Integer> ids = new ArrayList<Integer>(topDocs.scoreDocs.length);
+            for (ScoreDoc sd : topDocs.scoreDocs) {
+                ids.add(Integer.valueOf(searcher.doc(sd.doc).get(FIELD_ID)));
+            }
+            return ids;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        } finally {
+            if (searcher != null) {
+                try {
+                    searcherManager.release(searcher);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void submit(final IndexTask task) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    IndexWriter writer;
+                    synchronized (PlaylistItemsIndex.this) {
+                        writer = PlaylistItemsIndex.this.writer;
+                    }
+                    if (writer == null) {
+                        return;
+                    }
+                    try {
+                        task.run(writer);
+                        scheduleCommit();
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        } catch (Throwable e) {
+            // closed
+        }
+    }
+
+    /**
+     * Changes made while a commit is scheduled go in the same commit.
+     */
+    private void scheduleCommit() {
+        if (commitPending.compareAndSet(false, true)) {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    commitPending.set(false);
+                    synchronized (PlaylistItemsIndex.this) {
+                        if (writer == null) {
+                            return;
+                        }
+                        try {
+                            writer.commit(versionData());
+                        } catch (Throwable e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void rebuild(IndexWriter writer) throws Exception {
+        int lastId = -1;
+        List<Document> docs;
+        do {
+            docs = db.query(DOCUMENT_MAPPER, "SELECT " + INDEXED_COLUMNS + " FROM " + PlaylistItemDB.TABLES + " WHERE I.playlistItemId > ? ORDER BY I.playlistItemId ASC LIMIT ?", lastId, REBUILD_PAGE_SIZE);
+            for (Document doc : docs) {
+                writer.addDocument(doc);
+                lastId = Integer.parseInt(doc.get(FIELD_ID));
+            }
+        } while (docs.size() == REBUILD_PAGE_SIZE);
+
+        // the version is only written once the index is complete
+        writer.commit(versionData());
+    }
+
+    private static void index(IndexWriter writer, List<Document> docs) throws Exception {
+        for (Document doc : docs) {
+            writer.updateDocument(new Term(FIELD_ID, doc.get(FIELD_ID)), doc);
+        }
+    }
+
+    private static Map<String, String> versionData() {
+        return Collections.singletonMap(VERSION_KEY, VERSION);
+    }
+
+    private static Document newDocument(int id, int playlistId, boolean starred, String... texts) {
+        Document doc = new Document();
+
+        doc.add(new Field(FIELD_ID, String.valueOf(id), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        doc.add(new Field(FIELD_PLAYLIST_ID, String.valueOf(playlistId), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        doc.add(new Field(FIELD_STARRED, String.valueOf(starred), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+
+        StringBuilder data = new StringBuilder();
+        for (String text : texts) {
+            if (text != null && text.length() > 0) {
+                data.append(text).append(' ');
+            }
+        }
+        doc.add(new Field(FIELD_DATA, data.toString(), Field.Store.NO, Field.Index.ANALYZED));
+
+        return doc;
+    }
+
+    private static final LibraryDatabase.RowMapper<Document> DOCUMENT_MAPPER = new LibraryDatabase.RowMapper<Document>() {
+        public Document map(ResultSet row) throws SQLException {
+            return newDocument(row.getInt(1), row.getInt(2), row.getBoolean(3), row.getString(4), row.getString(5), row.getString(6), row.getString(7), row.getString(8), row.getString(9));
+        }
+    };
+
+    private interface IndexTask {
+        void run(IndexWriter writer) throws Exception;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.alexandria.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.frostwire.alexandria.PlaylistItem;
+
+/**
+ * The tracks, one per file, hold what is shared by all the playlist items
+ * of a file: the starred flag and the tags. Items reference their track by
+ * id, tracks are found by a 64 bit hash of the path, so neither reads nor
+ * writes go through the path index.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TrackDB {
+
+    private static final int MAX_PATH_LENGTH = 10000;
+
+    private TrackDB() {
+    }
+
+    /**
+     * The FNV-1a hash of the path as stored, collisions are told apart by the
+     * path itself.
+     */
+    static long pathHash(String path) {
+        String stored = stored(path);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < stored.length(); i++) {
+            hash ^= stored.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Creates the tracks of the files of the items that have none and sets
+     * the item ids of their tracks. An item is starred if its track is, and
+     * starring a new item stars its track. A new track adopts the items of
+     * its file left without one, and is starred if any of them is.
+     */
+    static int[] resolve(Connection connection, List<PlaylistItem> items) throws SQLException {
+        int[] trackIds = new int[items.size()];
+
+        // tracks are resolved once per file
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        Map<Integer, Boolean> starred = new HashMap<Integer, Boolean>();
+
+        PreparedStatement select = connection.prepareStatement("SELECT trackId, starred FROM Tracks WHERE pathHash = ? AND filePath = LEFT(?, 10000)");
+        PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO Tracks (pathHash, filePath, starred, trackTitle, trackArtist, trackAlbum, trackComment, trackGenre, trackNumber, trackYear) VALUES (?, LEFT(?, 10000), ?, LEFT(?, 500), LEFT(?, 500), LEFT(?, 500), LEFT(?, 500), LEFT(?, 20), LEFT(?, 6), LEFT(?, 6))",
+                Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement star = connection.prepareStatement("UPDATE Tracks SET starred = TRUE WHERE trackId = ?");
+        PreparedStatement unlinked = connection.prepareStatement("SELECT BOOL_OR(starred) FROM PlaylistItems WHERE filePath = LEFT(?, 10000) AND trackId IS NULL");
+        PreparedStatement link = connection.prepareStatement("UPDATE PlaylistItems SET trackId = ? WHERE filePath = LEFT(?, 10000) AND trackId IS NULL");
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                PlaylistItem item = items.get(i);
+                String path = item.getFilePath();
+
+                Integer trackId = ids.get(path);
+                if (trackId == null) {
+                    select.setLong(1, pathHash(path));
+                    select.setString(2, path);
+                    ResultSet rs = select.executeQuery();
+                    try {
+                        if (rs.next()) {
+                            trackId = rs.getInt(1);
+                            starred.put(trackId, rs.getBoolean(2));
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                }
+
+                if (trackId == null) {
+                    boolean trackStarred = item.isStarred() || isAnyStarred(unlinked, path);
+                    trackId = insert(insert, item, trackStarred);
+                    starred.put(trackId, trackStarred);
+
+                    link.setInt(1, trackId);
+                    link.setString(2, path);
+                    link.executeUpdate();
+                } else if (item.isStarred() && !starred.get(trackId)) {
+                    star.setInt(1, trackId);
+                    star.executeUpdate();
+                    starred.put(trackId, true);
+                }
+
+                ids.put(path, trackId);
+                item.setStarred(starred.get(trackId));
+                trackIds[i] = trackId;
+            }
+        } finally {
+            select.close();
+            insert.close();
+            star.close();
+            unlinked.close();
+            link.close();
+        }
+
+        return trackIds;
+    }
+
+    /**
+     * Writes the starred flag of the items to their tracks, the last item of
+     * a file wins. The tags are only written by {@link #updateTags}, so an
+     * item read before a tags edit doesn't undo it.
+     */
+    static void update(Connection connection, List<PlaylistItem> items) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("UPDATE Tracks SET starred = ? WHERE trackId = (SELECT trackId FROM PlaylistItems WHERE playlistItemId = ?)");
+        try {
+            for (PlaylistItem item : items) {
+                statement.setBoolean(1, item.isStarred());
+                statement.setInt(2, item.getId());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public static void updateTags(LibraryDatabase db, String filePath, String title, String artist, String album, String comment, String genre, String track, String year) {
+        db.update("UPDATE Tracks SET trackTitle = LEFT(?, 500), trackArtist = LEFT(?, 500), trackAlbum = LEFT(?, 500), trackComment = LEFT(?, 500), trackGenre = LEFT(?, 20), trackNumber = LEFT(?, 6), trackYear = LEFT(?, 6) WHERE pathHash = ? AND filePath = LEFT(?, 10000)", title, artist, album,
+                comment, genre, track, year, pathHash(filePath), filePath);
+    }
+
+    /**
+     * Creates the tracks table and the reference from the items, and moves
+     * the starred flags and tags of the items without a track to the tracks
+     * of their files.
+     * <p>
+     * H2 commits each DDL statement, so the tables and indexes are created
+     * only if they don't exist yet and the data is moved in a transaction of
+     * its own. A failed run is rolled back and can be run again.
+     */
+    static void setup(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("CREATE TABLE IF NOT EXISTS Tracks (trackId INTEGER IDENTITY, pathHash BIGINT, filePath VARCHAR(10000), starred BOOLEAN, trackTitle VARCHAR(500), trackArtist VARCHAR(500), trackAlbum VARCHAR(500), trackComment VARCHAR(500), trackGenre VARCHAR(20), trackNumber VARCHAR(6), trackYear VARCHAR(6))");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_Tracks_pathHash ON Tracks (pathHash)");
+            statement.execute("ALTER TABLE PlaylistItems ADD IF NOT EXISTS trackId INTEGER");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_PlaylistItems_trackId ON PlaylistItems (trackId)");
+        } finally {
+            statement.close();
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            linkItems(connection);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void linkItems(Connection connection) throws SQLException {
+        // the tags of a file are the ones of any of its items, they only differ if the file changed
+        List<Object[]> files = new ArrayList<Object[]>();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT filePath, BOOL_OR(starred), MAX(trackTitle), MAX(trackArtist), MAX(trackAlbum), MAX(trackComment), MAX(trackGenre), MAX(trackNumber), MAX(trackYear) FROM PlaylistItems WHERE trackId IS NULL GROUP BY filePath");
+            try {
+                while (rs.next()) {
+                    Object[] file = new Object[9];
+                    for (int i = 0; i < file.length; i++) {
+                        file[i] = rs.getObject(i + 1);
+                    }
+                    files.add(file);
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            statement.close();
+        }
+
+        PreparedStatement select = connection.prepareStatement("SELECT trackId FROM Tracks WHERE pathHash = ? AND filePath = ?");
+        PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO Tracks (pathHash, filePath, starred, trackTitle, trackArtist, trackAlbum, trackComment, trackGenre, trackNumber, trackYear) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement star = connection.prepareStatement("UPDATE Tracks SET starred = TRUE WHERE trackId = ?");
+        PreparedStatement link = connection.prepareStatement("UPDATE PlaylistItems SET trackId = ? WHERE filePath = ? AND trackId IS NULL");
+        try {
+            for (Object[] file : files) {
+                String path = (String) file[0];
+                if (path == null) {
+                    continue;
+                }
+                boolean starred = Boolean.TRUE.equals(file[1]);
+
+                // the track may be there from a previous run, or from an item added since
+                int trackId = LibraryDatabase.OBJECT_INVALID_ID;
+                select.setLong(1, pathHash(path));
+                select.setString(2, path);
+                ResultSet rs = select.executeQuery();
+                try {
+                    if (rs.next()) {
+                        trackId = rs.getInt(1);
+                    }
+                } finally {
+                    rs.close();
+                }
+
+                if (trackId == LibraryDatabase.OBJECT_INVALID_ID) {
+                    insert.setLong(1, pathHash(path));
+                    insert.setString(2, path);
+                    insert.setBoolean(3, starred);
+                    for (int i = 2; i < file.length; i++) {
+                        insert.setObject(i + 2, file[i]);
+                    }
+                    insert.executeUpdate();
+
+                    ResultSet keys = insert.getGeneratedKeys();
+                    try {
+                        if (!keys.next()) {
+                            throw new SQLException("No id generated for the track of " + path);
+                        }
+                        trackId = keys.getInt(1);
+                    } finally {
+                        keys.close();
+                    }
+                } else if (starred) {
+                    star.setInt(1, trackId);
+                    star.executeUpdate();
+                }
+
+                link.setInt(1, trackId);
+                link.setString(2, path);
+                link.addBatch();
+            }
+            link.executeBatch();
+        } finally {
+            select.close();
+            insert.close();
+            star.close();
+            link.close();
+        }
+    }
+
+    private static boolean isAnyStarred(PreparedStatement unlinked, String path) throws SQLException {
+        unlinked.setString(1, path);
+        ResultSet rs = unlinked.executeQuery();
+        try {
+            return rs.next() && rs.getBoolean(1);
+        } finally {
+            rs.close();
+        }
+    }
+
+    private static int insert(PreparedStatement insert, PlaylistItem item, boolean starred) throws SQLException {
+        insert.setLong(1, pathHash(item.getFilePath()));
+        insert.setString(2, item.getFilePath());
+        insert.setBoolean(3, starred);
+        insert.setString(4, item.getTrackTitle());
+        insert.setString(5, item.getTrackArtist());
+        insert.setString(6, item.getTrackAlbum());
+        insert.setString(7, item.getTrackComment());
+        insert.setString(8, item.getTrackGenre());
+        insert.setString(9, item.getTrackNumber());
+        insert.setString(10, item.getTrackYear());
+        insert.executeUpdate();
+
+        ResultSet keys = insert.getGeneratedKeys();
+        try {
+            return keys.next() ? keys.getInt(1) : LibraryDatabase.OBJECT_INVALID_ID;
+        } finally {
+            keys.close();
+        }
+    }
+
+    private static String stored(String path) {
+        if (path == null) {
+            return "";
+        }
+        return path.length() > MAX_PATH_LENGTH ? path.substring(0, MAX_PATH_LENGTH) : path;
+    }
+}
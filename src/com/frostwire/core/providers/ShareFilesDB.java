@@ -79,6 +79,17 @@ public final class ShareFilesDB {
         return c;
     }
 
+    /**
+     * Counts the rows matching the selection with a COUNT(*) query.
+     *
+     * @return the number of rows, or -1 if an error occurred
+     */
+    public int count(String selection, String[] selectionArgs) {
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        return db.queryCount(TABLE_NAME, selection, selectionArgs);
+    }
+
     public long insert(ContentValues initialValues) {
         ContentValues values;
 
@@ -139,6 +150,16 @@ public final class ShareFilesDB {
         return db.insert(TABLE_NAME, "", values);
     }
 
+    /**
+     * Runs the inserts, updates and deletes done by the transaction as a
+     * single transaction, see {@link SQLiteDatabase#runInTransaction(Runnable)}.
+     */
+    public boolean runInTransaction(Runnable transaction) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        return db.runInTransaction(transaction);
+    }
+
     public int delete(String where, String[] whereArgs) {
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
@@ -18,9 +18,15 @@
 
 package com.frostwire.database;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import com.frostwire.logging.Logger;
 
@@ -36,9 +42,25 @@ public class Cursor {
     private final Statement statement;
     private final ResultSet rs;
 
+    // only for forward only cursors, to count with a separate query
+    private final String sql;
+    private final Object[] args;
+
+    private Map<String, Integer> columnIndexes;
+
     public Cursor(Statement statement, ResultSet rs) {
+        this(statement, rs, null, null);
+    }
+
+    /**
+     * Creates a cursor that knows its query, so that {@link #getCount()}
+     * can run a COUNT(*) instead of scrolling a forward only result set.
+     */
+    public Cursor(Statement statement, ResultSet rs, String sql, Object[] args) {
         this.statement = statement;
         this.rs = rs;
+        this.sql = sql;
+        this.args = args;
     }
 
     /**
@@ -111,12 +133,11 @@ public class Cursor {
      * @see #getColumnIndexOrThrow(String)
      */
     public int getColumnIndex(String columnName) {
-        try {
-            return rs.findColumn(columnName);
-        } catch (SQLException e) {
-            //LOG.warn("Error getting column index for name: " + columnName, e);
+        if (columnIndexes == null) {
+            columnIndexes = readColumnIndexes();
         }
-        return -1;
+        Integer index = columnIndexes.get(columnName.toUpperCase(Locale.US));
+        return index != null ? index : -1;
     }
 
     /**
@@ -126,6 +147,9 @@ public class Cursor {
      */
     public int getCount() {
         try {
+            if (rs.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+                return queryCount();
+            }
             rs.last();
             int rows = rs.getRow();
             rs.beforeFirst();
@@ -166,6 +190,17 @@ public class Cursor {
      */
     public boolean moveToPosition(int offset) {
         try {
+            if (rs.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+                if (offset < 0) {
+                    LOG.warn("Can't move backwards in a forward only cursor, offset: " + offset);
+                    return false;
+                }
+                boolean moved = true;
+                for (int i = 0; i < offset && moved; i++) {
+                    moved = rs.next();
+                }
+                return moved;
+            }
             return rs.relative(offset);
         } catch (SQLException e) {
             LOG.warn("Error moving inside the result set, offset: " + offset, e);
@@ -216,4 +251,48 @@ public class Cursor {
         }
         return null;
     }
+
+    /**
+     * Maps the upper case column labels to their indexes, H2 labels are
+     * case insensitive.
+     */
+    private Map<String, Integer> readColumnIndexes() {
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        try {
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int i = meta.getColumnCount(); i >= 1; i--) {
+                // iterating backwards, so the first of duplicated labels wins, as with findColumn
+                indexes.put(meta.getColumnLabel(i).toUpperCase(Locale.US), i);
+            }
+        } catch (SQLException e) {
+            LOG.warn("Error reading the cursor columns", e);
+        }
+        return indexes;
+    }
+
+    private int queryCount() throws SQLException {
+        if (sql == null) {
+            throw new SQLException("Forward only cursor created without its query, unable to count");
+        }
+
+        Connection connection = statement.getConnection();
+        synchronized (connection) {
+            PreparedStatement count = connection.prepareStatement("SELECT COUNT(*) FROM (" + sql + ")");
+            try {
+                if (args != null) {
+                    for (int i = 0; i < args.length; i++) {
+                        count.setObject(i + 1, args[i]);
+                    }
+                }
+                ResultSet crs = count.executeQuery();
+                try {
+                    return crs.next() ? crs.getInt(1) : 0;
+                } finally {
+                    crs.close();
+                }
+            } finally {
+                count.close();
+            }
+        }
+    }
 }
@@ -39,6 +39,9 @@ public class SQLiteDatabase {
 
     private static final Logger LOG = Logger.getLogger(SQLiteDatabase.class);
 
+    // rows fetched per round trip by the query cursors
+    private static final int FETCH_SIZE = 256;
+
     private String path;
     private Connection connection;
 
@@ -77,7 +80,7 @@ public class SQLiteDatabase {
      *     which will be replaced by the values from selectionArgs. The
      *     values will be bound as Strings.
      * @param editTable the name of the first table, which is editable
-     * @return A {@link Cursor} object, which is positioned before the first entry. Note that
+     * @return A forward only {@link Cursor} object, which is positioned before the first entry. Note that
      * {@link Cursor}s are not synchronized, see the documentation for more details.
      */
     public Cursor rawQueryWithFactory(CursorFactory cursorFactory, String sql, String[] selectionArgs, String editTable) {
@@ -90,11 +93,11 @@ public class SQLiteDatabase {
 
         try {
             synchronized (connection) {
-                statement = prepareStatement(connection, sql, (Object[]) selectionArgs);
+                statement = prepareQuery(connection, sql, (Object[]) selectionArgs);
 
                 resultSet = statement.executeQuery();
 
-                return new Cursor(statement, resultSet);
+                return new Cursor(statement, resultSet, sql, selectionArgs);
             }
         } catch (Throwable e) {
             LOG.warn("Error performing SQL statement: " + sql, e);
@@ -103,6 +106,38 @@ public class SQLiteDatabase {
         return cursor;
     }
 
+    /**
+     * Counts the rows of the table matching the selection with a COUNT(*),
+     * without reading them.
+     *
+     * @return the number of rows, or -1 if an error occurred
+     */
+    public int queryCount(String table, String selection, String[] selectionArgs) {
+        verifyDbIsOpen();
+
+        String sql = "SELECT COUNT(*) FROM " + table + (!TextUtils.isEmpty(selection) ? " WHERE " + selection : "");
+
+        PreparedStatement statement = null;
+        try {
+            synchronized (connection) {
+                statement = prepareStatement(connection, sql, (Object[]) selectionArgs);
+
+                ResultSet resultSet = statement.executeQuery();
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error performing SQL statement: " + sql, e);
+            return -1;
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (Throwable e) {
+                }
+            }
+        }
+    }
+
     /**
      * Execute a single SQL statement that is NOT a SELECT
      * or any other SQL statement that returns data.
@@ -287,6 +322,37 @@ public class SQLiteDatabase {
         return executeSql(sql.toString(), bindArgs);
     }
 
+    /**
+     * Runs the operations done by the transaction on this database, in the
+     * calling thread, as a single transaction. Other threads wait until it
+     * ends. The transaction signals a failure by throwing a {@link SQLException}.
+     *
+     * @return false if the transaction was rolled back
+     */
+    public boolean runInTransaction(Runnable transaction) {
+        verifyDbIsOpen();
+
+        synchronized (connection) {
+            try {
+                connection.setAutoCommit(false);
+                try {
+                    transaction.run();
+                    connection.commit();
+                    return true;
+                } catch (Throwable e) {
+                    LOG.warn("Error performing transaction, rolling back", e);
+                    connection.rollback();
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (Throwable e) {
+                LOG.warn("Error ending transaction", e);
+            }
+        }
+
+        return false;
+    }
+
     /**
      * @return true if the DB is currently open (has not been closed)
      */
@@ -357,15 +423,28 @@ public class SQLiteDatabase {
     }
 
     private PreparedStatement prepareStatement(Connection connection, String sql, Object... arguments) throws Exception {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        bind(statement, arguments);
+        return statement;
+    }
 
-        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+    /**
+     * Query cursors are only read forward, a scrollable result set would be
+     * kept whole to move back and forth.
+     */
+    private PreparedStatement prepareQuery(Connection connection, String sql, Object... arguments) throws Exception {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(FETCH_SIZE);
+        bind(statement, arguments);
+        return statement;
+    }
 
+    private static void bind(PreparedStatement statement, Object... arguments) throws Exception {
         if (arguments != null) {
             for (int i = 0; i < arguments.length; i++) {
                 statement.setObject(i + 1, arguments[i]);
             }
         }
-        return statement;
     }
 
     /**
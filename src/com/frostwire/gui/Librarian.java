@@ -19,14 +19,22 @@
 package com.frostwire.gui;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +46,9 @@ import com.frostwire.core.providers.ShareFilesDB.Columns;
 import com.frostwire.database.Cursor;
 import com.frostwire.gui.bittorrent.TorrentUtil;
 import com.frostwire.gui.library.LibraryMediator;
+import com.frostwire.gui.library.tags.TagsCacheDB;
 import com.frostwire.localpeer.Finger;
+import com.limegroup.gnutella.gui.GUIMediator;
 
 /**
  * @author gubatron
@@ -53,9 +63,33 @@ public final class Librarian {
     public static final int FILE_STATE_SHARING = 1;
     public static final int FILE_STATE_SHARED = 2;
 
+    private static final long STALE_SWEEP_INTERVAL_MINUTES = 10;
+
+    private static final String[] FILE_DESCRIPTOR_COLUMNS = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
+
+    // newest first, by id among the ones added in the same second, so pages are stable
+    private static final String BROWSE_SORT_ORDER = Columns.DATE_ADDED + " DESC, " + Columns.ID + " DESC";
+
     //private final Set<String> pathSharedSet;
     private final Set<String> pathSharingSet;
-    private final ExecutorService shareFileExec;
+    private final ScheduledExecutorService shareFileExec;
+
+    /**
+     * In memory snapshot of the share table paths and their file types, bulk
+     * loaded once and then kept updated by the share/unshare operations,
+     * along with the number of shared files per type.
+     */
+    private final Map<String, Byte> sharedPaths;
+    private final AtomicIntegerArray sharedCounts;
+    private volatile boolean sharedPathsLoaded;
+    private final AtomicBoolean sharedPathsLoading;
+
+    /**
+     * Changes whenever the share table does, the epoch makes it change
+     * across restarts too.
+     */
+    private final long shareTableEpoch;
+    private final AtomicLong shareTableVersion;
 
     private static final Librarian instance = new Librarian();
 
@@ -66,7 +100,31 @@ public final class Librarian {
     private Librarian() {
         //this.pathSharedSet = Collections.synchronizedSet(new HashSet<String>());
         this.pathSharingSet = Collections.synchronizedSet(new HashSet<String>());
-        this.shareFileExec = Executors.newSingleThreadExecutor();
+        this.shareFileExec = Executors.newSingleThreadScheduledExecutor();
+        this.sharedPaths = new ConcurrentHashMap<String, Byte>();
+        this.sharedCounts = new AtomicIntegerArray(Byte.MAX_VALUE + 1);
+        this.sharedPathsLoading = new AtomicBoolean();
+        this.shareTableEpoch = System.currentTimeMillis();
+        this.shareTableVersion = new AtomicLong();
+
+        // in the share executor, so sweeps don't race with share operations
+        shareFileExec.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweepStaleRows();
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error sweeping the share table", e);
+                }
+                try {
+                    TagsCacheDB.instance().pruneIfDue();
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error pruning the tags cache", e);
+                }
+            }
+        }, STALE_SWEEP_INTERVAL_MINUTES, STALE_SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        requestSharedPathsLoad();
     }
 
     public Finger finger() {
@@ -107,71 +165,124 @@ public final class Librarian {
     }
 
     /**
-     * 
+     * Answers from the per type counters of the shared paths snapshot, files
+     * gone from disk are counted until a listing or the periodic sweep
+     * removes them. The database is only queried if the snapshot couldn't be
+     * loaded.
+     *
      * @param fileType
-     * @param onlyShared - If false, forces getting all files, shared or unshared. 
      * @return
      */
     public int getNumSharedFiles(byte fileType) {
-        Cursor c = null;
+        loadSharedPaths();
+
+        if (sharedPathsLoaded) {
+            return fileType >= 0 ? sharedCounts.get(fileType) : 0;
+        }
 
         int numFiles = 0;
 
         try {
             ShareFilesDB db = ShareFilesDB.intance();
 
-            String[] columns = new String[] { Columns.ID, Columns.FILE_PATH, Columns.SHARED };
             String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
             String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
 
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
-
-            numFiles = fds.size();
+            numFiles = Math.max(0, db.count(where, whereArgs));
 
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
         }
 
         return numFiles;
     }
 
+    /**
+     * Answers from the shared paths snapshot without touching the database,
+     * it's called from the table renderers. Until the snapshot is loaded in
+     * the share executor files are reported as not shared, and the library
+     * files table is refreshed once it is.
+     */
     public boolean isFileShared(String filePath) {
-        Cursor c = null;
+        if (sharedPathsLoaded) {
+            return sharedPaths.containsKey(filePath);
+        }
 
-        boolean isShared = false;
+        requestSharedPathsLoad();
 
-        try {
-            ShareFilesDB db = ShareFilesDB.intance();
+        return false;
+    }
 
-            String[] columns = new String[] { Columns.ID, Columns.FILE_PATH, Columns.SHARED };
-            String where = Columns.FILE_PATH + " = ?";
-            String[] whereArgs = new String[] { filePath };
+    private void requestSharedPathsLoad() {
+        if (!sharedPathsLoading.compareAndSet(false, true)) {
+            return;
+        }
 
-            c = db.query(columns, where, whereArgs, null);
+        shareFileExec.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadSharedPaths();
+                } finally {
+                    sharedPathsLoading.set(false);
+                }
 
-            List<FileDescriptor> fds = filteredOutBadRows(c);
+                if (sharedPathsLoaded && GUIMediator.isConstructed()) {
+                    GUIMediator.safeInvokeLater(new Runnable() {
+                        public void run() {
+                            LibraryMediator.instance().refreshLibraryFilesTable();
+                        }
+                    });
+                }
+            }
+        });
+    }
 
-            isShared = fds.size() == 1;
+    private void loadSharedPaths() {
+        if (sharedPathsLoaded) {
+            return;
+        }
 
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, "Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
+        synchronized (sharedPaths) {
+            if (sharedPathsLoaded) {
+                return;
             }
-        }
 
-        return isShared;
+            Cursor c = null;
+
+            try {
+                ShareFilesDB db = ShareFilesDB.intance();
+
+                // every row is shared, the scanner always inserts them so
+                String[] columns = new String[] { Columns.FILE_PATH, Columns.FILE_TYPE };
+
+                c = db.query(columns, null, null, null);
+
+                int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+                int fileTypeCol = c.getColumnIndex(Columns.FILE_TYPE);
+
+                while (c.moveToNext()) {
+                    addSharedPath(c.getString(filePathCol), c.getByte(fileTypeCol));
+                }
+
+                sharedPathsLoaded = true;
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to load the shared paths", e);
+                sharedPaths.clear();
+                for (int i = 0; i < sharedCounts.length(); i++) {
+                    sharedCounts.set(i, 0);
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        }
     }
 
     private List<FileDescriptor> filteredOutBadRows(Cursor c) {
-        int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+        ColumnIndexes cols = new ColumnIndexes(c);
+        int filePathCol = cols.filePath;
 
         if (filePathCol == -1) {
             throw new IllegalArgumentException("Can't perform filtering without file path column in cursor");
@@ -179,7 +290,7 @@ public final class Librarian {
 
         List<FileDescriptor> fds = new LinkedList<FileDescriptor>();
 
-        final Set<String> toRemove = new HashSet<String>();
+        Set<String> toRemove = new HashSet<String>();
 
         while (c.moveToNext()) {
             String filePath = c.getString(filePathCol);
@@ -190,11 +301,21 @@ public final class Librarian {
                 continue;
             }
 
-            FileDescriptor fd = cursorToFileDescriptor(c);
+            FileDescriptor fd = cursorToFileDescriptor(c, cols);
 
             fds.add(fd);
         }
 
+        deleteFromShareTableLater(toRemove);
+
+        return fds;
+    }
+
+    private void deleteFromShareTableLater(final Set<String> toRemove) {
+        if (toRemove.isEmpty()) {
+            return;
+        }
+
         shareFileExec.execute(new Runnable() {
             @Override
             public void run() {
@@ -207,8 +328,68 @@ public final class Librarian {
                 }
             }
         });
+    }
 
-        return fds;
+    /**
+     * Streams the shared files of the type to the visitor straight from the
+     * database cursor, newest first. Missing files are skipped, and not
+     * counted by the offset, their rows are deleted in background.
+     *
+     * @param offset the number of files to skip
+     * @param limit the maximum number of files to visit, or -1 for all of them
+     */
+    public void browseSharedFiles(byte fileType, int offset, int limit, SharedFileVisitor visitor) throws IOException {
+        Cursor c = null;
+
+        Set<String> toRemove = new HashSet<String>();
+
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
+            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
+
+            c = db.query(FILE_DESCRIPTOR_COLUMNS, where, whereArgs, BROWSE_SORT_ORDER);
+
+            if (c == null) {
+                throw new IOException("Unable to query the shared files of type " + fileType);
+            }
+
+            ColumnIndexes cols = new ColumnIndexes(c);
+
+            int skipped = 0;
+            int visited = 0;
+
+            while ((limit < 0 || visited < limit) && c.moveToNext()) {
+                String filePath = c.getString(cols.filePath);
+
+                if (!(new File(filePath)).exists()) {
+                    toRemove.add(filePath);
+                    continue;
+                }
+
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+
+                visitor.visit(cursorToFileDescriptor(c, cols));
+                visited++;
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+            deleteFromShareTableLater(toRemove);
+        }
+    }
+
+    /**
+     * Tag of the current contents of the share table, different after any
+     * share, unshare or stale row removal.
+     */
+    public String getShareTableVersion() {
+        return Long.toHexString(shareTableEpoch) + "-" + shareTableVersion.get();
     }
 
     public List<FileDescriptor> getSharedFiles(byte fileType) {
@@ -219,11 +400,10 @@ public final class Librarian {
         try {
             ShareFilesDB db = ShareFilesDB.intance();
 
-            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
             String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
             String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
 
-            c = db.query(columns, where, whereArgs, null);
+            c = db.query(FILE_DESCRIPTOR_COLUMNS, where, whereArgs, null);
 
             List<FileDescriptor> fds = filteredOutBadRows(c);
 
@@ -241,7 +421,10 @@ public final class Librarian {
     }
 
     public void scan(File file) {
-        scan(file, TorrentUtil.getIgnorableFiles());
+        List<String> filePaths = new ArrayList<String>();
+        collectFiles(file, TorrentUtil.getIgnorableFiles(), filePaths);
+
+        new UniversalScanner().scan(filePaths, newScanListener());
     }
 
     public int getFileShareState(String filePath) {
@@ -256,19 +439,20 @@ public final class Librarian {
         return FILE_STATE_UNSHARED;
     }
 
-    private void scan(File file, Set<File> ignorableFiles) {
+    private void collectFiles(File file, Set<File> ignorableFiles, List<String> filePaths) {
         if (ignorableFiles.contains(file)) {
             return;
         }
 
         if (file.isDirectory()) {
-            for (File child : file.listFiles()) {
-                if (child.isDirectory() || child.isFile()) {
-                    scan(child);
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectFiles(child, ignorableFiles, filePaths);
                 }
             }
         } else if (file.isFile()) {
-            new UniversalScanner().scan(file.getAbsolutePath());
+            filePaths.add(file.getAbsolutePath());
         }
     }
 
@@ -277,24 +461,45 @@ public final class Librarian {
     }
 
     public void shareFile(final String filePath, final boolean share, final boolean refreshPing) {
-        if (pathSharingSet.contains(filePath)) {
-            return;
+        shareFiles(Collections.singletonList(filePath), share, refreshPing);
+    }
+
+    /**
+     * Shares or unshares the files in background, the shared ones are
+     * scanned as a single batch.
+     */
+    public void shareFiles(List<String> filePaths, final boolean share, final boolean refreshPing) {
+        final List<String> toShare = new ArrayList<String>(filePaths.size());
+
+        synchronized (pathSharingSet) {
+            for (String filePath : filePaths) {
+                if (pathSharingSet.add(filePath)) {
+                    toShare.add(filePath);
+                }
+            }
         }
 
-        pathSharingSet.add(filePath);
+        if (toShare.isEmpty()) {
+            return;
+        }
 
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                deleteFromShareTable(filePath);
-
-                if (share) {
-                    new UniversalScanner().scan(filePath);
-                    //pathSharedSet.add(filePath);
+                try {
+                    if (share) {
+                        new UniversalScanner().scan(toShare, newScanListener());
+                    } else {
+                        for (String filePath : toShare) {
+                            deleteFromShareTable(filePath);
+                        }
+                    }
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error sharing files", e);
+                } finally {
+                    pathSharingSet.removeAll(toShare);
                 }
 
-                pathSharingSet.remove(filePath);
-
                 if (refreshPing) {
                     LibraryMediator.instance().getDeviceDiscoveryClerk().updateLocalPeer();
                 }
@@ -304,6 +509,16 @@ public final class Librarian {
         shareFileExec.execute(r);
     }
 
+    private UniversalScanner.ScanListener newScanListener() {
+        return new UniversalScanner.ScanListener() {
+            @Override
+            public void onScanned(String filePath, byte fileType) {
+                addSharedPath(filePath, fileType);
+                pathSharingSet.remove(filePath);
+            }
+        };
+    }
+
     private void deleteFromShareTable(String filePath) {
         String where = Columns.FILE_PATH + " = ?";
         String[] whereArgs = new String[] { filePath };
@@ -311,6 +526,8 @@ public final class Librarian {
         ShareFilesDB db = ShareFilesDB.intance();
 
         db.delete(where, whereArgs);
+
+        removeSharedPath(filePath);
     }
 
     public void deleteFolderFilesFromShareTable(String folderPath) {
@@ -324,71 +541,107 @@ public final class Librarian {
         } catch (Exception e) {
 
         }
+
+        Iterator<String> it = sharedPaths.keySet().iterator();
+        while (it.hasNext()) {
+            String path = it.next();
+            if (path.startsWith(folderPath)) {
+                removeSharedPath(path);
+            }
+        }
     }
 
-    private FileDescriptor cursorToFileDescriptor(Cursor c) {
-        FileDescriptor fd = new FileDescriptor();
+    private void addSharedPath(String filePath, byte fileType) {
+        Byte old = sharedPaths.put(filePath, fileType);
+        if (old != null) {
+            sharedCounts.decrementAndGet(old);
+        }
+        sharedCounts.incrementAndGet(fileType);
+        shareTableVersion.incrementAndGet();
+    }
+
+    private void removeSharedPath(String filePath) {
+        Byte old = sharedPaths.remove(filePath);
+        if (old != null) {
+            sharedCounts.decrementAndGet(old);
+        }
+        shareTableVersion.incrementAndGet();
+    }
 
-        int col = -1;
+    /**
+     * Deletes the rows of the files gone from disk, so that the counters
+     * don't need to stat every file when answering.
+     */
+    private void sweepStaleRows() {
+        loadSharedPaths();
 
-        col = c.getColumnIndex(Columns.ID);
-        if (col != -1) {
-            fd.id = c.getInt(col);
+        if (!sharedPathsLoaded) {
+            return;
         }
 
-        col = c.getColumnIndex(Columns.FILE_TYPE);
-        if (col != -1) {
-            fd.fileType = c.getByte(col);
+        int removed = 0;
+        for (String filePath : sharedPaths.keySet()) {
+            if (!pathSharingSet.contains(filePath) && !new File(filePath).exists()) {
+                deleteFromShareTable(filePath);
+                removed++;
+            }
+        }
+
+        if (removed > 0) {
+            LOG.info("Removed " + removed + " missing files from the share table");
+            LibraryMediator.instance().getDeviceDiscoveryClerk().updateLocalPeer();
+        }
+    }
+
+    private FileDescriptor cursorToFileDescriptor(Cursor c, ColumnIndexes cols) {
+        FileDescriptor fd = new FileDescriptor();
+
+        if (cols.id != -1) {
+            fd.id = c.getInt(cols.id);
+        }
+
+        if (cols.fileType != -1) {
+            fd.fileType = c.getByte(cols.fileType);
         }
 
-        col = c.getColumnIndex(Columns.FILE_PATH);
-        if (col != -1) {
-            fd.filePath = c.getString(col);
+        if (cols.filePath != -1) {
+            fd.filePath = c.getString(cols.filePath);
         }
 
-        col = c.getColumnIndex(Columns.FILE_SIZE);
-        if (col != -1) {
-            fd.fileSize = c.getLong(col);
+        if (cols.fileSize != -1) {
+            fd.fileSize = c.getLong(cols.fileSize);
         }
 
-        col = c.getColumnIndex(Columns.MIME);
-        if (col != -1) {
-            fd.mime = c.getString(col);
+        if (cols.mime != -1) {
+            fd.mime = c.getString(cols.mime);
         }
 
-        col = c.getColumnIndex(Columns.DATE_ADDED);
-        if (col != -1) {
-            fd.dateAdded = c.getLong(col);
+        if (cols.dateAdded != -1) {
+            fd.dateAdded = c.getLong(cols.dateAdded);
         }
 
-        col = c.getColumnIndex(Columns.DATE_MODIFIED);
-        if (col != -1) {
-            fd.dateModified = c.getLong(col);
+        if (cols.dateModified != -1) {
+            fd.dateModified = c.getLong(cols.dateModified);
         }
 
-        col = c.getColumnIndex(Columns.SHARED);
-        if (col != -1) {
-            fd.shared = c.getBoolean(col);
+        if (cols.shared != -1) {
+            fd.shared = c.getBoolean(cols.shared);
         }
 
-        col = c.getColumnIndex(Columns.TITLE);
-        if (col != -1) {
-            fd.title = c.getString(col);
+        if (cols.title != -1) {
+            fd.title = c.getString(cols.title);
         }
 
-        col = c.getColumnIndex(Columns.ARTIST);
-        if (col != -1) {
-            fd.artist = c.getString(col);
+        if (cols.artist != -1) {
+            fd.artist = c.getString(cols.artist);
         }
 
-        col = c.getColumnIndex(Columns.ALBUM);
-        if (col != -1) {
-            fd.album = c.getString(col);
+        if (cols.album != -1) {
+            fd.album = c.getString(cols.album);
         }
 
-        col = c.getColumnIndex(Columns.YEAR);
-        if (col != -1) {
-            fd.year = c.getString(col);
+        if (cols.year != -1) {
+            fd.year = c.getString(cols.year);
         }
 
         return fd;
@@ -402,11 +655,10 @@ public final class Librarian {
         try {
             ShareFilesDB db = ShareFilesDB.intance();
 
-            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
             String where = Columns.FILE_TYPE + " = ? AND " + Columns.ID + " = ? AND " + Columns.SHARED + " = ?";
             String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(fileId), String.valueOf(true) };
 
-            c = db.query(columns, where, whereArgs, null);
+            c = db.query(FILE_DESCRIPTOR_COLUMNS, where, whereArgs, null);
 
             List<FileDescriptor> fds = filteredOutBadRows(c);
 
@@ -422,4 +674,46 @@ public final class Librarian {
 
         return result;
     }
+
+    /**
+     * Column indexes of a cursor, resolved once instead of once per row.
+     */
+    private static final class ColumnIndexes {
+
+        public final int id;
+        public final int fileType;
+        public final int filePath;
+        public final int fileSize;
+        public final int mime;
+        public final int dateAdded;
+        public final int dateModified;
+        public final int shared;
+        public final int title;
+        public final int artist;
+        public final int album;
+        public final int year;
+
+        public ColumnIndexes(Cursor c) {
+            id = c.getColumnIndex(Columns.ID);
+            fileType = c.getColumnIndex(Columns.FILE_TYPE);
+            filePath = c.getColumnIndex(Columns.FILE_PATH);
+            fileSize = c.getColumnIndex(Columns.FILE_SIZE);
+            mime = c.getColumnIndex(Columns.MIME);
+            dateAdded = c.getColumnIndex(Columns.DATE_ADDED);
+            dateModified = c.getColumnIndex(Columns.DATE_MODIFIED);
+            shared = c.getColumnIndex(Columns.SHARED);
+            title = c.getColumnIndex(Columns.TITLE);
+            artist = c.getColumnIndex(Columns.ARTIST);
+            album = c.getColumnIndex(Columns.ALBUM);
+            year = c.getColumnIndex(Columns.YEAR);
+        }
+    }
+
+    /**
+     * Receives the shared files streamed by {@link Librarian#browseSharedFiles(byte, int, int, SharedFileVisitor)}.
+     */
+    public interface SharedFileVisitor {
+
+        void visit(FileDescriptor fd) throws IOException;
+    }
 }
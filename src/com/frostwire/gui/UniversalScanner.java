@@ -19,9 +19,20 @@
 package com.frostwire.gui;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.FilenameUtils;
 import org.limewire.util.StringUtils;
 
@@ -33,12 +44,20 @@ import com.frostwire.content.ContentValues;
 import com.frostwire.core.Constants;
 import com.frostwire.core.providers.ShareFilesDB;
 import com.frostwire.core.providers.ShareFilesDB.Columns;
+import com.frostwire.database.Cursor;
+import com.frostwire.database.SQLException;
 import com.frostwire.gui.library.tags.TagsData;
 import com.frostwire.gui.library.tags.TagsReader;
 import com.frostwire.util.MimeDetector;
 import com.limegroup.gnutella.MediaType;
 
 /**
+ * Reads the metadata of files and saves them in the share table.
+ * <p>
+ * Many files are scanned as a pipeline: files unchanged since their last
+ * scan are skipped, the metadata of the others is read by a bounded pool
+ * of workers, and the rows are saved in transactions of {@link #BATCH_SIZE}.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -47,32 +66,72 @@ public class UniversalScanner {
 
     private static final Logger LOG = Logger.getLogger(UniversalScanner.class.getName());
 
+    private static final int BATCH_SIZE = 100;
+
+    private static final int MAX_EXTRACTORS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // files being read at once, so that a long stream of paths doesn't queue all of them
+    private static final int MAX_PENDING = MAX_EXTRACTORS * 4;
+
+    private static final ExecutorService EXTRACTORS = ExecutorsHelper.newFixedSizeThreadPool(MAX_EXTRACTORS, "UniversalScanner");
+
     public UniversalScanner() {
     }
 
-    public void scan(String filePath) {
+    /**
+     * Scans the files into the share table, replacing their previous rows,
+     * and blocks until all of them are saved. Files with the same size and
+     * modification time of their row are not read again.
+     * <p>
+     * If the calling thread is interrupted, the files already read are saved,
+     * the rest are not scanned, and the thread is left interrupted.
+     *
+     * @param listener notified, in the calling thread, of every file
+     *            shared, including the unchanged ones
+     */
+    public void scan(Iterable<String> filePaths, ScanListener listener) {
+        Scan scan = new Scan(listener);
+
+        List<String> chunk = new ArrayList<String>(BATCH_SIZE);
+
+        for (String filePath : filePaths) {
+            if (scan.isCancelled()) {
+                break;
+            }
+            chunk.add(filePath);
+            if (chunk.size() == BATCH_SIZE) {
+                scan.submit(chunk);
+                chunk.clear();
+            }
+        }
+        scan.submit(chunk);
+
+        scan.finish();
+    }
+
+    private ContentValues read(String filePath) {
         try {
             MediaType mt = MediaType.getMediaTypeForExtension(FilenameUtils.getExtension(filePath));
 
             if (mt == null) {
-                scanDocument(filePath, true);
+                return readDocument(filePath, true);
             } else if (mt.equals(MediaType.getAudioMediaType())) {
-                scanAudio(filePath, true);
+                return readAudio(filePath, true);
             } else if (mt.equals(MediaType.getImageMediaType())) {
-                scanPictures(filePath, true);
+                return readPictures(filePath, true);
             } else if (mt.equals(MediaType.getVideoMediaType())) {
-                scanVideo(filePath, true); // until we integrate mplayer for video and research metadata extraction
+                return readVideo(filePath, true); // until we integrate mplayer for video and research metadata extraction
             } else {
-                scanDocument(filePath, true);
+                return readDocument(filePath, true);
             }
 
         } catch (Throwable e) {
-            scanDocument(filePath, true);
             LOG.log(Level.WARNING, "Error scanning file, scanned as document: " + filePath, e);
+            return readDocument(filePath, true);
         }
     }
 
-    private void scanPictures(String filePath, boolean shared) {
+    private ContentValues readPictures(String filePath, boolean shared) {
         File file = new File(filePath);
 
         ContentValues values = new ContentValues();
@@ -118,9 +177,7 @@ public class UniversalScanner {
             values.put(Columns.YEAR, "");
         }
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
     private void fillCommonValues(ContentValues values, byte fileType, String filePath, File file, String mime, boolean shared) {
@@ -133,7 +190,7 @@ public class UniversalScanner {
         values.put(Columns.SHARED, shared);
     }
 
-    private void scanAudio(String filePath, boolean shared) {
+    private ContentValues readAudio(String filePath, boolean shared) {
         File file = new File(filePath);
 
         ContentValues values = new ContentValues();
@@ -157,21 +214,19 @@ public class UniversalScanner {
             values.put(Columns.YEAR, "");
         }
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
-    private void scanVideo(String filePath, boolean shared) {
+    private ContentValues readVideo(String filePath, boolean shared) {
         String mime = "video/" + FilenameUtils.getExtension(filePath);
-        scanBasic(Constants.FILE_TYPE_VIDEOS, filePath, mime, shared);
+        return readBasic(Constants.FILE_TYPE_VIDEOS, filePath, mime, shared);
     }
 
-    private void scanDocument(String filePath, boolean shared) {
-        scanBasic(Constants.FILE_TYPE_DOCUMENTS, filePath, getMimeType(filePath), shared);
+    private ContentValues readDocument(String filePath, boolean shared) {
+        return readBasic(Constants.FILE_TYPE_DOCUMENTS, filePath, getMimeType(filePath), shared);
     }
 
-    private void scanBasic(byte fileType, String filePath, String mime, boolean shared) {
+    private ContentValues readBasic(byte fileType, String filePath, String mime, boolean shared) {
         File file = new File(filePath);
 
         String displayName = FilenameUtils.getBaseName(file.getName());
@@ -185,9 +240,7 @@ public class UniversalScanner {
         values.put(Columns.ALBUM, "");
         values.put(Columns.YEAR, "");
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
     private static String getMimeType(String filePath) {
@@ -198,4 +251,196 @@ public class UniversalScanner {
             return MimeDetector.UNKNOWN;
         }
     }
+
+    /**
+     * Receives the files shared by a scan.
+     */
+    public interface ScanListener {
+
+        void onScanned(String filePath, byte fileType);
+    }
+
+    /**
+     * The state of a pipeline scan, only used by the scanning thread.
+     */
+    private final class Scan {
+
+        private final ScanListener listener;
+        private final Deque<Future<ContentValues>> pending;
+        private final List<ContentValues> batch;
+        private boolean cancelled;
+
+        public Scan(ScanListener listener) {
+            this.listener = listener;
+            this.pending = new ArrayDeque<Future<ContentValues>>();
+            this.batch = new ArrayList<ContentValues>(BATCH_SIZE);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void submit(List<String> filePaths) {
+            if (filePaths.isEmpty() || cancelled) {
+                return;
+            }
+
+            Map<String, ContentValues> previous = queryPrevious(filePaths);
+
+            for (final String filePath : filePaths) {
+                ContentValues row = previous.get(filePath);
+                if (row != null && isUnchanged(row, new File(filePath))) {
+                    listener.onScanned(filePath, row.getAsByte(Columns.FILE_TYPE));
+                    continue;
+                }
+
+                while (pending.size() >= MAX_PENDING && !cancelled) {
+                    takeOne();
+                }
+
+                if (cancelled) {
+                    return;
+                }
+
+                pending.add(EXTRACTORS.submit(new Callable<ContentValues>() {
+                    @Override
+                    public ContentValues call() throws Exception {
+                        return read(filePath);
+                    }
+                }));
+            }
+        }
+
+        public void finish() {
+            while (!pending.isEmpty() && !cancelled) {
+                takeOne();
+            }
+            commit();
+
+            if (cancelled) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void takeOne() {
+            Future<ContentValues> future = pending.peek();
+            try {
+                batch.add(future.get());
+                pending.poll();
+            } catch (InterruptedException e) {
+                cancel();
+                return;
+            } catch (ExecutionException e) {
+                pending.poll();
+                LOG.log(Level.WARNING, "Error reading file metadata", e.getCause());
+            }
+
+            if (batch.size() >= BATCH_SIZE) {
+                commit();
+            }
+        }
+
+        /**
+         * Keeps the files already read, so that they are saved by finish,
+         * and cancels the reads still pending.
+         */
+        private void cancel() {
+            cancelled = true;
+
+            int dropped = 0;
+            for (Future<ContentValues> future : pending) {
+                if (future.isDone() && !future.isCancelled()) {
+                    try {
+                        // done, so it doesn't wait
+                        batch.add(future.get());
+                    } catch (Throwable e) {
+                        dropped++;
+                    }
+                } else {
+                    future.cancel(true);
+                    dropped++;
+                }
+            }
+            pending.clear();
+
+            LOG.log(Level.WARNING, "Interrupted while scanning files, " + dropped + " files not scanned");
+        }
+
+        private void commit() {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            final ShareFilesDB db = ShareFilesDB.intance();
+
+            boolean saved = db.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (ContentValues values : batch) {
+                        String filePath = values.getAsString(Columns.FILE_PATH);
+
+                        db.delete(Columns.FILE_PATH + " = ?", new String[] { filePath });
+
+                        if (db.insert(values) == -1) {
+                            throw new SQLException("Unable to save the scan of " + filePath);
+                        }
+                    }
+                }
+            });
+
+            if (saved) {
+                for (ContentValues values : batch) {
+                    listener.onScanned(values.getAsString(Columns.FILE_PATH), values.getAsByte(Columns.FILE_TYPE));
+                }
+            }
+
+            batch.clear();
+        }
+
+        /**
+         * Reads the size, modification time and type of the rows of the
+         * files, with a single query.
+         */
+        private Map<String, ContentValues> queryPrevious(List<String> filePaths) {
+            Map<String, ContentValues> rows = new HashMap<String, ContentValues>();
+
+            StringBuilder where = new StringBuilder(Columns.FILE_PATH + " IN (");
+            for (int i = 0; i < filePaths.size(); i++) {
+                where.append(i > 0 ? ",?" : "?");
+            }
+            where.append(")");
+
+            String[] columns = new String[] { Columns.FILE_PATH, Columns.FILE_TYPE, Columns.FILE_SIZE, Columns.DATE_MODIFIED, Columns.SHARED };
+
+            Cursor c = null;
+
+            try {
+                c = ShareFilesDB.intance().query(columns, where.toString(), filePaths.toArray(new String[filePaths.size()]), null);
+
+                while (c.moveToNext()) {
+                    ContentValues row = new ContentValues();
+                    row.put(Columns.FILE_TYPE, c.getByte(2));
+                    row.put(Columns.FILE_SIZE, c.getLong(3));
+                    row.put(Columns.DATE_MODIFIED, c.getLong(4));
+                    row.put(Columns.SHARED, c.getBoolean(5));
+                    rows.put(c.getString(1), row);
+                }
+            } catch (Throwable e) {
+                LOG.log(Level.WARNING, "Error reading the previous scans, scanning all files", e);
+                rows.clear();
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+
+            return rows;
+        }
+
+        private boolean isUnchanged(ContentValues row, File file) {
+            Long size = row.getAsLong(Columns.FILE_SIZE);
+            Long modified = row.getAsLong(Columns.DATE_MODIFIED);
+            return Boolean.TRUE.equals(row.getAsBoolean(Columns.SHARED)) && size != null && size == file.length() && modified != null && modified == file.lastModified();
+        }
+    }
 }
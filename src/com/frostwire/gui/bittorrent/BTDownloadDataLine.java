@@ -29,6 +29,7 @@ import com.frostwire.transfers.TransferState;
 import org.limewire.util.OSUtils;
 
 import com.frostwire.gui.library.LibraryMediator;
+import com.frostwire.torrent.CopyrightLicenseBroker;
 import com.frostwire.torrent.PaymentOptions;
 import com.limegroup.gnutella.gui.GUIMediator;
 import com.limegroup.gnutella.gui.GUIUtils;
@@ -64,6 +65,8 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
      */
     private TransferState _transferState;
 
+    private boolean _completed;
+
     /**
      * Variable for the amount of the file that has been read.
      */
@@ -236,7 +239,7 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
             return false;
         }
 
-        return initializer.getState() == TransferState.SEEDING;
+        return _transferState == TransferState.SEEDING;
     }
 
     /**
@@ -276,7 +279,7 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
         case UPLOAD_SPEED_INDEX:
             return new Double(_uploadSpeed);
         case TIME_INDEX:
-            if (initializer.isCompleted()) {
+            if (_completed) {
                 return new TimeRemainingHolder(0);
             } else if (_downloadSpeed < 0.001 && !(initializer instanceof BTPeerHttpUpload)) {
                 return new TimeRemainingHolder(-1);
@@ -399,37 +402,103 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
      * @implements DataLine interface
      */
     public void update() {
-        _transferState = initializer.getState();
-        _progress = initializer.getProgress();
-        _download = initializer.getBytesReceived();
-        _upload = initializer.getBytesSent();
-        _downloadSpeed = initializer.getDownloadSpeed();
-        _uploadSpeed = initializer.getUploadSpeed();
-        _timeLeft = initializer.getETA();
-        _seeds = initializer.getSeedsString();
-        _peers = initializer.getPeersString();
-        _shareRatio = initializer.getShareRatio();
-        _seedToPeerRatio = initializer.getSeedToPeerRatio();
-        _size = initializer.getSize();
-        dateCreated = initializer.getDateCreated();
-        
-        if (initializer.getCopyrightLicenseBroker() != null && 
-            initializer.getCopyrightLicenseBroker().license != null) {
-            license = initializer.getCopyrightLicenseBroker().license.getName();
-        } else {
-            license = "";
+        updateData();
+    }
+
+    /**
+     * Takes a new snapshot of the download, reading each value from the
+     * <tt>Downloader</tt> only once.
+     *
+     * @return true if any displayed value changed since the last snapshot
+     */
+    boolean updateData() {
+        TransferState transferState = initializer.getState();
+        boolean completed = initializer.isCompleted();
+        int progress = initializer.getProgress();
+        long download = initializer.getBytesReceived();
+        long upload = initializer.getBytesSent();
+        double downloadSpeed = initializer.getDownloadSpeed();
+        double uploadSpeed = initializer.getUploadSpeed();
+        long timeLeft = initializer.getETA();
+        String seeds = initializer.getSeedsString();
+        String peers = initializer.getPeersString();
+        String shareRatio = initializer.getShareRatio();
+        String seedToPeerRatio = initializer.getSeedToPeerRatio();
+        long size = initializer.getSize();
+        Date created = initializer.getDateCreated();
+
+        CopyrightLicenseBroker licenseBroker = initializer.getCopyrightLicenseBroker();
+        String licenseName = licenseBroker != null && licenseBroker.license != null ? licenseBroker.license.getName() : "";
+
+        PaymentOptions options = initializer.getPaymentOptions();
+        if (options == null) {
+            options = paymentOptions;
         }
-        
-        if (initializer.getPaymentOptions() != null) {
-            paymentOptions = initializer.getPaymentOptions();
+
+        boolean changed = transferState != _transferState || completed != _completed || progress != _progress || download != _download || upload != _upload || downloadSpeed != _downloadSpeed || uploadSpeed != _uploadSpeed || timeLeft != _timeLeft || size != _size || !equals(seeds, _seeds)
+                || !equals(peers, _peers) || !equals(shareRatio, _shareRatio) || !equals(seedToPeerRatio, _seedToPeerRatio) || !equals(created, dateCreated) || !equals(licenseName, license) || options != paymentOptions;
+
+        _transferState = transferState;
+        _completed = completed;
+        _progress = progress;
+        _download = download;
+        _upload = upload;
+        _downloadSpeed = downloadSpeed;
+        _uploadSpeed = uploadSpeed;
+        _timeLeft = timeLeft;
+        _seeds = seeds;
+        _peers = peers;
+        _shareRatio = shareRatio;
+        _seedToPeerRatio = seedToPeerRatio;
+        _size = size;
+        dateCreated = created;
+        license = licenseName;
+        paymentOptions = options;
+
+        if (_completed) {
+            showNotification();
         }
 
+        return changed;
+    }
 
-        if (getInitializeObject().isCompleted()) {
-            showNotification();
+    /**
+     * Updates only the state of the download, enough to keep the transfer
+     * counters right for lines that are not displayed.
+     */
+    void updateState() {
+        _transferState = initializer.getState();
+        _completed = initializer.isCompleted();
+    }
+
+    /**
+     * Returns the state as of the last update.
+     */
+    TransferState getTransferState() {
+        return _transferState;
+    }
+
+    boolean isActiveDownload() {
+        return !_completed && _transferState == TransferState.DOWNLOADING;
+    }
+
+    boolean isActiveUpload() {
+        // special case for peer uploads, needs refactor
+        if (initializer instanceof BTPeerHttpUpload) {
+            return _transferState == TransferState.SEEDING;
+        } else {
+            return _completed && _transferState == TransferState.SEEDING;
         }
     }
 
+    boolean isClearable() {
+        return _completed && _transferState != TransferState.SEEDING && _transferState != TransferState.CHECKING;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     private void showNotification() {
         if (!_notification) {
             _notification = true;
@@ -442,7 +511,7 @@ final class BTDownloadDataLine extends AbstractDataLine<BTDownload> {
                     actions = new Action[] { new LaunchAction(file), new ShowInLibraryAction(file) };
                 }
                 notification = new Notification(theDownload.getDisplayName(), getIcon(), actions);
-                LibraryMediator.instance().getLibraryExplorer().clearDirectoryHolderCaches();
+                LibraryMediator.instance().getLibraryExplorer().refreshDirectoryHolderCaches();
 
                 iTunesScanIfNecessaryForNonTorrentDownloadItem(theDownload, file);
 
@@ -292,18 +292,7 @@ public final class BTDownloadMediator extends AbstractTableMediator<BTDownloadRo
             showInLibraryAction.setEnabled(completed);
         }
 
-        int n = DATA_MODEL.getRowCount();
-        boolean anyClearable = false;
-        for (int i = n - 1; i >= 0; i--) {
-            BTDownloadDataLine btDownloadDataLine = DATA_MODEL.get(i);
-            BTDownload initializeObject = btDownloadDataLine.getInitializeObject();
-            if (isClearable(initializeObject)) {
-                anyClearable = true;
-                break;
-            }
-        }
-
-        clearInactiveAction.setEnabled(anyClearable);
+        clearInactiveAction.setEnabled(DATA_MODEL.hasClearable());
 
         try {
             if (OSUtils.isWindows() && UpdateManagerSettings.SHOW_FROSTWIRE_RECOMMENDATIONS.getValue()) {
@@ -1,8 +1,7 @@
 package com.frostwire.gui.bittorrent;
 
 import java.util.HashSet;
-
-import com.frostwire.transfers.TransferState;
+import java.util.List;
 
 import com.limegroup.gnutella.gui.tables.BasicDataLineModel;
 
@@ -19,6 +18,11 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
 
     private HashSet<String> _hashDownloads;
 
+    // kept up to date on every add, remove and refresh of a line
+    private int activeDownloads;
+    private int activeUploads;
+    private int clearable;
+
     /**
      * Initialize the model by setting the class of its DataLines.
      */
@@ -35,36 +39,18 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
     }
 
     int getActiveDownloads() {
-        int size = getRowCount();
-        int count = 0;
-
-        for (int i = 0; i < size; i++) {
-            BTDownload downloader = get(i).getInitializeObject();
-            if (!downloader.isCompleted() && downloader.getState() == TransferState.DOWNLOADING) {
-                count++;
-            }
-        }
-        return count;
+        return activeDownloads;
     }
 
     int getActiveUploads() {
-        int size = getRowCount();
-        int count = 0;
-
-        for (int i = 0; i < size; i++) {
-            BTDownload downloader = get(i).getInitializeObject();
-            // special case for peer uploads, needs refactor
-            if (downloader instanceof BTPeerHttpUpload) {
-                if (downloader.getState() == TransferState.SEEDING) {
-                    count++;
-                }
-            } else {
-                if (downloader.isCompleted() && downloader.getState() == TransferState.SEEDING) {
-                    count++;
-                }
-            }
-        }
-        return count;
+        return activeUploads;
+    }
+
+    /**
+     * Returns true if any row can be cleared, as of the last refresh.
+     */
+    boolean hasClearable() {
+        return clearable > 0;
     }
 
     public int getTotalDownloads() {
@@ -74,17 +60,42 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
     /**
      * Over-ride the default refresh so that we can
      * set the CLEAR_BUTTON as appropriate.
+     * <p>
+     * Each line takes a snapshot of its download and only the rows that
+     * changed since the previous one are repainted, with one event per run
+     * of consecutive rows. The counters of active transfers are adjusted
+     * with the difference between both snapshots.
      */
     public Object refresh() {
         try {
             int size = getRowCount();
+            int firstDirty = -1;
 
             for (int i = 0; i < size; i++) {
                 BTDownloadDataLine ud = get(i);
-                ud.update();
+
+                boolean changed;
+                count(ud, -1);
+                try {
+                    changed = ud.updateData();
+                } finally {
+                    // counted back even if the update fails, or the line would be lost from the counters
+                    count(ud, 1);
+                }
+
+                if (changed) {
+                    if (firstDirty == -1) {
+                        firstDirty = i;
+                    }
+                } else if (firstDirty != -1) {
+                    fireTableRowsUpdated(firstDirty, i - 1);
+                    firstDirty = -1;
+                }
             }
 
-            fireTableRowsUpdated(0, size);
+            if (firstDirty != -1) {
+                fireTableRowsUpdated(firstDirty, size - 1);
+            }
         } catch (Exception e) {
             System.out.println("ATENTION: Send the following output to the FrostWire Development team.");
             System.out.println("===============================START COPY & PASTE=======================================");
@@ -96,6 +107,17 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
         return Boolean.TRUE;
     }
 
+    @Override
+    public int update(BTDownload downloader) {
+        int row = getRow(downloader);
+        BTDownloadDataLine line = get(row);
+        count(line, -1);
+        line.update();
+        count(line, 1);
+        fireTableRowsUpdated(row, row);
+        return row;
+    }
+
     @Override
     public int add(BTDownload downloader) {
         _hashDownloads.add(downloader.getHash());
@@ -108,10 +130,34 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
         return super.add(downloader, row);
     }
 
+    @Override
+    public int add(BTDownloadDataLine line, int row) {
+        count(line, 1);
+        return super.add(line, row);
+    }
+
+    @Override
+    public int addAll(List<BTDownloadDataLine> lines, boolean sorted) {
+        for (BTDownloadDataLine line : lines) {
+            count(line, 1);
+        }
+        return super.addAll(lines, sorted);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        activeDownloads = 0;
+        activeUploads = 0;
+        clearable = 0;
+    }
+
     @Override
     public void remove(int i) {
         BTDownloadDataLine line = get(i);
 
+        count(line, -1);
+
         BTDownload downloader = line.getInitializeObject();
 
         downloader.remove();
@@ -133,4 +179,16 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
     public boolean isCellEditable(int rowIndex, int columnIndex) {
         return columnIndex == BTDownloadDataLine.PAYMENT_OPTIONS_INDEX;
     }
+
+    private void count(BTDownloadDataLine line, int delta) {
+        if (line.isActiveDownload()) {
+            activeDownloads += delta;
+        }
+        if (line.isActiveUpload()) {
+            activeUploads += delta;
+        }
+        if (line.isClearable()) {
+            clearable += delta;
+        }
+    }
 }
@@ -3,8 +3,6 @@ package com.frostwire.gui.bittorrent;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.frostwire.transfers.TransferState;
-
 import com.frostwire.gui.filters.TableLineFilter;
 import com.limegroup.gnutella.settings.BittorrentSettings;
 
@@ -28,6 +26,8 @@ public class BTDownloadRowFilteredModel extends BTDownloadModel {
      */
     protected final List<BTDownloadDataLine> HIDDEN;
 
+    private int hiddenActiveUploads;
+
     /**
      * Constructs a TableRowFilter with the specified TableLineFilter.
      */
@@ -47,6 +47,9 @@ public class BTDownloadRowFilteredModel extends BTDownloadModel {
 
         if (!allow(tl)) {
             HIDDEN.add(tl);
+            if (tl.isActiveUpload()) {
+                hiddenActiveUploads++;
+            }
             return -1;
         } else {
             return super.add(tl, row);
@@ -54,10 +57,62 @@ public class BTDownloadRowFilteredModel extends BTDownloadModel {
 
     }
 
+    /**
+     * Lines the filter doesn't allow are hidden, as in add.
+     */
+    @Override
+    public int addAll(List<BTDownloadDataLine> lines, boolean sorted) {
+        List<BTDownloadDataLine> allowed = new ArrayList<BTDownloadDataLine>(lines.size());
+        for (BTDownloadDataLine tl : lines) {
+            if (!allow(tl)) {
+                HIDDEN.add(tl);
+                if (tl.isActiveUpload()) {
+                    hiddenActiveUploads++;
+                }
+            } else {
+                allowed.add(tl);
+            }
+        }
+        return super.addAll(allowed, sorted);
+    }
+
     @Override
     public void clear() {
         super.clear();
         HIDDEN.clear();
+        hiddenActiveUploads = 0;
+    }
+
+    /**
+     * Hidden lines are not displayed, only their state is refreshed, to
+     * keep the count of active uploads.
+     */
+    @Override
+    public Object refresh() {
+        Object result = super.refresh();
+
+        int size = HIDDEN.size();
+
+        try {
+            for (int i = 0; i < size; i++) {
+                BTDownloadDataLine line = HIDDEN.get(i);
+                if (line.isActiveUpload()) {
+                    hiddenActiveUploads--;
+                }
+                try {
+                    line.updateState();
+                } finally {
+                    // counted back even if the update fails, or the line would be lost from the count
+                    if (line.isActiveUpload()) {
+                        hiddenActiveUploads++;
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            // ignore, multi-threading issues?
+        }
+
+        return result;
     }
 
     /**
@@ -128,27 +183,6 @@ public class BTDownloadRowFilteredModel extends BTDownloadModel {
 
     @Override
     int getActiveUploads() {
-        int count = super.getActiveUploads();
-
-        int size = HIDDEN.size();
-
-        try {
-            for (int i = 0; i < size; i++) {
-                BTDownload downloader = HIDDEN.get(i).getInitializeObject();
-                // special case for peer uploads, needs refactor
-                if (downloader instanceof BTPeerHttpUpload) {
-                    if (downloader.getState() == TransferState.SEEDING) {
-                        count++;
-                    }
-                } else {
-                    if (downloader.isCompleted() && downloader.getState() == TransferState.SEEDING) {
-                        count++;
-                    }
-                }
-            }
-        } catch (Throwable e) {
-            // ignore, multi-threading issues?
-        }
-        return count;
+        return super.getActiveUploads() + hiddenActiveUploads;
     }
 }
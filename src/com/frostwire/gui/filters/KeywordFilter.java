@@ -38,6 +38,9 @@ public class KeywordFilter implements SearchFilter {
     /** INVARIANT: strings in ban contain only lowercase */
     private List<String> ban = new ArrayList<String>();
 
+    /** The ban list compiled, null until needed or after ban changes */
+    private KeywordMatcher matcher;
+
     /** 
      * @modifies this
      * @effects bans the given phrase.  Capitalization does not matter.
@@ -46,6 +49,7 @@ public class KeywordFilter implements SearchFilter {
         String canonical = phrase.toLowerCase(Locale.US);
         if (!ban.contains(canonical)) {
             ban.add(canonical);
+            matcher = null;
         }
     }
 
@@ -119,15 +123,15 @@ public class KeywordFilter implements SearchFilter {
     }
 
     /** 
-     * Returns true if phrase matches any of the entries in ban.
+     * Returns true if phrase matches any of the entries in ban,
+     * checking all of them in a single pass.
      */
     protected boolean matches(String phrase) {
-        String canonical = phrase.toLowerCase(Locale.US);
-        for (int i = 0; i < ban.size(); i++) {
-            String badWord = ban.get(i);
-            if (canonical.indexOf(badWord) != -1)
-                return true;
+        KeywordMatcher m = matcher;
+        if (m == null) {
+            m = new KeywordMatcher(ban);
+            matcher = m;
         }
-        return false;
+        return m.matchesAny(phrase);
     }
 }
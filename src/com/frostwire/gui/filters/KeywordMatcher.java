@@ -0,0 +1,221 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton that finds any number of keywords in a text with a
+ * single pass over it, instead of one indexOf per keyword.
+ * <p>
+ * Keywords are matched ignoring case, the text is lowercased on the fly.
+ * Once built the matcher is immutable and can be shared between threads.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class KeywordMatcher {
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final int size;
+
+    // per state, sorted transition chars and their target states
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] fail;
+    // per state, the keywords ending there, including the ones reached by fail links
+    private final int[][] outputs;
+
+    public KeywordMatcher(Collection<String> keywords) {
+        List<StringBuilder> edgeKeys = new ArrayList<StringBuilder>();
+        List<List<Integer>> edgeTargets = new ArrayList<List<Integer>>();
+        List<List<Integer>> ends = new ArrayList<List<Integer>>();
+        newState(edgeKeys, edgeTargets, ends);
+
+        int n = 0;
+        for (String keyword : keywords) {
+            if (keyword == null || keyword.length() == 0) {
+                continue;
+            }
+
+            String canonical = keyword.toLowerCase(Locale.US);
+            int state = 0;
+            for (int i = 0; i < canonical.length(); i++) {
+                char c = canonical.charAt(i);
+                int idx = edgeKeys.get(state).indexOf(String.valueOf(c));
+                if (idx == -1) {
+                    int next = newState(edgeKeys, edgeTargets, ends);
+                    edgeKeys.get(state).append(c);
+                    edgeTargets.get(state).add(next);
+                    state = next;
+                } else {
+                    state = edgeTargets.get(state).get(idx);
+                }
+            }
+            ends.get(state).add(n);
+            n++;
+        }
+
+        size = n;
+
+        int states = edgeKeys.size();
+        keys = new char[states][];
+        targets = new int[states][];
+        for (int s = 0; s < states; s++) {
+            String k = edgeKeys.get(s).toString();
+            char[] sorted = k.toCharArray();
+            Arrays.sort(sorted);
+            int[] t = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                t[i] = edgeTargets.get(s).get(k.indexOf(sorted[i]));
+            }
+            keys[s] = sorted;
+            targets[s] = t;
+        }
+
+        fail = new int[states];
+        outputs = new int[states][];
+        outputs[0] = toArray(ends.get(0), NO_OUTPUTS);
+
+        // breadth first, so the fail state of a state is always complete
+        Queue<Integer> queue = new LinkedList<Integer>();
+        for (int next : targets[0]) {
+            fail[next] = 0;
+            outputs[next] = toArray(ends.get(next), NO_OUTPUTS);
+            queue.add(next);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = 0; i < keys[s].length; i++) {
+                char c = keys[s][i];
+                int next = targets[s][i];
+
+                int f = fail[s];
+                int to;
+                while ((to = transition(f, c)) == -1 && f != 0) {
+                    f = fail[f];
+                }
+                fail[next] = to == -1 ? 0 : to;
+                outputs[next] = toArray(ends.get(next), outputs[fail[next]]);
+
+                queue.add(next);
+            }
+        }
+    }
+
+    /**
+     * Number of keywords in this matcher.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if any of the keywords occurs in the text.
+     */
+    public boolean matchesAny(CharSequence text) {
+        if (size == 0) {
+            return false;
+        }
+
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            if (outputs[state].length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if every keyword occurs in the text.
+     */
+    public boolean matchesAll(CharSequence text) {
+        if (size == 0) {
+            return true;
+        }
+
+        boolean[] found = new boolean[size];
+        int missing = size;
+
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            for (int k : outputs[state]) {
+                if (!found[k]) {
+                    found[k] = true;
+                    if (--missing == 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private int next(int state, char c) {
+        int to;
+        while ((to = transition(state, c)) == -1 && state != 0) {
+            state = fail[state];
+        }
+        return to == -1 ? 0 : to;
+    }
+
+    private int transition(int state, char c) {
+        char[] k = keys[state];
+        if (k.length < 8) {
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] == c) {
+                    return targets[state][i];
+                }
+            }
+            return -1;
+        }
+        int idx = Arrays.binarySearch(k, c);
+        return idx >= 0 ? targets[state][idx] : -1;
+    }
+
+    private static int newState(List<StringBuilder> edgeKeys, List<List<Integer>> edgeTargets, List<List<Integer>> ends) {
+        edgeKeys.add(new StringBuilder());
+        edgeTargets.add(new ArrayList<Integer>());
+        ends.add(new ArrayList<Integer>());
+        return edgeKeys.size() - 1;
+    }
+
+    private static int[] toArray(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] arr = new int[own.size() + inherited.length];
+        for (int i = 0; i < own.size(); i++) {
+            arr[i] = own.get(i);
+        }
+        System.arraycopy(inherited, 0, arr, own.size(), inherited.length);
+        return arr;
+    }
+}
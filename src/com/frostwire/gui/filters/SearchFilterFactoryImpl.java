@@ -18,6 +18,7 @@
 
 package com.frostwire.gui.filters;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 import com.limegroup.gnutella.settings.FilterSettings;
@@ -30,17 +31,29 @@ import com.limegroup.gnutella.settings.FilterSettings;
  */
 public class SearchFilterFactoryImpl implements SearchFilterFactory {
 
+    /**
+     * The last filter created and the settings it was created with, reused
+     * while the settings don't change so the keywords are compiled once.
+     */
+    private SearchFilter lastFilter;
+    private String[] lastBadWords;
+    private boolean lastFilterAdult;
+
     public SearchFilterFactoryImpl() {
     }
 
-    public SearchFilter createFilter() {
-
-        Vector<SearchFilter> buf = new Vector<SearchFilter>();
+    public synchronized SearchFilter createFilter() {
 
         String[] badWords = FilterSettings.BANNED_WORDS.getValue();
 
         boolean filterAdult = FilterSettings.FILTER_ADULT.getValue();
 
+        if (lastFilter != null && lastFilterAdult == filterAdult && Arrays.equals(lastBadWords, badWords)) {
+            return lastFilter;
+        }
+
+        Vector<SearchFilter> buf = new Vector<SearchFilter>();
+
         if (badWords.length != 0 || filterAdult) {
             KeywordFilter kf = new KeywordFilter();
             for (int i = 0; i < badWords.length; i++)
@@ -51,7 +64,11 @@ public class SearchFilterFactoryImpl implements SearchFilterFactory {
             buf.add(kf);
         }
 
-        return compose(buf);
+        lastFilter = compose(buf);
+        lastBadWords = badWords.clone();
+        lastFilterAdult = filterAdult;
+
+        return lastFilter;
     }
 
     /**
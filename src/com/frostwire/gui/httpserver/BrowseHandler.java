@@ -19,18 +19,26 @@
 package com.frostwire.gui.httpserver;
 
 import java.io.IOException;
-import java.util.List;
+import java.io.OutputStreamWriter;
 import java.util.Map;
 import java.util.zip.GZIPOutputStream;
 
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.Librarian;
+import com.frostwire.gui.Librarian.SharedFileVisitor;
 import com.frostwire.logging.Logger;
-import com.frostwire.util.JsonUtils;
 import com.frostwire.util.URLUtils;
+import com.google.gson.stream.JsonWriter;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Lists the shared files of a type as JSON, written to the gzip stream
+ * while they are read from the share table.
+ * <p>
+ * The optional offset and limit parameters page the list. Responses carry
+ * an ETag with the share table version, a request with a matching
+ * If-None-Match gets a 304.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -46,20 +54,40 @@ class BrowseHandler extends AbstractHandler {
         GZIPOutputStream os = null;
 
         byte type = -1;
+        int offset = 0;
+        int limit = -1;
 
         try {
             Map<String, String> splitQuery = URLUtils.splitQuery(exchange.getRequestURI().getQuery());
 
-            if (splitQuery.containsKey("type")) {
-                type = Byte.parseByte(splitQuery.get("type"));
+            try {
+                if (splitQuery.containsKey("type")) {
+                    type = Byte.parseByte(splitQuery.get("type"));
+                }
+                if (splitQuery.containsKey("offset")) {
+                    offset = Integer.parseInt(splitQuery.get("offset"));
+                }
+                if (splitQuery.containsKey("limit")) {
+                    limit = Integer.parseInt(splitQuery.get("limit"));
+                }
+            } catch (NumberFormatException e) {
+                type = -1;
             }
-            
-            if (type == -1) {
-                exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
+
+            if (type == -1 || offset < 0 || limit < -1) {
+                exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, -1);
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            // taken before reading, so a change while streaming gives a new tag next time
+            String etag = "\"" + Librarian.instance().getShareTableVersion() + "\"";
+
+            exchange.getResponseHeaders().set("ETag", etag);
+
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
 
             exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
@@ -67,7 +95,8 @@ class BrowseHandler extends AbstractHandler {
 
             os = new GZIPOutputStream(exchange.getResponseBody());
 
-            os.write(response.getBytes("UTF-8"));
+            writeResponse(os, type, offset, limit);
+
             os.finish();
 
         } catch (IOException e) {
@@ -81,16 +110,64 @@ class BrowseHandler extends AbstractHandler {
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
-        List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(fileType);
+    private void writeResponse(GZIPOutputStream os, byte fileType, int offset, int limit) throws IOException {
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(os, "UTF-8"));
 
-        FileDescriptorList list = new FileDescriptorList();
-        list.files = fileDescriptors;
+        writer.beginObject();
+        writer.name("files");
+        writer.beginArray();
 
-        return JsonUtils.toJson(list);
+        Librarian.instance().browseSharedFiles(fileType, offset, limit, new SharedFileVisitor() {
+            @Override
+            public void visit(FileDescriptor fd) throws IOException {
+                writeFileDescriptor(writer, fd);
+            }
+        });
+
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
     }
 
-    static final class FileDescriptorList {
-        public List<FileDescriptor> files;
+    /**
+     * Same fields and order as the reflective serialization of
+     * {@link FileDescriptor}, null values are omitted.
+     */
+    private static void writeFileDescriptor(JsonWriter writer, FileDescriptor fd) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(fd.id);
+        writer.name("fileType").value(fd.fileType);
+        writeString(writer, "filePath", fd.filePath);
+        writer.name("fileSize").value(fd.fileSize);
+        writeString(writer, "mime", fd.mime);
+        writer.name("dateAdded").value(fd.dateAdded);
+        writer.name("dateModified").value(fd.dateModified);
+        writer.name("shared").value(fd.shared);
+        writeString(writer, "title", fd.title);
+        writeString(writer, "artist", fd.artist);
+        writeString(writer, "album", fd.album);
+        writeString(writer, "year", fd.year);
+        writer.endObject();
+    }
+
+    private static void writeString(JsonWriter writer, String name, String value) throws IOException {
+        if (value != null) {
+            writer.name(name).value(value);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+
+        return false;
     }
 }
@@ -20,10 +20,14 @@ package com.frostwire.gui.httpserver;
 
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.Librarian;
@@ -34,6 +38,15 @@ import com.frostwire.util.URLUtils;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Serves the shared files, supporting single byte ranges so interrupted
+ * transfers can be resumed.
+ * <p>
+ * Transfers run in their own bounded executor, not in the one of the
+ * server, so long transfers don't hold the threads serving the browse
+ * requests. The exchange only
+ * exposes a stream, so instead of transferTo the file is read with
+ * positional channel reads into a large buffer.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -42,25 +55,37 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class);
 
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Executor executor;
+
+    public DownloadHandler(Executor executor) {
+        this.executor = executor;
+    }
+
     @Override
     public void handle(final HttpExchange exchange) throws IOException {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    internalHandler(exchange);
-                } catch (IOException e) {
-                    LOG.warn("DownloadHandler async handle error", e);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        internalHandler(exchange);
+                    } catch (IOException e) {
+                        LOG.warn("DownloadHandler handle error", e);
+                    }
                 }
-            }
-        }).start();
+            });
+        } catch (RejectedExecutionException e) {
+            // the server is stopping
+            exchange.close();
+        }
     }
-    
+
     public void internalHandler(HttpExchange exchange) throws IOException {
         assertUPnPActive();
 
         OutputStream os = null;
-        FileInputStream fis = null;
+        RandomAccessFile raf = null;
 
         byte type = -1;
         int id = -1;
@@ -94,27 +119,60 @@ class DownloadHandler extends AbstractHandler {
                 throw new IOException("There is no such file shared");
             }
 
+            File file = new File(fd.filePath);
+            long length = file.length();
+
+            long[] range = parseRange(exchange.getRequestHeaders().getFirst("Range"), length);
+
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+            if (range != null && range[0] >= length) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + length);
+                exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                return;
+            }
+
             //upload = TransferManager.instance().upload(fd);
             upload = BTDownloadMediator.instance().upload(fd);
 
             exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            
-            File file = new File(fd.filePath);
-            
-            exchange.sendResponseHeaders(Code.HTTP_OK, file.length());
+
+            long start = 0;
+            long count = length;
+
+            if (range != null) {
+                start = range[0];
+                count = range[1] - range[0] + 1;
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, count);
+            } else {
+                exchange.sendResponseHeaders(Code.HTTP_OK, length);
+            }
 
             os = exchange.getResponseBody();
 
-            fis = new FileInputStream(file);
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
 
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(count, 1)));
+            long position = start;
+            long end = start + count;
 
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
-                os.write(buffer, 0, n);
+            while (position < end) {
+                buffer.clear();
+                if (end - position < buffer.capacity()) {
+                    buffer.limit((int) (end - position));
+                }
+
+                int n = channel.read(buffer, position);
+                if (n == -1) {
+                    throw new IOException("File truncated while uploading");
+                }
+
+                os.write(buffer.array(), 0, n);
+                position += n;
                 upload.addBytesSent(n);
-                
+
                 if (upload.isCanceled()) {
                     try {
                         throw new IOException("Upload cancelled");
@@ -122,12 +180,6 @@ class DownloadHandler extends AbstractHandler {
                         os.close();
                     }
                 }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
-                }
             }
 
         } catch (IOException e) {
@@ -135,7 +187,7 @@ class DownloadHandler extends AbstractHandler {
             throw e;
         } finally {
             close(os);
-            close(fis);
+            close(raf);
 
             try {
                 exchange.close();
@@ -149,6 +201,56 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
+    /**
+     * Parses a single "bytes" range, returning the first and last byte
+     * positions, or null if there is no range or it's not supported, in
+     * which case the whole file is sent.
+     */
+    static long[] parseRange(String header, long length) {
+        if (header == null) {
+            return null;
+        }
+
+        header = header.trim();
+        if (!header.startsWith("bytes=") || header.indexOf(',') != -1) {
+            return null;
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            long start;
+            long end;
+
+            if (first.length() == 0) {
+                // suffix range, the last bytes of the file
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.length() == 0 ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (start < 0 || (end < start && start < length)) {
+                    return null;
+                }
+            }
+
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private void close(Closeable c) {
         if (c != null) {
             try {
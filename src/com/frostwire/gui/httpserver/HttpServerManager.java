@@ -19,9 +19,12 @@
 package com.frostwire.gui.httpserver;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.limewire.concurrent.ExecutorsHelper;
+
 import com.sun.net.httpserver.HttpServer;
 
 /**
@@ -33,7 +36,21 @@ public class HttpServerManager {
 
     private static final Logger LOG = Logger.getLogger(HttpServerManager.class.getName());
 
+    /**
+     * Max number of finger and browse requests served at the same time, the
+     * rest wait in queue.
+     */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * Max number of files sent at the same time, in a pool of their own so
+     * long transfers don't starve the browse requests.
+     */
+    private static final int MAX_CONCURRENT_DOWNLOADS = 8;
+
     private HttpServer httpServer;
+    private ExecutorService executor;
+    private ExecutorService downloadExecutor;
 
     public HttpServerManager() {
     }
@@ -50,7 +67,11 @@ public class HttpServerManager {
 
             httpServer.createContext("/finger", new FingerHandler());
             httpServer.createContext("/browse", new BrowseHandler());
-            httpServer.createContext("/download", new DownloadHandler());
+            downloadExecutor = ExecutorsHelper.newFixedSizeThreadPool(MAX_CONCURRENT_DOWNLOADS, "HttpServer-Download");
+            httpServer.createContext("/download", new DownloadHandler(downloadExecutor));
+
+            executor = ExecutorsHelper.newFixedSizeThreadPool(MAX_CONCURRENT_REQUESTS, "HttpServer");
+            httpServer.setExecutor(executor);
 
             httpServer.start();
 
@@ -71,5 +92,15 @@ public class HttpServerManager {
         }
 
         httpServer = null;
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        if (downloadExecutor != null) {
+            downloadExecutor.shutdownNow();
+            downloadExecutor = null;
+        }
     }
 }
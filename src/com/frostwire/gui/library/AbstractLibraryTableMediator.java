@@ -317,6 +317,6 @@ abstract class AbstractLibraryTableMediator<T extends DataLineModel<E, I>, E ext
     public void removeSelection() {
         super.removeSelection();
 
-        LibraryMediator.instance().clearDirectoryHolderCaches();
+        LibraryMediator.instance().getLibraryExplorer().refreshDirectoryHolderCaches();
     }
 }
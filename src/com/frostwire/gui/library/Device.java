@@ -19,7 +19,11 @@
 package com.frostwire.gui.library;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URL;
@@ -31,6 +35,7 @@ import java.util.concurrent.ExecutorService;
 
 import javax.swing.JOptionPane;
 
+import org.apache.commons.io.IOUtils;
 import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.concurrent.ThreadExecutor;
 import org.limewire.util.NetworkUtils;
@@ -69,6 +74,13 @@ public class Device {
     public static int ACTION_DOWNLOAD = 1;
     public static int ACTION_UPLOAD = 2;
 
+    // big enough to keep a LAN link busy, the file stream is not flushed per write
+    private static final int DOWNLOAD_BUFFER_SIZE = 256 * 1024;
+    private static final int DOWNLOAD_CONNECT_TIMEOUT = 10000;
+    // short enough to notice a Wi-Fi drop and resume
+    private static final int DOWNLOAD_READ_TIMEOUT = 30000;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
     private static JsonEngine JSON_ENGINE = new JsonEngine();
 
     private final String udn;
@@ -215,27 +227,80 @@ public class Device {
         return  pingInfo.deviceType;
     }
 
-    public byte[] download(int type, int id) {
+    /**
+     * Streams the file into the given one, resuming with a range request
+     * from its current length if it's already partially downloaded. If the
+     * device doesn't honor the range, the download starts over.
+     *
+     * @return true if the file is complete, false if the listener stopped it
+     */
+    public boolean download(FileDescriptor fd, File file, DownloadListener listener) throws IOException {
+        long offset = file.exists() ? file.length() : 0;
+
+        if (offset > fd.fileSize) {
+            offset = 0;
+        } else if (offset == fd.fileSize && offset > 0) {
+            return true;
+        }
+
+        URL url = getDownloadURL(fd.fileType, fd.id);
+        if (url == null) {
+            throw new IOException("Unable to build the download url of file: " + fd.filePath);
+        }
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(DOWNLOAD_CONNECT_TIMEOUT);
+        conn.setReadTimeout(DOWNLOAD_READ_TIMEOUT);
+        conn.setRequestProperty("User-Agent", UserAgentGenerator.getUserAgent());
+        if (offset > 0) {
+            conn.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+
+        InputStream is = null;
+        OutputStream os = null;
 
         try {
+            int code = conn.getResponseCode();
+
+            if (code == HttpURLConnection.HTTP_OK) {
+                offset = 0;
+            } else if (code != HttpURLConnection.HTTP_PARTIAL || !isRangeFrom(conn.getHeaderField("Content-Range"), offset)) {
+                if (code == HTTP_RANGE_NOT_SATISFIABLE) {
+                    // the partial file is not a prefix of the remote one
+                    file.delete();
+                }
+                throw new IOException("Unexpected response downloading file: " + fd.filePath + ", code: " + code);
+            }
+
+            is = conn.getInputStream();
+            os = new FileOutputStream(file, offset > 0);
+
+            byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+            long downloaded = offset;
+            int n;
 
-            HttpClient browser = HttpClientFactory.newInstance();
-            byte[] data = browser.getBytes(getDownloadURL(type, id).toString());
+            while ((n = is.read(buffer)) != -1) {
+                if (!listener.isRunning()) {
+                    return false;
+                }
 
-            if (data == null) {
-                notifyOnActionFailed(ACTION_DOWNLOAD, null);
-                return null;
+                os.write(buffer, 0, n);
+                downloaded += n;
+                listener.onProgress(downloaded);
             }
 
-            setTimestamp(System.currentTimeMillis());
+            if (downloaded < fd.fileSize) {
+                throw new IOException("Connection closed before the end of file: " + fd.filePath);
+            }
 
-            return data;
+            setTimestamp(System.currentTimeMillis());
 
-        } catch (Exception e) {
-            notifyOnActionFailed(ACTION_DOWNLOAD, e);
+            return true;
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(os);
+            conn.disconnect();
         }
-
-        return null;
     }
 
     public void upload(File[] files) {
@@ -355,6 +420,20 @@ public class Device {
         public void onActionFailed(Device device, int action, Throwable e);
     }
 
+    public interface DownloadListener {
+
+        /**
+         * @param downloaded the bytes of the file already in disk
+         */
+        public void onProgress(long downloaded);
+
+        public boolean isRunning();
+    }
+
+    private static boolean isRangeFrom(String contentRange, long offset) {
+        return contentRange != null && contentRange.trim().startsWith("bytes " + offset + "-");
+    }
+
     private static List<File> flatFiles(File[] files) {
         Set<File> set = new HashSet<File>();
         for (File f : files) {
@@ -17,34 +17,64 @@
  */
 package com.frostwire.gui.library;
 
-import java.io.Closeable;
 import java.io.File;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URL;
+import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
-
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.FilenameUtils;
 
 import com.frostwire.core.FileDescriptor;
+import com.frostwire.logging.Logger;
 import com.limegroup.gnutella.gui.GUIMediator;
 import com.limegroup.gnutella.gui.I18n;
-
+import com.limegroup.gnutella.settings.LibrarySettings;
+
+/**
+ * Downloads files from a device over Wi-Fi, several at the same time.
+ * <p>
+ * Each file is streamed into its incomplete file. If the connection
+ * drops, the download is retried a few times, resuming from what is
+ * already in disk.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
 public class DownloadTask extends DeviceTask {
 
+    private static final Logger LOG = Logger.getLogger(DownloadTask.class);
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    // doubled after each failed attempt
+    private static final long RETRY_DELAY_MILLIS = 2000;
+
     private final File savePath;
     private final Device device;
     private final FileDescriptor[] fds;
 
-    private FileDescriptor currentFD;
+    private final AtomicLong totalWritten;
+    private long totalBytes;
+
+    private volatile FileDescriptor currentFD;
+    private volatile File lastFile;
 
     public DownloadTask(File savePath, Device device, FileDescriptor[] fds) {
         this.savePath = savePath;
         this.device = device;
         this.fds = fds;
+        this.totalWritten = new AtomicLong();
     }
 
     public FileDescriptor getCurrentFD() {
@@ -57,7 +87,7 @@ public class DownloadTask extends DeviceTask {
             return;
         }
 
-        File lastFile = null;
+        ExecutorService executor = null;
 
         try {
             setProgress(0);
@@ -66,75 +96,53 @@ public class DownloadTask extends DeviceTask {
                 savePath.mkdirs();
             }
 
-            long totalBytes = getTotalBytes();
-            long totalWritten = 0;
+            totalBytes = getTotalBytes();
+            totalWritten.set(0);
 
-            for (int i = 0; i < fds.length; i++) {
-                if (!isRunning()) {
-                    return;
-                }
+            File[] files = buildFiles();
 
-                currentFD = fds[i];
+            int parallel = Math.max(1, Math.min(LibrarySettings.LIBRARY_FROM_DEVICE_PARALLEL_DOWNLOADS.getValue(), fds.length));
+            executor = ExecutorsHelper.newFixedSizeThreadPool(parallel, "DownloadFromDevice");
 
-                GUIMediator.safeInvokeLater(new Runnable() {
-                    public void run() {
-                        String status = String.format("%s from %s - %s", I18n.tr("Downloading"), device.getName(), currentFD.title);
-                        LibraryMediator.instance().getLibrarySearch().pushStatus(status);
-                    }
-                });
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(fds.length);
 
-                URL url = new URL(device.getDownloadURL(currentFD));
+            for (int i = 0; i < fds.length; i++) {
+                final FileDescriptor fd = fds[i];
+                final File file = files[i];
 
-                InputStream is = null;
-                OutputStream fos = null;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        download(fd, file);
+                        return null;
+                    }
+                }));
+            }
 
+            // wait for all of them, a failed file doesn't stop the others
+            Throwable error = null;
+            for (Future<Void> future : futures) {
                 try {
-                    is = url.openStream();
-
-                    String filename = FilenameUtils.cleanFileName(FilenameUtils.getName(currentFD.filePath));
-                    File file = buildFile(savePath, filename);
-                    Path incompleteFile = buildIncompleteFile(file).toPath();
-                    lastFile = file.getAbsoluteFile();
-
-                    fos = Files.newOutputStream(incompleteFile, StandardOpenOption.CREATE);// new FileOutputStream(incompleteFile);
-
-                    byte[] buffer = new byte[4 * 1024];
-                    int n = 0;
-
-                    while ((n = is.read(buffer, 0, buffer.length)) != -1) {
-                        if (!isRunning()) {
-                            return;
-                        }
-
-                        fos.write(buffer, 0, n);
-                        fos.flush();
-                        totalWritten += n;
-                        setProgress((int) ((totalWritten * 100) / totalBytes));
-
-                        if (getProgress() % 5 == 0) {
-                            GUIMediator.safeInvokeLater(new Runnable() {
-                                public void run() {
-                                    String status = String.format("%d%% %s from %s - %s", getProgress(), I18n.tr("Downloading"), device.getName(), currentFD.title);
-                                    LibraryMediator.instance().getLibrarySearch().pushStatus(status);
-                                }
-                            });
-                        }
-
-                        //System.out.println("Progress: " + getProgress() + " Total Written: " + totalWritten + " Total Bytes: " + totalBytes);
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
                     }
-
-                    close(fos);
-                    Files.move(incompleteFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                } finally {
-                    close(is);
-                    close(fos);
                 }
             }
 
+            if (error != null) {
+                throw error;
+            }
+
+            if (!isRunning()) {
+                return;
+            }
+
             setProgress(100);
         } catch (Throwable e) {
-            e.printStackTrace();
+            LOG.error("Error downloading files from device", e);
             onError(e);
+            device.notifyOnActionFailed(Device.ACTION_DOWNLOAD, e);
 
             GUIMediator.safeInvokeLater(new Runnable() {
                 public void run() {
@@ -142,6 +150,10 @@ public class DownloadTask extends DeviceTask {
                 }
             });
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+
             GUIMediator.safeInvokeLater(new Runnable() {
                 public void run() {
                     LibraryMediator.instance().getLibrarySearch().revertStatus();
@@ -156,13 +168,100 @@ public class DownloadTask extends DeviceTask {
         stop();
     }
 
-    private File buildFile(File savePath, String name) {
+    private void download(FileDescriptor fd, File file) throws IOException, InterruptedException {
+        File incompleteFile = buildIncompleteFile(file);
+
+        Device.DownloadListener listener = new Device.DownloadListener() {
+
+            private long downloaded = 0;
+
+            public void onProgress(long downloaded) {
+                // negative if the device made the download start over
+                addWritten(downloaded - this.downloaded);
+                this.downloaded = downloaded;
+            }
+
+            public boolean isRunning() {
+                return DownloadTask.this.isRunning();
+            }
+        };
+
+        long delay = RETRY_DELAY_MILLIS;
+
+        for (int attempt = 1;; attempt++) {
+            if (!isRunning()) {
+                return;
+            }
+
+            currentFD = fd;
+            pushStatus();
+
+            try {
+                if (device.download(fd, incompleteFile, listener)) {
+                    Files.move(incompleteFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    lastFile = file.getAbsoluteFile();
+                }
+                return;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || !isRunning()) {
+                    throw e;
+                }
+                LOG.warn("Error downloading " + fd.filePath + " from " + device.getName() + " (attempt " + attempt + "), resuming in " + delay + "ms: " + e.getMessage());
+            }
+
+            Thread.sleep(delay);
+            delay *= 2;
+        }
+    }
+
+    private synchronized void addWritten(long n) {
+        long written = totalWritten.addAndGet(n);
+        int progress = totalBytes > 0 ? (int) ((written * 100) / totalBytes) : 0;
+
+        if (progress != getProgress()) {
+            setProgress(progress);
+
+            if (progress % 5 == 0) {
+                pushStatus();
+            }
+        }
+    }
+
+    private void pushStatus() {
+        final FileDescriptor fd = currentFD;
+
+        GUIMediator.safeInvokeLater(new Runnable() {
+            public void run() {
+                String status = String.format("%d%% %s from %s - %s", getProgress(), I18n.tr("Downloading"), device.getName(), fd.title);
+                LibraryMediator.instance().getLibrarySearch().pushStatus(status);
+            }
+        });
+    }
+
+    /**
+     * Names the files up front, so that files downloaded at the same time
+     * don't pick the same name.
+     */
+    private File[] buildFiles() {
+        File[] files = new File[fds.length];
+        Set<File> taken = new HashSet<File>();
+
+        for (int i = 0; i < fds.length; i++) {
+            String filename = FilenameUtils.cleanFileName(FilenameUtils.getName(fds[i].filePath));
+            files[i] = buildFile(savePath, filename, taken);
+            taken.add(files[i]);
+        }
+
+        return files;
+    }
+
+    private File buildFile(File savePath, String name, Set<File> taken) {
         String baseName = FilenameUtils.getBaseName(name);
         String ext = FilenameUtils.getExtension(name);
 
         File f = new File(savePath, name);
         int i = 1;
-        while (f.exists() && i < 100) {
+        while ((f.exists() || taken.contains(f)) && i < 100) {
             f = new File(savePath, baseName + " (" + i + ")." + ext);
             i++;
         }
@@ -182,13 +281,4 @@ public class DownloadTask extends DeviceTask {
         }
         return total;
     }
-
-    private void close(Closeable closable) {
-        if (closable != null) {
-            try {
-                closable.close();
-            } catch (Throwable e) {
-            }
-        }
-    }
 }
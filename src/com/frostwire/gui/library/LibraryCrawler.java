@@ -0,0 +1,258 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.limewire.util.FileUtils;
+import org.limewire.util.OSUtils;
+
+import com.limegroup.gnutella.gui.GUIMediator;
+
+/**
+ * Parallel directory crawler shared by the library explorer and the library
+ * search.
+ * <p>
+ * Every directory is listed by its own fork/join task, so subdirectories fan
+ * out across cores, and the attributes of each entry are read with a single
+ * call. Accepted files are streamed to the event dispatch thread in batches.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryCrawler {
+
+    private static final int BATCH_SIZE = 256;
+    private static final long BATCH_MAX_DELAY_MILLIS = 250;
+
+    private static final boolean WINDOWS = OSUtils.isWindows();
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private LibraryCrawler() {
+    }
+
+    /**
+     * Crawls the roots and blocks until every directory was listed or the
+     * crawl was canceled.
+     *
+     * @param ignore files and directories to skip, usually incomplete files
+     * @param excludedDirs directories not to descend into
+     * @return false if the crawl was canceled
+     */
+    public static boolean crawl(Collection<File> roots, Set<File> ignore, Set<File> excludedDirs, CrawlListener listener) {
+        Crawl crawl = new Crawl(ignore, excludedDirs, listener);
+
+        List<DirectoryTask> tasks = new ArrayList<DirectoryTask>(roots.size());
+        for (File root : roots) {
+            if (root != null) {
+                tasks.add(new DirectoryTask(crawl, root.toPath()));
+            }
+        }
+
+        POOL.invoke(new RootsTask(tasks));
+        crawl.flush(true);
+
+        return !listener.isCanceled();
+    }
+
+    /**
+     * Lists a directory reading the attributes of each entry only once,
+     * hidden entries are skipped.
+     */
+    public static void list(Path dir, Collection<File> files, Collection<Path> directories) {
+        DirectoryStream<Path> stream = null;
+        try {
+            stream = Files.newDirectoryStream(dir);
+            for (Path child : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = WINDOWS ? Files.readAttributes(child, DosFileAttributes.class) : Files.readAttributes(child, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                if (isHidden(child, attrs)) {
+                    continue;
+                }
+
+                if (attrs.isDirectory()) {
+                    directories.add(child);
+                } else if (attrs.isRegularFile()) {
+                    files.add(child.toFile());
+                }
+            }
+        } catch (IOException e) {
+            // unreadable or vanished directory, nothing to list
+        } finally {
+            FileUtils.close(stream);
+        }
+    }
+
+    private static boolean isHidden(Path path, BasicFileAttributes attrs) {
+        if (attrs instanceof DosFileAttributes) {
+            return ((DosFileAttributes) attrs).isHidden();
+        }
+        Path name = path.getFileName();
+        return name != null && name.toString().startsWith(".");
+    }
+
+    /**
+     * Receives the results of a crawl.
+     */
+    public interface CrawlListener {
+
+        /**
+         * Polled before each directory is listed, called from the crawler threads.
+         */
+        boolean isCanceled();
+
+        /**
+         * Called from the crawler threads for every regular file found.
+         */
+        boolean accept(File file);
+
+        /**
+         * Called in the event dispatch thread with a batch of accepted files.
+         */
+        void onFiles(List<File> files);
+    }
+
+    private static final class Crawl {
+
+        private final Set<File> ignore;
+        private final Set<File> excludedDirs;
+        private final CrawlListener listener;
+
+        private final ConcurrentLinkedQueue<File> pending;
+        private final AtomicInteger pendingCount;
+        private volatile long lastFlush;
+
+        public Crawl(Set<File> ignore, Set<File> excludedDirs, CrawlListener listener) {
+            this.ignore = ignore;
+            this.excludedDirs = excludedDirs;
+            this.listener = listener;
+            this.pending = new ConcurrentLinkedQueue<File>();
+            this.pendingCount = new AtomicInteger();
+            this.lastFlush = System.currentTimeMillis();
+        }
+
+        public void found(List<File> files) {
+            if (!files.isEmpty()) {
+                pending.addAll(files);
+                pendingCount.addAndGet(files.size());
+            }
+            flush(false);
+        }
+
+        public void flush(boolean force) {
+            if (!force && pendingCount.get() < BATCH_SIZE && System.currentTimeMillis() - lastFlush < BATCH_MAX_DELAY_MILLIS) {
+                return;
+            }
+
+            final List<File> batch = new ArrayList<File>();
+            File file;
+            while ((file = pending.poll()) != null) {
+                batch.add(file);
+            }
+            pendingCount.addAndGet(-batch.size());
+            lastFlush = System.currentTimeMillis();
+
+            if (!batch.isEmpty() && !listener.isCanceled()) {
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    public void run() {
+                        listener.onFiles(batch);
+                    }
+                });
+            }
+        }
+    }
+
+    private static final class RootsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -2633217530913212637L;
+
+        private final List<DirectoryTask> tasks;
+
+        public RootsTask(List<DirectoryTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 4803328736617264416L;
+
+        private final Crawl crawl;
+        private final Path dir;
+
+        public DirectoryTask(Crawl crawl, Path dir) {
+            this.crawl = crawl;
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            if (crawl.listener.isCanceled()) {
+                return;
+            }
+
+            List<File> files = new ArrayList<File>();
+            List<Path> directories = new ArrayList<Path>();
+            list(dir, files, directories);
+
+            List<File> accepted = new ArrayList<File>(files.size());
+            for (File file : files) {
+                if (!crawl.ignore.contains(file) && crawl.listener.accept(file)) {
+                    accepted.add(file);
+                }
+            }
+            crawl.found(accepted);
+
+            List<DirectoryTask> subtasks = new ArrayList<DirectoryTask>(directories.size());
+            for (Path directory : directories) {
+                File f = directory.toFile();
+                if (!crawl.excludedDirs.contains(f) && !crawl.ignore.contains(f)) {
+                    subtasks.add(new DirectoryTask(crawl, directory));
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -130,6 +130,10 @@ public class LibraryExplorer extends AbstractLibraryListPanel {
         LibraryNode node = (LibraryNode) tree.getLastSelectedPathComponent();
 
         String searchPrompt = null;
+
+        if (clearCache) {
+            LibraryFileIndex.instance().requestSync();
+        }
         
         if (node == null) {
             return;
@@ -159,7 +163,7 @@ public class LibraryExplorer extends AbstractLibraryListPanel {
         if (directoryHolder instanceof StarredDirectoryHolder) {
             Playlist playlist = LibraryMediator.getLibrary().getStarredPlaylist();
             LibraryMediator.instance().updateTableItems(playlist);
-            String status = LibraryUtils.getPlaylistDurationInDDHHMMSS(playlist) + ", " + playlist.getItems().size() + " " + I18n.tr("tracks");
+            String status = LibraryUtils.getPlaylistDurationInDDHHMMSS(playlist) + ", " + playlist.getItemCount() + " " + I18n.tr("tracks");
             LibraryMediator.instance().getLibrarySearch().setStatus(status);
 
         }
@@ -396,27 +400,49 @@ public class LibraryExplorer extends AbstractLibraryListPanel {
                 });
 
                 final List<File> cache = new ArrayList<File>(_mtsfdh.getCache());
-                if (cache.size() == 0) {
-
-                    File torrentDataDirFile = SharingSettings.TORRENT_DATA_DIR_SETTING.getValue();
-
-                    Set<File> ignore = TorrentUtil.getIgnorableFiles();
+                if (!_mtsfdh.isCacheLoaded()) {
 
                     Set<File> directories = new HashSet<File>(LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue());
                     directories.removeAll(LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
 
+                    List<File> roots = new ArrayList<File>();
                     for (File dir : directories) {
                         if (dir == null) {
                             continue;
                         }
-                        if (dir.equals(torrentDataDirFile)) {
-                            search(dir, ignore, LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
-                        } else if (dir.equals(LibrarySettings.USER_MUSIC_FOLDER.getValue()) && !_mtsfdh.getMediaType().equals(MediaType.getAudioMediaType())) {
+                        if (dir.equals(LibrarySettings.USER_MUSIC_FOLDER.getValue()) && !_mtsfdh.getMediaType().equals(MediaType.getAudioMediaType())) {
                             continue;
-                        } else {
-                            search(dir, new HashSet<File>(), LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
                         }
+                        roots.add(dir);
+                    }
+
+                    //avoids npe if for some reason the directory holder is not selected.
+                    if (getSelectedDirectoryHolder() == null) {
+                        selectMediaTypeSavedFilesDirectoryHolderbyType(_mtsfdh.getMediaType());
                     }
+
+                    final boolean complete = LibraryCrawler.crawl(roots, TorrentUtil.getIgnorableFiles(), LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue(), new LibraryCrawler.CrawlListener() {
+
+                        public boolean isCanceled() {
+                            return !_mtsfdh.equals(getSelectedDirectoryHolder());
+                        }
+
+                        public boolean accept(File file) {
+                            return _mtsfdh.accept(file);
+                        }
+
+                        public void onFiles(List<File> files) {
+                            _mtsfdh.addToCache(files);
+                            LibraryMediator.instance().addFilesToLibraryTable(files);
+                        }
+                    });
+
+                    // queued after the last batch, from now on the library watcher keeps the cache live
+                    GUIMediator.safeInvokeLater(new Runnable() {
+                        public void run() {
+                            _mtsfdh.setCacheLoaded(complete);
+                        }
+                    });
                 } else {
                     GUIMediator.safeInvokeLater(new Runnable() {
                         public void run() {
@@ -431,55 +457,6 @@ public class LibraryExplorer extends AbstractLibraryListPanel {
                 e.printStackTrace();
             }
         }
-
-        private void search(File file, Set<File> ignore, Set<File> exludedSubFolders) {
-
-            if (file == null || !file.isDirectory() || !file.exists()) {
-                return;
-            }
-
-            //avoids npe if for some reason the directory holder is not selected.
-            if (getSelectedDirectoryHolder() == null) {
-                selectMediaTypeSavedFilesDirectoryHolderbyType(_mtsfdh.getMediaType());
-            }
-
-            List<File> directories = new ArrayList<File>();
-            final List<File> files = new ArrayList<File>();
-
-            for (File child : FileUtils.listFiles(file)) {// file.listFiles()) {
-
-                DirectoryHolder directoryHolder = getSelectedDirectoryHolder();
-                if (!_mtsfdh.equals(directoryHolder)) {
-                    return;
-                }
-
-                if (ignore.contains(child)) {
-                    continue;
-                }
-
-                if (child.isHidden()) {
-                    continue;
-                }
-
-                if (child.isDirectory() && !exludedSubFolders.contains(child)) {
-                    directories.add(child);
-                } else if (_mtsfdh.accept(child)) {
-                    files.add(child);
-                }
-            }
-            _mtsfdh.addToCache(files);
-            Runnable r = new Runnable() {
-                public void run() {
-                    LibraryMediator.instance().addFilesToLibraryTable(files);
-                }
-            };
-
-            GUIMediator.safeInvokeLater(r);
-
-            for (File directory : directories) {
-                search(directory, ignore, exludedSubFolders);
-            }
-        }
     }
 
     public void selectMediaTypeSavedFilesDirectoryHolderbyType(MediaType mediaType) {
@@ -639,11 +616,84 @@ public class LibraryExplorer extends AbstractLibraryListPanel {
         return holders;
     }
 
+    /**
+     * Applies the file system changes reported by the library watcher to the
+     * directory holder caches and to the files table if it shows an affected holder.
+     * Must be called from the event dispatch thread.
+     */
+    public void applyFileDeltas(List<File> created, List<File> deleted) {
+        DirectoryHolder selected = getSelectedDirectoryHolder();
+        boolean filtering = LibraryMediator.instance().getLibrarySearch().getSearchField().getText().length() > 0;
+        File musicFolder = LibrarySettings.USER_MUSIC_FOLDER.getValue();
+
+        Enumeration<?> e = root.depthFirstEnumeration();
+        while (e.hasMoreElements()) {
+            LibraryNode node = (LibraryNode) e.nextElement();
+            if (!(node instanceof DirectoryHolderNode)) {
+                continue;
+            }
+
+            DirectoryHolder holder = ((DirectoryHolderNode) node).getDirectoryHolder();
+            boolean showing = holder.equals(selected);
+            List<File> added = new ArrayList<File>();
+            List<File> removed = new ArrayList<File>();
+
+            if (holder instanceof MediaTypeSavedFilesDirectoryHolder) {
+                MediaTypeSavedFilesDirectoryHolder mtsfdh = (MediaTypeSavedFilesDirectoryHolder) holder;
+                boolean audio = mtsfdh.getMediaType().equals(MediaType.getAudioMediaType());
+                for (File file : deleted) {
+                    removed.addAll(mtsfdh.fileDeleted(file));
+                }
+                for (File file : created) {
+                    if ((audio || !FileUtils.isAncestor(musicFolder, file)) && mtsfdh.fileCreated(file)) {
+                        added.add(file);
+                    }
+                }
+            } else if (holder instanceof SavedFilesDirectoryHolder) {
+                SavedFilesDirectoryHolder sfdh = (SavedFilesDirectoryHolder) holder;
+                for (File file : deleted) {
+                    removed.addAll(sfdh.fileDeleted(file));
+                }
+                for (File file : created) {
+                    if (sfdh.fileCreated(file)) {
+                        added.add(file);
+                    }
+                }
+            }
+
+            if (showing) {
+                for (File file : removed) {
+                    LibraryFilesTableMediator.instance().remove(file);
+                }
+                if (!filtering) {
+                    for (File file : added) {
+                        LibraryFilesTableMediator.instance().add(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Refreshes the current selection after files were added or removed. The
+     * caches are only cleared when the library watcher can't keep them live.
+     */
+    public void refreshDirectoryHolderCaches() {
+        if (LibraryWatcher.instance().isWatching()) {
+            refreshSelection();
+        } else {
+            clearDirectoryHolderCaches();
+        }
+    }
+
     /**
      * Cleans the caches of all directory holders and refreshes the current selection.
      */
     public void clearDirectoryHolderCaches() {
         try {
+            LibraryFileIndex.instance().requestSync();
+            LibraryWatcher.instance().requestRegister();
+
             Enumeration<?> e = root.depthFirstEnumeration();
             while (e.hasMoreElements()) {
                 LibraryNode node = (LibraryNode) e.nextElement();
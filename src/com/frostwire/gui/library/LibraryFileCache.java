@@ -0,0 +1,98 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.limegroup.gnutella.settings.LibrarySettings;
+
+/**
+ * Helpers for the file caches of the directory holders, kept live by the
+ * library watcher. The caches are sorted by path, so the files under a
+ * deleted directory are a range of the cache instead of a scan of it.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class LibraryFileCache {
+
+    private LibraryFileCache() {
+    }
+
+    public static NavigableSet<File> newCache() {
+        return new ConcurrentSkipListSet<File>();
+    }
+
+    /**
+     * Removes the file, or every file under it if it was a directory, and
+     * returns the files that were in the cache.
+     */
+    public static List<File> remove(NavigableSet<File> cache, File file) {
+        List<File> removed = new ArrayList<File>();
+
+        if (cache.remove(file)) {
+            removed.add(file);
+            return removed;
+        }
+
+        // paths under the directory sort between dir + separator and dir + (separator + 1)
+        String path = file.getAbsolutePath();
+        File from = new File(path + File.separatorChar + '\u0000');
+        File to = new File(path + (char) (File.separatorChar + 1));
+
+        NavigableSet<File> under = cache.subSet(from, true, to, false);
+        String prefix = path + File.separatorChar;
+        for (File f : under) {
+            // the range is by the platform order of paths, the prefix tells for sure
+            if (f.getAbsolutePath().startsWith(prefix)) {
+                removed.add(f);
+            }
+        }
+        cache.removeAll(removed);
+
+        return removed;
+    }
+
+    /**
+     * Returns true if any folder between the file and the first of the roots
+     * above it is excluded from the library, as the crawls of the roots skip
+     * the excluded folders and everything under them.
+     */
+    public static boolean isExcluded(File file, Collection<File> roots) {
+        Set<File> excluded = LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue();
+
+        for (File dir = file.getParentFile(); dir != null; dir = dir.getParentFile()) {
+            if (excluded.contains(dir)) {
+                return true;
+            }
+            if (roots.contains(dir)) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,655 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.CommonUtils;
+import org.limewire.util.FileUtils;
+import org.limewire.util.StringUtils;
+
+import com.frostwire.logging.Logger;
+import com.limegroup.gnutella.settings.LibrarySettings;
+
+/**
+ * Persistent inverted index of the normalized path tokens of every file under
+ * the library folders.
+ * <p>
+ * Directory path tokens point to directories and file name tokens point to
+ * files, so a query is answered with in-memory lookups instead of walking the
+ * library folders. The index is kept in sync incrementally: only directories
+ * whose modification time changed since the last pass are listed again.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryFileIndex {
+
+    private static final Logger LOG = Logger.getLogger(LibraryFileIndex.class);
+
+    private static final int VERSION = 1;
+
+    private static final File INDEX_FILE = new File(CommonUtils.getUserSettingsDir(), "library_index.dat");
+
+    private static final Pattern COMBINING_DIACRITICAL_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final Pattern TOKEN_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final LibraryFileIndex INSTANCE = new LibraryFileIndex();
+
+    private final ExecutorService executor;
+    private final AtomicBoolean syncPending;
+
+    // directory id -> directory, null once removed
+    private final List<Dir> dirs;
+    private final Map<String, Integer> dirIds;
+
+    // file id -> file name, null once removed
+    private final List<String> fileNames;
+    private final IntList fileDirs;
+
+    private final Map<String, IntList> dirPostings;
+    private final Map<String, IntList> filePostings;
+
+    private int liveFiles;
+    private boolean ready;
+    private boolean dirty;
+
+    public static LibraryFileIndex instance() {
+        return INSTANCE;
+    }
+
+    private LibraryFileIndex() {
+        executor = ExecutorsHelper.newProcessingQueue("LibraryFileIndex");
+        syncPending = new AtomicBoolean();
+
+        dirs = new ArrayList<Dir>();
+        dirIds = new HashMap<String, Integer>();
+        fileNames = new ArrayList<String>();
+        fileDirs = new IntList();
+        dirPostings = new HashMap<String, IntList>();
+        filePostings = new HashMap<String, IntList>();
+    }
+
+    /**
+     * Loads the index from disk and schedules the first synchronization
+     * with the library folders.
+     */
+    public void start() {
+        executor.execute(new Runnable() {
+            public void run() {
+                load();
+            }
+        });
+        requestSync();
+    }
+
+    /**
+     * Schedules a synchronization pass, calls made while one is already
+     * pending are coalesced.
+     */
+    public void requestSync() {
+        if (syncPending.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    syncPending.set(false);
+                    try {
+                        synchronize();
+                    } catch (Throwable e) {
+                        LOG.error("Error synchronizing the library file index", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The index can answer queries once it was loaded from disk or
+     * the first synchronization finished.
+     */
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns true if the index holds the contents of the given root.
+     */
+    public synchronized boolean covers(File root) {
+        return ready && (dirIds.containsKey(root.getAbsolutePath()) || !root.isDirectory());
+    }
+
+    /**
+     * Adds a file reported by the library watcher. Files in directories
+     * unknown to the index are picked up by the next synchronization.
+     */
+    public synchronized void fileCreated(File file) {
+        if (LibraryFileCache.isExcluded(file, LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue())) {
+            return;
+        }
+
+        String parent = file.getParent();
+        Integer dirId = parent != null ? dirIds.get(parent) : null;
+        if (dirId == null) {
+            String grandParent = parent != null ? new File(parent).getParent() : null;
+            if (grandParent == null || !dirIds.containsKey(grandParent)) {
+                return;
+            }
+            // a zero modification time forces the next synchronization to list it
+            dirId = addDir(parent);
+        }
+
+        if (!dirs.get(dirId).files.containsKey(file.getName())) {
+            addFile(dirId, file.getName());
+            dirty = true;
+        }
+    }
+
+    /**
+     * Removes a file or a whole directory reported by the library watcher.
+     */
+    public synchronized void fileDeleted(File file) {
+        String path = file.getAbsolutePath();
+
+        if (dirIds.containsKey(path)) {
+            String prefix = path + File.separator;
+            for (int i = 0; i < dirs.size(); i++) {
+                Dir dir = dirs.get(i);
+                if (dir != null && (dir.path.equals(path) || dir.path.startsWith(prefix))) {
+                    removeDir(i);
+                }
+            }
+            dirty = true;
+        } else {
+            Integer dirId = dirIds.get(file.getParent());
+            if (dirId != null) {
+                Integer fileId = dirs.get(dirId).files.remove(file.getName());
+                if (fileId != null) {
+                    removeFile(fileId);
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the files under the given roots whose normalized absolute path
+     * contains every token of the query.
+     */
+    public synchronized List<File> search(String query, Collection<File> roots) {
+        List<File> results = new ArrayList<File>();
+
+        BitSet allowedDirs = new BitSet(dirs.size());
+        List<String> prefixes = new ArrayList<String>(roots.size());
+        for (File root : roots) {
+            String path = root.getAbsolutePath();
+            prefixes.add(path.endsWith(File.separator) ? path : path + File.separator);
+        }
+        for (int i = 0; i < dirs.size(); i++) {
+            Dir dir = dirs.get(i);
+            if (dir != null && isUnder(dir.path, prefixes)) {
+                allowedDirs.set(i);
+            }
+        }
+
+        // every part must be found either in the directory path or in the file name
+        List<BitSet[]> conditions = new ArrayList<BitSet[]>();
+        // tokens with separators are verified against the whole path
+        List<String> verifyTokens = new ArrayList<String>();
+
+        for (String token : StringUtils.removeDoubleSpaces(normalize(query)).split(" ")) {
+            String[] parts = tokenize(token);
+            if (parts.length != 1 || !parts[0].equals(token)) {
+                verifyTokens.add(token);
+            }
+            for (String part : parts) {
+                conditions.add(new BitSet[] { lookup(dirPostings, part), lookup(filePostings, part) });
+            }
+        }
+
+        for (int id = 0; id < fileNames.size(); id++) {
+            String name = fileNames.get(id);
+            if (name == null) {
+                continue;
+            }
+
+            int dirId = fileDirs.get(id);
+            if (!allowedDirs.get(dirId)) {
+                continue;
+            }
+
+            boolean match = true;
+            for (BitSet[] condition : conditions) {
+                if (!condition[0].get(dirId) && !condition[1].get(id)) {
+                    match = false;
+                    break;
+                }
+            }
+
+            if (match) {
+                File file = new File(dirs.get(dirId).path, name);
+
+                if (!verifyTokens.isEmpty()) {
+                    String path = normalize(file.getAbsolutePath());
+                    for (String token : verifyTokens) {
+                        if (!path.contains(token)) {
+                            match = false;
+                            break;
+                        }
+                    }
+                }
+
+                if (match) {
+                    results.add(file);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Removes diacritical marks and lowercases the given string, this is the
+     * form in which paths are compared against search queries.
+     */
+    public static String normalize(String str) {
+        String norm = Normalizer.normalize(str, Normalizer.Form.NFKD);
+        norm = COMBINING_DIACRITICAL_MARKS.matcher(norm).replaceAll("");
+        return norm.toLowerCase(Locale.US);
+    }
+
+    private static String[] tokenize(String normalized) {
+        String[] tokens = TOKEN_SEPARATORS.split(normalized);
+        int n = 0;
+        for (String token : tokens) {
+            if (token.length() > 0) {
+                tokens[n++] = token;
+            }
+        }
+        String[] result = new String[n];
+        System.arraycopy(tokens, 0, result, 0, n);
+        return result;
+    }
+
+    private static boolean isUnder(String path, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (path.startsWith(prefix) || prefix.equals(path + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BitSet lookup(Map<String, IntList> postings, String part) {
+        BitSet ids = new BitSet();
+        for (Entry<String, IntList> e : postings.entrySet()) {
+            if (e.getKey().contains(part)) {
+                IntList list = e.getValue();
+                for (int i = 0; i < list.size(); i++) {
+                    ids.set(list.get(i));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void synchronize() {
+        Set<File> excluded = LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue();
+        Set<File> roots = new HashSet<File>(LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue());
+        roots.removeAll(excluded);
+
+        Map<String, List<String>> knownChildren = knownChildren();
+        Set<String> visited = new HashSet<String>();
+        Deque<File> pending = new ArrayDeque<File>();
+
+        for (File root : roots) {
+            if (root != null) {
+                pending.push(root);
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            File dir = pending.pop();
+            String path = dir.getAbsolutePath();
+
+            // not visited, so the purge drops it and everything under it
+            if (excluded.contains(dir)) {
+                continue;
+            }
+
+            long lastModified = dir.lastModified();
+            if (lastModified == 0 || visited.contains(path)) {
+                continue;
+            }
+            visited.add(path);
+
+            if (lastModified == lastModified(path)) {
+                List<String> children = knownChildren.get(path);
+                if (children != null) {
+                    for (String child : children) {
+                        pending.push(new File(child));
+                    }
+                }
+                continue;
+            }
+
+            List<File> files = new ArrayList<File>();
+            List<Path> directories = new ArrayList<Path>();
+            LibraryCrawler.list(dir.toPath(), files, directories);
+
+            for (Path directory : directories) {
+                pending.push(directory.toFile());
+            }
+
+            List<String> names = new ArrayList<String>(files.size());
+            for (File file : files) {
+                names.add(file.getName());
+            }
+
+            update(path, lastModified, names);
+        }
+
+        purge(visited);
+
+        boolean save;
+        synchronized (this) {
+            ready = true;
+            save = dirty;
+        }
+        if (save) {
+            save();
+        }
+    }
+
+    private synchronized Map<String, List<String>> knownChildren() {
+        Map<String, List<String>> children = new HashMap<String, List<String>>();
+        for (Dir dir : dirs) {
+            if (dir != null) {
+                String parent = new File(dir.path).getParent();
+                if (parent != null) {
+                    List<String> list = children.get(parent);
+                    if (list == null) {
+                        list = new ArrayList<String>();
+                        children.put(parent, list);
+                    }
+                    list.add(dir.path);
+                }
+            }
+        }
+        return children;
+    }
+
+    private synchronized long lastModified(String path) {
+        Integer id = dirIds.get(path);
+        return id != null ? dirs.get(id).lastModified : -1;
+    }
+
+    private synchronized void update(String path, long lastModified, List<String> names) {
+        Integer dirId = dirIds.get(path);
+        Dir dir;
+        if (dirId == null) {
+            dirId = addDir(path);
+        }
+        dir = dirs.get(dirId);
+        dir.lastModified = lastModified;
+
+        Set<String> current = new HashSet<String>(names);
+        Iterator<Entry<String, Integer>> it = dir.files.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Integer> e = it.next();
+            if (!current.contains(e.getKey())) {
+                removeFile(e.getValue());
+                it.remove();
+            }
+        }
+
+        for (String name : names) {
+            if (!dir.files.containsKey(name)) {
+                addFile(dirId, name);
+            }
+        }
+
+        dirty = true;
+    }
+
+    private synchronized void purge(Set<String> visited) {
+        for (int i = 0; i < dirs.size(); i++) {
+            Dir dir = dirs.get(i);
+            if (dir != null && !visited.contains(dir.path)) {
+                removeDir(i);
+                dirty = true;
+            }
+        }
+
+        // postings keep the ids of removed entries, rebuild once they dominate
+        if (fileNames.size() - liveFiles > liveFiles) {
+            rebuild();
+        }
+    }
+
+    private int addDir(String path) {
+        int id = dirs.size();
+        dirs.add(new Dir(path));
+        dirIds.put(path, id);
+        for (String token : tokenize(normalize(path))) {
+            post(dirPostings, token, id);
+        }
+        return id;
+    }
+
+    private void removeDir(int id) {
+        Dir dir = dirs.get(id);
+        for (Integer fileId : dir.files.values()) {
+            removeFile(fileId);
+        }
+        dirs.set(id, null);
+        dirIds.remove(dir.path);
+    }
+
+    private void addFile(int dirId, String name) {
+        int id = fileNames.size();
+        fileNames.add(name);
+        fileDirs.add(dirId);
+        dirs.get(dirId).files.put(name, id);
+        for (String token : tokenize(normalize(name))) {
+            post(filePostings, token, id);
+        }
+        liveFiles++;
+    }
+
+    private void removeFile(int id) {
+        fileNames.set(id, null);
+        liveFiles--;
+    }
+
+    private static void post(Map<String, IntList> postings, String token, int id) {
+        IntList list = postings.get(token);
+        if (list == null) {
+            list = new IntList();
+            postings.put(token, list);
+        }
+        list.add(id);
+    }
+
+    private void clear() {
+        dirs.clear();
+        dirIds.clear();
+        fileNames.clear();
+        fileDirs.clear();
+        dirPostings.clear();
+        filePostings.clear();
+        liveFiles = 0;
+    }
+
+    private void rebuild() {
+        List<Dir> live = new ArrayList<Dir>(dirIds.size());
+        for (Dir dir : dirs) {
+            if (dir != null) {
+                live.add(dir);
+            }
+        }
+
+        clear();
+
+        for (Dir dir : live) {
+            int dirId = addDir(dir.path);
+            dirs.get(dirId).lastModified = dir.lastModified;
+            for (String name : dir.files.keySet()) {
+                addFile(dirId, name);
+            }
+        }
+    }
+
+    private void load() {
+        if (!INDEX_FILE.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(INDEX_FILE)));
+
+            if (in.readInt() != VERSION) {
+                return;
+            }
+
+            synchronized (this) {
+                clear();
+                int dirCount = in.readInt();
+                for (int i = 0; i < dirCount; i++) {
+                    int dirId = addDir(in.readUTF());
+                    dirs.get(dirId).lastModified = in.readLong();
+                    int fileCount = in.readInt();
+                    for (int j = 0; j < fileCount; j++) {
+                        addFile(dirId, in.readUTF());
+                    }
+                }
+                ready = true;
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error loading the library file index, it will be rebuilt", e);
+            synchronized (this) {
+                clear();
+            }
+        } finally {
+            FileUtils.close(in);
+        }
+    }
+
+    private void save() {
+        File temp = new File(INDEX_FILE.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            synchronized (this) {
+                out.writeInt(VERSION);
+                out.writeInt(dirIds.size());
+                for (Dir dir : dirs) {
+                    if (dir != null) {
+                        out.writeUTF(dir.path);
+                        out.writeLong(dir.lastModified);
+                        out.writeInt(dir.files.size());
+                        for (String name : dir.files.keySet()) {
+                            out.writeUTF(name);
+                        }
+                    }
+                }
+                dirty = false;
+            }
+
+            out.close();
+            out = null;
+
+            INDEX_FILE.delete();
+            if (!temp.renameTo(INDEX_FILE)) {
+                throw new IOException("Unable to rename " + temp + " to " + INDEX_FILE);
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error saving the library file index", e);
+        } finally {
+            FileUtils.close(out);
+        }
+    }
+
+    private static final class Dir {
+
+        private final String path;
+        private final Map<String, Integer> files;
+        private long lastModified;
+
+        public Dir(String path) {
+            this.path = path;
+            this.files = new HashMap<String, Integer>();
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] data = new int[4];
+        private int size;
+
+        public void add(int value) {
+            if (size == data.length) {
+                int[] newData = new int[size * 2];
+                System.arraycopy(data, 0, newData, 0, size);
+                data = newData;
+            }
+            data[size++] = value;
+        }
+
+        public int get(int index) {
+            return data[index];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            data = new int[4];
+            size = 0;
+        }
+    }
+}
@@ -133,6 +133,11 @@ public final class LibraryFilesTableDataLine extends AbstractLibraryTableDataLin
 
     private boolean shared = false;
 
+    /**
+     * Whether the line is of a file, checked once on initialize.
+     */
+    private boolean _isFile = false;
+
     public LibraryFilesTableDataLine(LibraryFilesTableModel ltm) {
         super();
         _model = ltm;
@@ -185,7 +190,8 @@ public final class LibraryFilesTableDataLine extends AbstractLibraryTableDataLin
 
         // only load file sizes, do nothing for directories
         // directories implicitly set SizeHolder to null and display nothing
-        if (initializer.isFile()) {
+        _isFile = initializer.isFile();
+        if (_isFile) {
             _size = initializer.length();
             _sizeHolder = new SizeHolder(_size);
             shared = Librarian.instance().isFileShared(initializer.getAbsolutePath());
@@ -202,45 +208,77 @@ public final class LibraryFilesTableDataLine extends AbstractLibraryTableDataLin
         this.nameCell = new NameHolder(_name);
         
         if (initializer != null && 
-            initializer.isFile() && 
+            _isFile && 
             FileUtils.getFileExtension(initializer) != null && 
             FileUtils.getFileExtension(initializer).endsWith("torrent")) {
             
-            TorrentInfoManipulator infoManipulator = new TorrentInfoManipulator(initializer);
-            
-            @SuppressWarnings("unchecked")
-            Map<String, Object> additionalInfoProperties = infoManipulator.getAdditionalInfoProperties();
-            
-            @SuppressWarnings("unchecked")
-            Map<String,Map<String,Object>> licenseMap = (additionalInfoProperties != null) ? (Map<String,Map<String,Object>>) additionalInfoProperties.get("license") : null;
-
-            @SuppressWarnings("unchecked")
-            Map<String,Map<String,Object>> paymentOptionsMap = (additionalInfoProperties != null) ? (Map<String,Map<String,Object>>) additionalInfoProperties.get("paymentOptions") : null;
-            
-            boolean hasLicense = licenseMap != null && !licenseMap.isEmpty();
-            boolean hasPaymentOptions = paymentOptionsMap != null && !paymentOptionsMap.isEmpty();
-            
-            if (hasLicense) {
-                 System.out.println(initializer);
-                 CopyrightLicenseBroker copyrightLicenseBroker = new CopyrightLicenseBroker(licenseMap);
-                 if (copyrightLicenseBroker.license != null && copyrightLicenseBroker.license.getName() != null) {
-                     license = new CopyrightLicenseBroker(licenseMap).license.getName();
-                 } else {
-                     license = "";
-                 }
-            } else {
-                license = "";
-            }
-            
-            if (hasPaymentOptions) {
-                paymentOptions = new PaymentOptions(paymentOptionsMap);
-            } else {
-                paymentOptions = new PaymentOptions(null, null, null, null);
-            }
+            license = "";
+            paymentOptions = new PaymentOptions(null, null, null, null);
             paymentOptions.setItemName(_name);
+
+            loadTorrentInfo();
         }
     }
 
+    /**
+     * Parses the torrent in the background and fills the license and
+     * payment options columns once it's done, so adding rows never waits
+     * on torrent parsing.
+     */
+    private void loadTorrentInfo() {
+        final File torrent = initializer;
+        final String itemName = _name;
+
+        BackgroundExecutorService.schedule(new Runnable() {
+            public void run() {
+                try {
+                    TorrentInfoManipulator infoManipulator = new TorrentInfoManipulator(torrent);
+                    
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> additionalInfoProperties = infoManipulator.getAdditionalInfoProperties();
+                    
+                    @SuppressWarnings("unchecked")
+                    Map<String,Map<String,Object>> licenseMap = (additionalInfoProperties != null) ? (Map<String,Map<String,Object>>) additionalInfoProperties.get("license") : null;
+
+                    @SuppressWarnings("unchecked")
+                    Map<String,Map<String,Object>> paymentOptionsMap = (additionalInfoProperties != null) ? (Map<String,Map<String,Object>>) additionalInfoProperties.get("paymentOptions") : null;
+                    
+                    boolean hasLicense = licenseMap != null && !licenseMap.isEmpty();
+                    boolean hasPaymentOptions = paymentOptionsMap != null && !paymentOptionsMap.isEmpty();
+                    
+                    String licenseName = "";
+                    if (hasLicense) {
+                         CopyrightLicenseBroker copyrightLicenseBroker = new CopyrightLicenseBroker(licenseMap);
+                         if (copyrightLicenseBroker.license != null && copyrightLicenseBroker.license.getName() != null) {
+                             licenseName = copyrightLicenseBroker.license.getName();
+                         }
+                    }
+                    
+                    final String newLicense = licenseName;
+                    final PaymentOptions newPaymentOptions = hasPaymentOptions ? new PaymentOptions(paymentOptionsMap) : new PaymentOptions(null, null, null, null);
+                    newPaymentOptions.setItemName(itemName);
+
+                    GUIMediator.safeInvokeLater(new Runnable() {
+                        public void run() {
+                            if (torrent != initializer) {
+                                return;
+                            }
+                            license = newLicense;
+                            paymentOptions = newPaymentOptions;
+
+                            int row = _model.getRow(torrent);
+                            if (row != -1) {
+                                _model.fireTableRowsUpdated(row, row);
+                            }
+                        }
+                    });
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
     /**
      * Returns the file of this data line.
      */
@@ -377,4 +415,16 @@ public final class LibraryFilesTableDataLine extends AbstractLibraryTableDataLin
     public void setShared(boolean share) {
         shared = share;
     }
+
+    /**
+     * The shared state is unknown until the Librarian loads its snapshot,
+     * it refreshes the table when it does. Only an in memory lookup, this
+     * runs for every line on each refresh.
+     */
+    @Override
+    public void update() {
+        if (_isFile) {
+            shared = Librarian.instance().isFileShared(initializer.getAbsolutePath());
+        }
+    }
 }
\ No newline at end of file
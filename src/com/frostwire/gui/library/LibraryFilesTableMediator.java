@@ -1239,6 +1239,7 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
         @Override
         public void actionPerformed(ActionEvent e) {
             int[] rows = TABLE.getSelectedRows();
+            List<String> filePaths = new ArrayList<String>(rows.length);
             for (int i = 0; i < rows.length; i++) {
                 int index = rows[i]; // current index to add
                 File file = DATA_MODEL.getFile(index);
@@ -1248,12 +1249,12 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
                     //we nest this logic for clarity.
                     if (share) {
                         if (!Librarian.instance().isFileShared(file.getAbsolutePath())) {
-                            actualShare(dataLine, file);
+                            actualShare(dataLine, file, filePaths);
                         }
                     }
                     //this happens only when.
                     else {
-                        actualShare(dataLine, file);
+                        actualShare(dataLine, file, filePaths);
                     }
 
                 } catch (Exception ex) {
@@ -1261,13 +1262,16 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
                 }
             }
 
+            // in a single batch, so the shared files are saved in a few transactions
+            Librarian.instance().shareFiles(filePaths, share, false);
+
             LibraryMediator.instance().getDeviceDiscoveryClerk().updateLocalPeer();
             UXStats.instance().log(share ? UXAction.WIFI_SHARING_SHARED : UXAction.WIFI_SHARING_UNSHARED);
         }
 
-        private void actualShare(LibraryFilesTableDataLine dataLine, File file) {
+        private void actualShare(LibraryFilesTableDataLine dataLine, File file, List<String> filePaths) {
             dataLine.setShared(share);
-            Librarian.instance().shareFile(file.getAbsolutePath(), share, false);
+            filePaths.add(file.getAbsolutePath());
         }
     }
 
@@ -19,6 +19,7 @@
 package com.frostwire.gui.library;
 
 import java.io.File;
+import java.util.List;
 
 import javax.swing.JTable;
 
@@ -84,6 +85,14 @@ final class LibraryFilesTableModel extends HashBasedDataLineModel<LibraryFilesTa
         return addSorted(o);//, getRowCount());
     }
 
+    /**
+     * Bulk adds are sorted too, as single ones.
+     */
+    @Override
+    public int addAll(List<File> objects) {
+        return addAllSorted(objects);
+    }
+
     /**
      * Override the dataline add so we can re-initialize files
      * to include the FileDesc.  Necessary for changing pending status
@@ -132,6 +132,9 @@ public class LibraryMediator {
         MAIN_PANEL.add(splitPane);
         
         clerk = new DeviceDiscoveryClerk();
+
+        LibraryFileIndex.instance().start();
+        LibraryWatcher.instance().start();
     }
 
     public DeviceDiscoveryClerk getDeviceDiscoveryClerk() {
@@ -148,7 +151,7 @@ public class LibraryMediator {
 
     public static Library getLibrary() {
         if (LIBRARY == null) {
-            LIBRARY = new Library(LibrarySettings.LIBRARY_DATABASE);
+            LIBRARY = new Library(LibrarySettings.LIBRARY_DATABASE, LibrarySettings.LIBRARY_DATABASE_MVCC.getValue());
         }
         return LIBRARY;
     }
@@ -289,24 +292,22 @@ public class LibraryMediator {
         getLibrarySearch().clear();
     }
 
+    public void refreshLibraryFilesTable() {
+        LibraryFilesTableMediator.instance().refresh();
+    }
+
     public void addFilesToLibraryTable(List<File> files) {
-        for (File file : files) {
-            LibraryFilesTableMediator.instance().add(file);
-        }
+        LibraryFilesTableMediator.instance().addAll(files);
         getLibrarySearch().addResults(files.size());
     }
 
     public void addItemsToLibraryTable(List<PlaylistItem> items) {
-        for (PlaylistItem item : items) {
-            LibraryPlaylistsTableMediator.instance().add(item);
-        }
+        LibraryPlaylistsTableMediator.instance().addAll(items);
         getLibrarySearch().addResults(items.size());
     }
 
     public void addInternetRadioStationsToLibraryTable(List<InternetRadioStation> items) {
-        for (InternetRadioStation item : items) {
-            LibraryInternetRadioTableMediator.instance().add(item);
-        }
+        LibraryInternetRadioTableMediator.instance().addAll(items);
         getLibrarySearch().addResults(items.size());
     }
 
@@ -436,7 +437,9 @@ public class LibraryMediator {
     }
 
     public void scan(int hashCode, File location) {
-        idScanned.add(hashCode);
+        if (idScanned.add(hashCode)) {
+            LibraryFileIndex.instance().requestSync();
+        }
 
         if (location.isDirectory()) {
             for (File file : location.listFiles()) {
@@ -312,9 +312,9 @@ public class LibraryPlaylists extends AbstractLibraryListPanel {
         Playlist playlist = cell.getPlaylist();
 
         if (playlist != null) {
-            playlist.refresh();
+            playlist.invalidate();
             LibraryMediator.instance().updateTableItems(playlist);
-            String status = LibraryUtils.getPlaylistDurationInDDHHMMSS(playlist) + ", " + playlist.getItems().size() + " " + I18n.tr("tracks");
+            String status = LibraryUtils.getPlaylistDurationInDDHHMMSS(playlist) + ", " + playlist.getItemCount() + " " + I18n.tr("tracks");
             LibraryMediator.instance().getLibrarySearch().setStatus(status);
         }
 
@@ -855,7 +855,7 @@ public class LibraryPlaylists extends AbstractLibraryListPanel {
         }
 
         private void copyPlaylistFilesToFolder(Playlist playlist) {
-            if (playlist == null || playlist.getItems().isEmpty()) {
+            if (playlist == null || playlist.getItemCount() == 0) {
                 return;
             }
 
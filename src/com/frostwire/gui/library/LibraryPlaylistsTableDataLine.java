@@ -165,7 +165,7 @@ public final class LibraryPlaylistsTableDataLine extends AbstractLibraryTableDat
         
         switch (idx) {
         case SORT_INDEX_IDX:
-            return new PlaylistItemIntProperty(this, initializer.getSortIndex(), playing, exists);
+            return new PlaylistItemIntProperty(this, initializer.getPosition(), playing, exists);
         case ACTIONS_IDX:
             actionsHolder.setPlaying(playing);
             return actionsHolder;
@@ -33,6 +33,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -48,6 +49,7 @@ import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableColumn;
 import javax.swing.table.TableColumnModel;
 
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.OSUtils;
 
 import com.frostwire.alexandria.Playlist;
@@ -87,8 +89,16 @@ import com.limegroup.gnutella.util.QueryUtils;
  */
 final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<LibraryPlaylistsTableModel, LibraryPlaylistsTableDataLine, PlaylistItem> {
 
+    // rows are added in pages, each one in a single event
+    private static final int PAGE_SIZE = 500;
+
+    private static final ExecutorService LOADER = ExecutorsHelper.newProcessingQueue("LibraryPlaylistsLoader");
+
     private Playlist currentPlaylist;
 
+    // changed by every updateTableItems, only accessed in the event thread
+    private int loadGeneration;
+
     /**
      * Variables so the PopupMenu & ButtonRow can have the same listeners
      */
@@ -382,24 +392,61 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
      * Perform lookups to remove any store files from the shared folder
      * view and to only display store files in the store view
      */
-    void updateTableItems(Playlist playlist) {
+    void updateTableItems(final Playlist playlist) {
         if (playlist == null) {
             return;
         }
 
         currentPlaylist = playlist;
-        List<PlaylistItem> items = currentPlaylist.getItems();
+        final int generation = ++loadGeneration;
 
         clearTable();
-        for (final PlaylistItem item : items) {
-            GUIMediator.safeInvokeLater(new Runnable() {
-                @Override
+
+        if (playlist.isLoaded()) {
+            addPages(playlist, 0, generation);
+            return;
+        }
+
+        // the first page is read alone, so it's shown without waiting for the whole playlist
+        List<PlaylistItem> firstPage = playlist.getItems(0, PAGE_SIZE);
+        boolean complete = firstPage.size() < PAGE_SIZE;
+        addPage(firstPage, generation, complete);
+
+        if (!complete) {
+            LOADER.execute(new Runnable() {
                 public void run() {
-                    addUnsorted(item);
+                    // loads the rest, reusing the items of the first page
+                    playlist.getItems();
+                    addPages(playlist, PAGE_SIZE, generation);
                 }
             });
         }
-        forceResort();
+    }
+
+    private void addPages(Playlist playlist, int offset, int generation) {
+        List<PlaylistItem> page;
+        do {
+            page = playlist.getItems(offset, PAGE_SIZE);
+            addPage(page, generation, page.size() < PAGE_SIZE);
+            offset += PAGE_SIZE;
+        } while (page.size() == PAGE_SIZE);
+    }
+
+    private void addPage(final List<PlaylistItem> page, final int generation, final boolean last) {
+        GUIMediator.safeInvokeLater(new Runnable() {
+            @Override
+            public void run() {
+                // another playlist was selected meanwhile
+                if (generation != loadGeneration) {
+                    return;
+                }
+                // one table event per page
+                addAll(page);
+                if (last) {
+                    forceResort();
+                }
+            }
+        });
     }
 
     /**
@@ -489,9 +536,17 @@ final class LibraryPlaylistsTableMediator extends AbstractLibraryTableMediator<L
 
         } else {
 
+            List<PlaylistItem> playlistItems = new ArrayList<PlaylistItem>(lines.length);
             for (LibraryPlaylistsTableDataLine line : lines) {
-                PlaylistItem playlistItem = line.getInitializeObject();
-                playlistItem.delete();
+                playlistItems.add(line.getInitializeObject());
+            }
+
+            if (currentPlaylist != null) {
+                currentPlaylist.edit().remove(playlistItems).commit();
+            } else {
+                for (PlaylistItem playlistItem : playlistItems) {
+                    playlistItem.delete();
+                }
             }
 
             LibraryMediator.instance().getLibraryPlaylists().reselectPlaylist();
@@ -165,7 +165,7 @@ class LibraryPlaylistsTransferHandler extends TransferHandler {
     @Override
     protected Transferable createTransferable(JComponent c) {
         LibraryPlaylistsListCell cell = (LibraryPlaylistsListCell) list.getSelectedValue();
-        if (cell != null && cell.getPlaylist() != null && cell.getPlaylist().getItems().size() > 0) {
+        if (cell != null && cell.getPlaylist() != null && cell.getPlaylist().getItemCount() > 0) {
             return new LibraryPlaylistsTableTransferable(cell.getPlaylist().getItems());
         } else {
             return null;
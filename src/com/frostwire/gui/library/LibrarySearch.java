@@ -27,11 +27,10 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.io.File;
 import java.io.FileFilter;
-import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 
 import javax.swing.AbstractAction;
@@ -40,14 +39,13 @@ import javax.swing.BorderFactory;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
-import org.limewire.util.FileUtils;
 import org.limewire.util.StringUtils;
 
 import com.frostwire.alexandria.InternetRadioStation;
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
 import com.frostwire.alexandria.db.InternetRadioStationDB;
-import com.frostwire.alexandria.db.PlaylistItemDB;
+import com.frostwire.alexandria.db.LibraryDatabase;
 import com.frostwire.gui.bittorrent.TorrentUtil;
 import com.frostwire.gui.searchfield.SearchField;
 import com.frostwire.gui.searchfield.JXSearchField.SearchMode;
@@ -67,6 +65,9 @@ import com.limegroup.gnutella.settings.LibrarySettings;
  */
 public class LibrarySearch extends JPanel {
 
+    // matches are ranked, the rest are rarely worth reading from the database
+    private static final int MAX_PLAYLIST_ITEM_RESULTS = 2000;
+
     private JLabel statusLabel;
     private SearchField searchField;
 
@@ -314,6 +315,10 @@ public class LibrarySearch extends JPanel {
                     }
                 });
 
+                if (searchIndex()) {
+                    return;
+                }
+
                 if (directoryHolder instanceof MediaTypeSavedFilesDirectoryHolder) {
                     List<File> cache = new ArrayList<File>(((MediaTypeSavedFilesDirectoryHolder) directoryHolder).getCache());
                     if (cache.size() > 0) {
@@ -330,18 +335,14 @@ public class LibrarySearch extends JPanel {
 
                 Set<File> ignore = TorrentUtil.getIgnorableFiles();
 
-                if (directoryHolder instanceof TorrentDirectoryHolder) {
-                    search(((TorrentDirectoryHolder) directoryHolder).getDirectory(), ignore, LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
-                    return;
-                }
-
-                if (directoryHolder instanceof SavedFilesDirectoryHolder) {
-                    search(((SavedFilesDirectoryHolder) directoryHolder).getDirectory(), ignore, LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
+                if (directoryHolder instanceof TorrentDirectoryHolder || directoryHolder instanceof SavedFilesDirectoryHolder) {
+                    search(Arrays.asList(directoryHolder.getDirectory()), ignore);
                     return;
                 }
 
                 Set<File> directories = new HashSet<File>(LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue());
                 directories.removeAll(LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
+                List<File> roots = new ArrayList<File>();
                 for (File dir : directories) {
                     if (dir == null) {
                         continue;
@@ -350,9 +351,10 @@ public class LibrarySearch extends JPanel {
                     if (dir.equals(LibrarySettings.USER_MUSIC_FOLDER) && directoryHolder instanceof MediaTypeSavedFilesDirectoryHolder && !((MediaTypeSavedFilesDirectoryHolder) directoryHolder).getMediaType().equals(MediaType.getAudioMediaType())) {
                         continue;
                     } else {
-                        search(dir, new HashSet<File>(), LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
+                        roots.add(dir);
                     }
                 }
+                search(roots, new HashSet<File>());
             } catch (Throwable e) {
                 // just until we refactor this
                 e.printStackTrace();
@@ -360,59 +362,65 @@ public class LibrarySearch extends JPanel {
         }
 
         /**
-         * It searches _query in haystackDir.
-         * 
-         * @param haystackDir
-         * @param excludeFiles - Usually a list of incomplete files.
+         * Answers the query with the library file index, returns false if the
+         * index can't cover the selected directory holder yet.
          */
-        private void search(File haystackDir, Set<File> excludeFiles, Set<File> exludedSubFolders) {
-            if (canceled) {
-                return;
+        private boolean searchIndex() {
+            LibraryFileIndex index = LibraryFileIndex.instance();
+            if (!index.isReady()) {
+                return false;
             }
 
-            if (haystackDir == null || !haystackDir.isDirectory() || !haystackDir.exists()) {
-                return;
+            List<File> roots = new ArrayList<File>();
+
+            if (directoryHolder instanceof MediaTypeSavedFilesDirectoryHolder) {
+                MediaType mediaType = ((MediaTypeSavedFilesDirectoryHolder) directoryHolder).getMediaType();
+                Set<File> directories = new HashSet<File>(LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue());
+                directories.removeAll(LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
+                for (File dir : directories) {
+                    if (dir == null) {
+                        continue;
+                    }
+                    if (dir.equals(LibrarySettings.USER_MUSIC_FOLDER.getValue()) && !mediaType.equals(MediaType.getAudioMediaType())) {
+                        continue;
+                    }
+                    roots.add(dir);
+                }
+            } else if (directoryHolder instanceof SavedFilesDirectoryHolder) {
+                roots.add(directoryHolder.getDirectory());
+            } else {
+                return false;
             }
 
-            final List<File> directories = new ArrayList<File>();
+            for (File root : roots) {
+                if (!index.covers(root)) {
+                    return false;
+                }
+            }
+
+            Set<File> ignore = TorrentUtil.getIgnorableFiles();
             final List<File> results = new ArrayList<File>();
-            SearchFileFilter searchFilter = new SearchFileFilter(_query);
 
-            for (File child : FileUtils.listFiles(haystackDir)) { //haystackDir.listFiles(searchFilter)) {
+            for (File file : index.search(_query, roots)) {
                 if (canceled) {
-                    return;
-                }
-
-                /////
-                //Stop search if the user selected another item in the library tree
-                DirectoryHolder currentDirectoryHolder = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
-                if (!directoryHolder.equals(currentDirectoryHolder)) {
-                    return;
+                    return true;
                 }
-                /////
 
-                if (excludeFiles.contains(child)) {
+                if (ignore.contains(file)) {
                     continue;
                 }
 
-                if (child.isHidden()) {
-                    continue;
+                if (directoryHolder instanceof SavedFilesDirectoryHolder || directoryHolder.accept(file)) {
+                    results.add(file);
                 }
+            }
 
-                if (child.isDirectory() && !exludedSubFolders.contains(child)) {
-                    directories.add(child);
-                } else if (child.isFile()) {
-                    if (directoryHolder instanceof SavedFilesDirectoryHolder) {
-                        if (searchFilter.accept(child, false)) {
-                            results.add(child);
-                        }
-                    } else if (directoryHolder.accept(child)) {
-                        results.add(child);
-                    }
-                }
+            //Stop search if the user selected another item in the library tree
+            if (!directoryHolder.equals(LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder())) {
+                return true;
             }
 
-            Runnable r = new Runnable() {
+            GUIMediator.safeInvokeLater(new Runnable() {
                 public void run() {
                     LibraryMediator.instance().addFilesToLibraryTable(results);
 
@@ -420,12 +428,47 @@ public class LibrarySearch extends JPanel {
                         LibraryFilesTableMediator.instance().resetAudioPlayerFileView();
                     }
                 }
-            };
-            GUIMediator.safeInvokeLater(r);
+            });
+
+            return true;
+        }
 
-            for (File directory : directories) {
-                search(directory, excludeFiles, exludedSubFolders);
+        /**
+         * It searches _query in the roots with the library crawler.
+         * 
+         * @param roots
+         * @param excludeFiles - Usually a list of incomplete files.
+         */
+        private void search(List<File> roots, Set<File> excludeFiles) {
+            if (canceled) {
+                return;
             }
+
+            final SearchFileFilter searchFilter = new SearchFileFilter(_query);
+
+            LibraryCrawler.crawl(roots, excludeFiles, LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue(), new LibraryCrawler.CrawlListener() {
+
+                public boolean isCanceled() {
+                    //Stop search if the user selected another item in the library tree
+                    return canceled || !directoryHolder.equals(LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder());
+                }
+
+                public boolean accept(File file) {
+                    if (directoryHolder instanceof SavedFilesDirectoryHolder) {
+                        return searchFilter.matches(file);
+                    } else {
+                        return directoryHolder.accept(file);
+                    }
+                }
+
+                public void onFiles(List<File> files) {
+                    LibraryMediator.instance().addFilesToLibraryTable(files);
+
+                    if (directoryHolder instanceof SavedFilesDirectoryHolder) {
+                        LibraryFilesTableMediator.instance().resetAudioPlayerFileView();
+                    }
+                }
+            });
         }
 
         private void search(List<File> cache) {
@@ -472,7 +515,7 @@ public class LibrarySearch extends JPanel {
         private final String[] _tokens;
 
         public SearchFileFilter(String query) {
-            _tokens = StringUtils.removeDoubleSpaces(normalize(query)).split(" ");
+            _tokens = StringUtils.removeDoubleSpaces(LibraryFileIndex.normalize(query)).split(" ");
         }
 
         public boolean accept(File pathname) {
@@ -494,7 +537,14 @@ public class LibrarySearch extends JPanel {
                 return true;
             }
 
-            String name = normalize(pathname.getAbsolutePath());
+            return matches(pathname);
+        }
+
+        /**
+         * Matches the path against the query tokens without touching the file system.
+         */
+        public boolean matches(File pathname) {
+            String name = LibraryFileIndex.normalize(pathname.getAbsolutePath());
 
             for (String token : _tokens) {
                 if (!name.contains(token)) {
@@ -504,14 +554,6 @@ public class LibrarySearch extends JPanel {
 
             return true;
         }
-
-        private String normalize(String token) {
-            String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-            norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-            norm = norm.toLowerCase(Locale.US);
-
-            return norm;
-        }
     }
 
     private final class SearchPlaylistItemsRunnable extends SearchRunnable {
@@ -556,8 +598,7 @@ public class LibrarySearch extends JPanel {
                 return;
             }
 
-            String sql = null;
-            List<List<Object>> rows = null;
+            List<PlaylistItem> rows = null;
 
             //Show everything
             if (StringUtils.isNullOrEmpty(query, true) || query.equals(".")) {
@@ -569,22 +610,23 @@ public class LibrarySearch extends JPanel {
                 return;
             } else {
                 String luceneQuery = com.frostwire.alexandria.LibraryUtils.wildcardLuceneQuery(query);
-                //Full text search
+                LibraryDatabase db = LibraryMediator.getLibrary().getLibraryDatabase();
+                //Full text search, best matches first
+                List<Integer> ids;
                 if (!playlist.isStarred()) {
-                    sql = "SELECT T.playlistItemId, T.filePath, T.fileName, T.fileSize, T.fileExtension, T.trackTitle, T.trackDurationInSecs, T.trackArtist, T.trackAlbum, T.coverArtPath, T.trackBitrate, T.trackComment, T.trackGenre, T.trackNumber, T.trackYear, T.starred, T.sortIndex FROM FTL_SEARCH_DATA(?, 0, 0) FT, PLAYLISTITEMS T WHERE FT.TABLE='PLAYLISTITEMS' AND T.playlistItemId = FT.KEYS[0] AND T.playlistId = ?";
-                    rows = LibraryMediator.getLibrary().getLibraryDatabase().query(sql, luceneQuery, playlist.getId());
+                    ids = db.getPlaylistItemsIndex().search(luceneQuery, playlist.getId(), MAX_PLAYLIST_ITEM_RESULTS);
                 }
                 //Starred playlist search
                 else {
-                    sql = "SELECT T.playlistItemId, T.filePath, T.fileName, T.fileSize, T.fileExtension, T.trackTitle, T.trackDurationInSecs, T.trackArtist, T.trackAlbum, T.coverArtPath, T.trackBitrate, T.trackComment, T.trackGenre, T.trackNumber, T.trackYear, T.starred FROM FTL_SEARCH_DATA(?, 0, 0) FT, PLAYLISTITEMS T WHERE FT.TABLE='PLAYLISTITEMS' AND T.playlistItemId = FT.KEYS[0] AND T.starred = TRUE";
-                    rows = LibraryMediator.getLibrary().getLibraryDatabase().query(sql, luceneQuery);
+                    ids = db.getPlaylistItemsIndex().searchStarred(luceneQuery, MAX_PLAYLIST_ITEM_RESULTS);
                 }
-
+                // results show the same index they have in the playlist, and are the instances in it
+                rows = playlist.getItems(ids);
             }
 
             final List<PlaylistItem> results = new ArrayList<PlaylistItem>();
 
-            for (List<Object> row : rows) {
+            for (PlaylistItem item : rows) {
                 if (canceled) {
                     return;
                 }
@@ -597,8 +639,6 @@ public class LibrarySearch extends JPanel {
                 }
                 /////
 
-                PlaylistItem item = new PlaylistItem(currentPlaylist);
-                PlaylistItemDB.fill(row, item);
                 results.add(item);
 
                 if (results.size() > 100) {
@@ -653,7 +693,7 @@ public class LibrarySearch extends JPanel {
             }
 
             String sql = null;
-            List<List<Object>> rows = null;
+            List<InternetRadioStation> rows = null;
 
             //Show everything
             if (StringUtils.isNullOrEmpty(query, true) || query.equals(".")) {
@@ -665,12 +705,13 @@ public class LibrarySearch extends JPanel {
                 String luceneQuery = com.frostwire.alexandria.LibraryUtils.wildcardLuceneQuery(query);
                 //Full text search
                 sql = "SELECT T.internetRadioStationId, T.name, T.description, T.url, T.bitrate, T.type, T.website, T.genre, T.pls, T.bookmarked FROM FTL_SEARCH_DATA(?, 0, 0) FT, INTERNETRADIOSTATIONS T WHERE FT.TABLE='INTERNETRADIOSTATIONS' AND T.internetRadioStationId = FT.KEYS[0]";
-                rows = LibraryMediator.getLibrary().getLibraryDatabase().query(sql, luceneQuery);
+                LibraryDatabase db = LibraryMediator.getLibrary().getLibraryDatabase();
+                rows = db.query(InternetRadioStationDB.newStationMapper(db), sql, luceneQuery);
             }
 
             final List<InternetRadioStation> results = new ArrayList<InternetRadioStation>();
 
-            for (List<Object> row : rows) {
+            for (InternetRadioStation item : rows) {
                 if (canceled) {
                     return;
                 }
@@ -683,8 +724,6 @@ public class LibrarySearch extends JPanel {
                 //                }
                 /////
 
-                InternetRadioStation item = new InternetRadioStation(LibraryMediator.getLibrary().getLibraryDatabase());
-                InternetRadioStationDB.fill(row, item);
                 results.add(item);
 
                 if (results.size() > 100) {
@@ -26,6 +26,9 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -43,6 +46,7 @@ import com.frostwire.alexandria.IcyInputStream;
 import com.frostwire.alexandria.IcyInputStream.Track;
 import com.frostwire.alexandria.InternetRadioStation;
 import com.frostwire.alexandria.Playlist;
+import com.frostwire.alexandria.PlaylistEdit;
 import com.frostwire.alexandria.PlaylistItem;
 import com.frostwire.alexandria.db.LibraryDatabase;
 import com.frostwire.gui.bittorrent.TorrentUtil;
@@ -82,42 +86,42 @@ public class LibraryUtils {
         executor = ExecutorsHelper.newProcessingQueue("LibraryUtils-Executor");
     }
 
-    private static void addPlaylistItem(Playlist playlist, File file, boolean starred) {
-        addPlaylistItem(playlist, file, starred, -1);
-    }
+    /**
+     * Max number of imported items saved in a single playlist edit, so that
+     * big imports show up progressively.
+     */
+    private static final int IMPORT_BATCH_SIZE = 100;
 
-    private static void addPlaylistItem(Playlist playlist, File file, boolean starred, int index) {
+    private static PlaylistItem newPlaylistItem(Playlist playlist, File file, boolean starred) {
         try {
             LibraryMediator.instance().getLibrarySearch().pushStatus(I18n.tr("Importing") + " " + file.getName());
             TagsData mt = new TagsReader(file).parse();
-            PlaylistItem item = playlist.newItem(file.getAbsolutePath(), file.getName(), file.length(), FileUtils.getFileExtension(file), mt.getTitle(), mt.getDuration(), mt.getArtist(), mt.getAlbum(), "",// TODO: cover art path
+            return playlist.newItem(file.getAbsolutePath(), file.getName(), file.length(), FileUtils.getFileExtension(file), mt.getTitle(), mt.getDuration(), mt.getArtist(), mt.getAlbum(), "",// TODO: cover art path
                     mt.getBitrate(), mt.getComment(), mt.getGenre(), mt.getTrack(), mt.getYear(), starred);
+        } finally {
+            LibraryMediator.instance().getLibrarySearch().revertStatus();
+        }
+    }
 
-            List<PlaylistItem> items = playlist.getItems();
-            if (index != -1 && index < items.size()) {
+    /**
+     * Saves the pending items at the index (-1 to append) in a single edit
+     * and clears them.
+     */
+    private static void addPlaylistItems(Playlist playlist, List<PlaylistItem> pending, int index) {
+        if (pending.isEmpty() || playlist.isDeleted()) {
+            return;
+        }
 
-                // insert item
-                items.add(index, item);
+        playlist.edit().add(index, new ArrayList<PlaylistItem>(pending)).commit();
+        pending.clear();
 
-                // update all sort indexes from insertion point onwards
-                for (int i = index; i < items.size(); i++) {
-                    PlaylistItem cur_item = items.get(i);
-                    cur_item.setSortIndex(i + 1); //set index 1-based
-                    cur_item.save();
+        if (isPlaylistSelected(playlist)) {
+            // refresh UI
+            GUIMediator.safeInvokeLater(new Runnable() {
+                public void run() {
+                    LibraryMediator.instance().getLibraryPlaylists().refreshSelection();
                 }
-
-            } else {
-                items.add(item);
-                item.setSortIndex(items.size()); // set sort index to 1-based size
-                item.save();
-            }
-
-            if (isPlaylistSelected(playlist)) {
-                // refresh UI
-                LibraryMediator.instance().getLibraryPlaylists().refreshSelection();
-            }
-        } finally {
-            LibraryMediator.instance().getLibrarySearch().revertStatus();
+            });
         }
     }
 
@@ -181,7 +185,6 @@ public class LibraryUtils {
             Thread t = new Thread(new Runnable() {
                 public void run() {
                     addToPlaylist(playlist, lines);
-                    playlist.save();
                     asyncAddToPlaylistFinalizer(playlist);
                 }
             }, "createNewPlaylist");
@@ -231,7 +234,6 @@ public class LibraryUtils {
                     try {
                         Set<File> ignore = TorrentUtil.getIgnorableFiles();
                         addToPlaylist(playlist, files, starred, ignore);
-                        playlist.save();
                     } finally {
                         asyncAddToPlaylistFinalizer(playlist);
                     }
@@ -262,7 +264,6 @@ public class LibraryUtils {
                         try {
                             playlist.save();
                             addToPlaylist(playlist, playlistItems);
-                            playlist.save();
                             GUIMediator.safeInvokeLater(new Runnable() {
                                 public void run() {
                                     LibraryMediator.instance().getLibraryPlaylists().addPlaylist(playlist);
@@ -341,7 +342,6 @@ public class LibraryUtils {
                 try {
                     Set<File> ignore = TorrentUtil.getIgnorableFiles();
                     addToPlaylist(playlist, files, false, index, ignore);
-                    playlist.save();
                 } finally {
                     asyncAddToPlaylistFinalizer(playlist);
                 }
@@ -369,7 +369,6 @@ public class LibraryUtils {
         Thread t = new Thread(new Runnable() {
             public void run() {
                 addToPlaylist(playlist, playlistItems, index);
-                playlist.save();
                 GUIMediator.safeInvokeLater(new Runnable() {
                     public void run() {
                         LibraryMediator.instance().getLibraryPlaylists().refreshSelection();
@@ -448,12 +447,17 @@ public class LibraryUtils {
     }
 
     private static void addToPlaylist(Playlist playlist, List<? extends AbstractLibraryTableDataLine<?>> lines) {
+        List<PlaylistItem> pending = new ArrayList<PlaylistItem>();
         for (int i = 0; i < lines.size() && !playlist.isDeleted(); i++) {
             AbstractLibraryTableDataLine<?> line = lines.get(i);
             if (MediaPlayer.isPlayableFile(line.getFile())) {
-                LibraryUtils.addPlaylistItem(playlist, line.getFile(), false);
+                pending.add(newPlaylistItem(playlist, line.getFile(), false));
+                if (pending.size() >= IMPORT_BATCH_SIZE) {
+                    addPlaylistItems(playlist, pending, -1);
+                }
             }
         }
+        addPlaylistItems(playlist, pending, -1);
     }
 
     private static int addToPlaylist(Playlist playlist, File[] files, boolean starred, Set<File> ignore) {
@@ -461,13 +465,29 @@ public class LibraryUtils {
     }
 
     private static int addToPlaylist(Playlist playlist, File[] files, boolean starred, int index, Set<File> ignore) {
-        int count = 0;
+        List<PlaylistItem> pending = new ArrayList<PlaylistItem>();
+        int count = addToPlaylist(playlist, files, starred, index, ignore, pending, 0);
+        addPlaylistItems(playlist, pending, index == -1 ? -1 : index + count - pending.size());
+        return count;
+    }
+
+    /**
+     * Collects the playable files in pending, saving them every
+     * IMPORT_BATCH_SIZE items. Returns the number of items collected so far.
+     */
+    private static int addToPlaylist(Playlist playlist, File[] files, boolean starred, int index, Set<File> ignore, List<PlaylistItem> pending, int count) {
+        if (files == null) {
+            return count;
+        }
         for (int i = 0; i < files.length && !playlist.isDeleted(); i++) {
             if (MediaPlayer.isPlayableFile(files[i]) && !ignore.contains(files[i])) {
-                LibraryUtils.addPlaylistItem(playlist, files[i], starred, index + count);
+                pending.add(newPlaylistItem(playlist, files[i], starred));
                 count++;
+                if (pending.size() >= IMPORT_BATCH_SIZE) {
+                    addPlaylistItems(playlist, pending, index == -1 ? -1 : index + count - pending.size());
+                }
             } else if (files[i].isDirectory()) {
-                count += addToPlaylist(playlist, files[i].listFiles(), starred, index + count, ignore);
+                count = addToPlaylist(playlist, files[i].listFiles(), starred, index, ignore, pending, count);
             }
         }
 
@@ -483,61 +503,44 @@ public class LibraryUtils {
     }
 
     private static void addToPlaylist(Playlist playlist, PlaylistItem[] playlistItems, boolean starred, int index) {
-        List<PlaylistItem> items = playlist.getItems();
-        if (index != -1 && index <= items.size()) {
-            List<Integer> toRemove = new ArrayList<Integer>(playlistItems.length);
-            for (int i = 0; i < playlistItems.length && !playlist.isDeleted(); i++) {
-                toRemove.add(playlistItems[i].getId());
-                playlistItems[i].setId(LibraryDatabase.OBJECT_NOT_SAVED_ID);
-                playlistItems[i].setPlaylist(playlist);
-                items.add(index + i, playlistItems[i]);
-                if (starred) {
-                    playlistItems[i].setStarred(starred);
-                    playlistItems[i].save();
-                }
-            }
-            for (int i = 0; i < toRemove.size() && !playlist.isDeleted(); i++) {
-                int id = toRemove.get(i);
-                for (int j = 0; j < items.size() && !playlist.isDeleted(); j++) {
-                    if (items.get(j).getId() == id) {
-                        items.remove(j);
-                        break;
-                    }
-                }
-            }
+        if (playlist.isDeleted()) {
+            return;
+        }
 
-            // reupdate sort indexes now that the ordering in the list is correct
-            items = playlist.getItems();
-            for (int i = 0; i < items.size(); i++) {
-                PlaylistItem item = items.get(i);
-                item.setSortIndex(i + 1); // set index 1-based
-                item.save();
+        List<PlaylistItem> newItems = new ArrayList<PlaylistItem>(playlistItems.length);
+        Set<PlaylistItem> copies = Collections.newSetFromMap(new IdentityHashMap<PlaylistItem, Boolean>());
+        Set<Integer> ids = new HashSet<Integer>();
+        for (PlaylistItem item : playlistItems) {
+            ids.add(item.getId());
+            copies.add(item);
+            if (starred) {
+                item.setStarred(true);
             }
+            newItems.add(item);
+        }
 
-        } else {
-            for (int i = 0; i < playlistItems.length && !playlist.isDeleted(); i++) {
-
-                playlistItems[i].setPlaylist(playlist);
-                items.add(playlistItems[i]);
-                playlistItems[i].setSortIndex(items.size()); // set sort index to be at the end (1-based)
+        PlaylistEdit edit = playlist.edit();
 
-                if (starred) {
-                    playlistItems[i].setStarred(starred);
+        if (index != -1 && index <= playlist.getItems().size()) {
+            // items dropped from the same playlist are moved, the copies replace them
+            List<PlaylistItem> toRemove = new ArrayList<PlaylistItem>();
+            synchronized (playlist.getItems()) {
+                for (PlaylistItem item : playlist.getItems()) {
+                    if (ids.contains(item.getId()) && !copies.contains(item)) {
+                        toRemove.add(item);
+                    }
                 }
-
-                playlistItems[i].save();
             }
+            edit.add(index, newItems).remove(toRemove);
+        } else {
+            edit.add(newItems);
         }
+
+        edit.commit();
     }
 
     public static String getPlaylistDurationInDDHHMMSS(Playlist playlist) {
-        List<PlaylistItem> items = playlist.getItems();
-        float totalSecs = 0;
-        for (PlaylistItem item : items) {
-            totalSecs += item.getTrackDurationInSecs();
-        }
-
-        return getSecondsInDDHHMMSS((int) totalSecs);
+        return getSecondsInDDHHMMSS((int) playlist.getDurationInSecs());
     }
 
     public static boolean directoryContainsPlayableExtensions(File directory, int depth) {
@@ -660,11 +663,15 @@ public class LibraryUtils {
             return;
         }
         try {
-            for (PlaylistItem item : playlist.getItems()) {
-                if (!new File(item.getFilePath()).exists()) {
-                    item.delete();
+            List<PlaylistItem> missing = new ArrayList<PlaylistItem>();
+            synchronized (playlist.getItems()) {
+                for (PlaylistItem item : playlist.getItems()) {
+                    if (!new File(item.getFilePath()).exists()) {
+                        missing.add(item);
+                    }
                 }
             }
+            playlist.edit().remove(missing).commit();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -834,37 +841,7 @@ public class LibraryUtils {
 
     public static void movePlaylistItemsToIndex(Playlist playlist, int[] selectedIndexes, int index) {
 
-        List<PlaylistItem> items = playlist.getItems();
-        int targetIndex = index;
-
-        // first, order items in list correctly
-        for (int i = 0; i < selectedIndexes.length; i++) {
-            int sourceIndex = selectedIndexes[i];
-
-            if (sourceIndex != targetIndex) {
-                items.add(targetIndex, items.get(sourceIndex));
-                items.remove(sourceIndex < targetIndex ? sourceIndex : sourceIndex + 1);
-
-                // adjust remaining selected indexes if insertion point is greater than their location
-                for (int j = i + 1; j < selectedIndexes.length; j++) {
-                    if (targetIndex > selectedIndexes[j]) {
-                        selectedIndexes[j]--;
-                    }
-                }
-
-                // update insertion point
-                if (sourceIndex > targetIndex) {
-                    targetIndex++;
-                }
-            }
-        }
-
-        // second, generate new indexes based list order
-        for (int i = 0; i < items.size(); i++) {
-            PlaylistItem item = items.get(i);
-            item.setSortIndex(i + 1); // set index (1-based)
-            item.save();
-        }
+        playlist.edit().move(selectedIndexes, index).commit();
 
         // initiate UI refresh
         GUIMediator.safeInvokeLater(new Runnable() {
@@ -0,0 +1,317 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.frostwire.gui.bittorrent.TorrentUtil;
+import com.frostwire.logging.Logger;
+import com.limegroup.gnutella.gui.GUIMediator;
+import com.limegroup.gnutella.settings.LibrarySettings;
+
+/**
+ * Watches the library folders and applies the created, deleted and renamed
+ * files to the library file index, the directory holder caches and the files
+ * table, so the library views never need a full rescan to stay current.
+ * <p>
+ * A rename is reported by the watch service as a delete followed by a create.
+ * Events are coalesced and applied once the folders are quiet for a moment.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryWatcher {
+
+    private static final Logger LOG = Logger.getLogger(LibraryWatcher.class);
+
+    /**
+     * Time without new events before the pending deltas are applied.
+     */
+    private static final long QUIET_PERIOD_MILLIS = 500;
+
+    /**
+     * Max time a delta waits while the folders keep changing.
+     */
+    private static final long MAX_DELAY_MILLIS = 2000;
+
+    private static final LibraryWatcher INSTANCE = new LibraryWatcher();
+
+    private final Map<WatchKey, Path> keys;
+    private final AtomicBoolean registerPending;
+
+    private final Set<File> created;
+    private final Set<File> deleted;
+    private boolean overflow;
+    private long firstPendingTime;
+
+    private WatchService watchService;
+    private volatile boolean watching;
+
+    public static LibraryWatcher instance() {
+        return INSTANCE;
+    }
+
+    private LibraryWatcher() {
+        keys = new HashMap<WatchKey, Path>();
+        registerPending = new AtomicBoolean();
+        created = new LinkedHashSet<File>();
+        deleted = new LinkedHashSet<File>();
+    }
+
+    public synchronized void start() {
+        if (watchService != null) {
+            return;
+        }
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (Throwable e) {
+            LOG.warn("Unable to create the library watch service, library caches won't be live", e);
+            return;
+        }
+
+        registerPending.set(true);
+
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    loop();
+                } catch (Throwable e) {
+                    watching = false;
+                    LOG.error("Library watcher stopped", e);
+                }
+            }
+        }, "LibraryWatcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * True if every library folder is being watched, in that case the
+     * directory holder caches are kept live and don't need to be cleared.
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Registers the library folders again, to be called when they change.
+     */
+    public void requestRegister() {
+        registerPending.set(true);
+    }
+
+    private void loop() throws InterruptedException {
+        while (true) {
+            if (registerPending.getAndSet(false)) {
+                registerAll();
+            }
+
+            WatchKey key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (key != null) {
+                handle(key);
+            }
+
+            boolean pending = overflow || !created.isEmpty() || !deleted.isEmpty();
+            if (pending && (key == null || System.currentTimeMillis() - firstPendingTime > MAX_DELAY_MILLIS)) {
+                flush();
+            }
+        }
+    }
+
+    private void registerAll() {
+        for (WatchKey key : keys.keySet()) {
+            key.cancel();
+        }
+        keys.clear();
+
+        Set<File> excluded = LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue();
+        Set<File> roots = new HashSet<File>(LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue());
+        roots.removeAll(excluded);
+
+        boolean complete = true;
+        for (File root : roots) {
+            if (root != null && root.isDirectory()) {
+                complete &= register(root.toPath(), excluded, null);
+            }
+        }
+
+        watching = complete;
+    }
+
+    /**
+     * Registers the directory tree, if files is not null the files found in
+     * it are collected. Returns false if some directory couldn't be watched.
+     */
+    private boolean register(final Path start, final Set<File> excluded, final List<File> files) {
+        final boolean[] complete = { true };
+
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (excluded.contains(dir.toFile()) || (!dir.equals(start) && Files.isHidden(dir))) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    try {
+                        keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE), dir);
+                    } catch (IOException e) {
+                        // usually the OS limit of watches was reached
+                        LOG.warn("Unable to watch library folder: " + dir, e);
+                        complete[0] = false;
+                        return FileVisitResult.TERMINATE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (files != null && attrs.isRegularFile()) {
+                        files.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Error registering library folder: " + start, e);
+            complete[0] = false;
+        }
+
+        return complete[0];
+    }
+
+    private void handle(WatchKey key) {
+        Path dir = keys.get(key);
+
+        if (dir != null) {
+            Set<File> excluded = LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue();
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (created.isEmpty() && deleted.isEmpty() && !overflow) {
+                    firstPendingTime = System.currentTimeMillis();
+                }
+
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+
+                Path child = dir.resolve((Path) event.context());
+                File file = child.toFile();
+
+                if (event.kind() == ENTRY_CREATE) {
+                    deleted.remove(file);
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!excluded.contains(file)) {
+                            List<File> files = new ArrayList<File>();
+                            if (!register(child, excluded, files)) {
+                                watching = false;
+                            }
+                            created.addAll(files);
+                        }
+                    } else {
+                        created.add(file);
+                    }
+                } else if (event.kind() == ENTRY_DELETE) {
+                    created.remove(file);
+                    deleted.add(file);
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    private void flush() {
+        if (overflow) {
+            // events were lost, fall back to a synchronization and rescans
+            overflow = false;
+            created.clear();
+            deleted.clear();
+
+            LibraryFileIndex.instance().requestSync();
+            GUIMediator.safeInvokeLater(new Runnable() {
+                public void run() {
+                    LibraryMediator.instance().getLibraryExplorer().clearDirectoryHolderCaches();
+                }
+            });
+            return;
+        }
+
+        Set<File> ignore = TorrentUtil.getIgnorableFiles();
+
+        final List<File> createdFiles = new ArrayList<File>(created.size());
+        for (File file : created) {
+            if (!ignore.contains(file) && !file.isHidden()) {
+                createdFiles.add(file);
+            }
+        }
+        final List<File> deletedFiles = new ArrayList<File>(deleted);
+
+        created.clear();
+        deleted.clear();
+
+        LibraryFileIndex index = LibraryFileIndex.instance();
+        for (File file : deletedFiles) {
+            index.fileDeleted(file);
+        }
+        for (File file : createdFiles) {
+            index.fileCreated(file);
+        }
+
+        GUIMediator.safeInvokeLater(new Runnable() {
+            public void run() {
+                LibraryMediator.instance().getLibraryExplorer().applyFileDeltas(createdFiles, deletedFiles);
+            }
+        });
+    }
+}
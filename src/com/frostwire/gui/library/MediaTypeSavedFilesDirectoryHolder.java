@@ -19,8 +19,8 @@
 package com.frostwire.gui.library;
 
 import java.io.File;
-import java.util.HashSet;
 import java.util.List;
+import java.util.NavigableSet;
 import java.util.Set;
 
 import javax.swing.Icon;
@@ -28,6 +28,7 @@ import javax.swing.Icon;
 import com.limegroup.gnutella.MediaType;
 import com.limegroup.gnutella.gui.I18n;
 import com.limegroup.gnutella.gui.search.NamedMediaType;
+import com.limegroup.gnutella.settings.LibrarySettings;
 
 /**
  * 
@@ -39,11 +40,13 @@ public class MediaTypeSavedFilesDirectoryHolder implements DirectoryHolder {
 
 	private MediaType type;
 	
-	private Set<File> cache;
+	private NavigableSet<File> cache;
+	
+	private volatile boolean cacheLoaded;
 	
 	public MediaTypeSavedFilesDirectoryHolder(MediaType type) {
 		this.type = type;
-		cache = new HashSet<File>();
+		cache = LibraryFileCache.newCache();
 	}
 	
 	public MediaType getMediaType() {
@@ -92,6 +95,35 @@ public class MediaTypeSavedFilesDirectoryHolder implements DirectoryHolder {
     }
     
     public void clearCache() {
+        cacheLoaded = false;
         cache.clear();
     }
+
+    /**
+     * True once a full crawl of the library folders filled the cache, from
+     * then on the library watcher keeps it live.
+     */
+    public boolean isCacheLoaded() {
+        return cacheLoaded;
+    }
+
+    public void setCacheLoaded(boolean cacheLoaded) {
+        this.cacheLoaded = cacheLoaded;
+    }
+
+    /**
+     * Returns true if the file was added to the loaded cache, files under
+     * excluded folders are left out as the crawl does.
+     */
+    public boolean fileCreated(File file) {
+        return cacheLoaded && accept(file) && !LibraryFileCache.isExcluded(file, LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue()) && cache.add(file);
+    }
+
+    /**
+     * Removes the file, or every file under it if it was a directory,
+     * and returns the files that were in the cache.
+     */
+    public List<File> fileDeleted(File file) {
+        return LibraryFileCache.remove(cache, file);
+    }
 }
\ No newline at end of file
@@ -23,6 +23,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
 import java.util.Set;
 
 import javax.swing.Icon;
@@ -46,12 +48,12 @@ public class SavedFilesDirectoryHolder extends FileSettingDirectoryHolder {
 
     private final MediaType type;
 
-    private Set<File> cache;
+    private NavigableSet<File> cache;
 
     public SavedFilesDirectoryHolder(FileSetting saveDir, String name) {
         super(saveDir, name);
         type = MediaType.getAnyTypeMediaType();
-        cache = new HashSet<File>();
+        cache = newCache();
     }
 
     public Icon getIcon() {
@@ -113,7 +115,8 @@ public class SavedFilesDirectoryHolder extends FileSettingDirectoryHolder {
             files.addAll(getFilesRecursively(directory, directoriesToNotInclude));
         }
 
-        cache = new HashSet<File>(files);
+        cache = newCache();
+        cache.addAll(files);
 
         return cache.toArray(new File[0]);
     }
@@ -121,4 +124,30 @@ public class SavedFilesDirectoryHolder extends FileSettingDirectoryHolder {
     public Collection<File> getCache() {
         return cache;
     }
+
+    /**
+     * Returns true if the file is under the save folder and was added
+     * to the cache, an empty cache is filled on the next listing.
+     */
+    public boolean fileCreated(File file) {
+        if (cache.isEmpty() || !FileUtils.isAncestor(getDirectory(), file)) {
+            return false;
+        }
+        if (LibraryFileCache.isExcluded(file, Collections.singleton(getDirectory()))) {
+            return false;
+        }
+        return cache.add(file);
+    }
+
+    /**
+     * Removes the file, or every file under it if it was a directory,
+     * and returns the files that were in the cache.
+     */
+    public List<File> fileDeleted(File file) {
+        return LibraryFileCache.remove(cache, file);
+    }
+
+    private static NavigableSet<File> newCache() {
+        return LibraryFileCache.newCache();
+    }
 }
\ No newline at end of file
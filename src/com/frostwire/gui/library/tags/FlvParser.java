@@ -0,0 +1,225 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.gui.library.tags;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+import com.frostwire.logging.Logger;
+
+/**
+ * Reads the duration, bitrate and title of a FLV file from the onMetaData
+ * script tag at its start, without spawning mplayer.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+class FlvParser extends AbstractTagParser {
+
+    private static final Logger LOG = Logger.getLogger(FlvParser.class);
+
+    private static final int TAG_TYPE_SCRIPT = 18;
+
+    // the metadata is small, bigger means a broken file
+    private static final int MAX_SCRIPT_TAG_SIZE = 64 * 1024;
+
+    private static final int AMF_NUMBER = 0;
+    private static final int AMF_BOOLEAN = 1;
+    private static final int AMF_STRING = 2;
+    private static final int AMF_OBJECT = 3;
+    private static final int AMF_NULL = 5;
+    private static final int AMF_UNDEFINED = 6;
+    private static final int AMF_ECMA_ARRAY = 8;
+    private static final int AMF_OBJECT_END = 9;
+    private static final int AMF_STRICT_ARRAY = 10;
+    private static final int AMF_DATE = 11;
+    private static final int AMF_LONG_STRING = 12;
+
+    public FlvParser(File file) {
+        super(file);
+    }
+
+    @Override
+    public TagsData parse() {
+        TagsData data = null;
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            Map<String, Object> metadata = readMetadata(in);
+
+            if (metadata != null) {
+                int duration = (int) getNumber(metadata, "duration");
+                double audioRate = getNumber(metadata, "audiodatarate");
+                double videoRate = getNumber(metadata, "videodatarate");
+                // in kbps, as the other parsers report it
+                String bitrate = audioRate > 0 || videoRate > 0 ? String.valueOf((int) (audioRate + videoRate)) : "";
+
+                Object title = metadata.get("title");
+                Object artist = metadata.get("artist");
+                Object album = metadata.get("album");
+                Object comment = metadata.get("comment");
+                Object genre = metadata.get("genre");
+                Object year = metadata.get("year");
+
+                data = sanitize(duration, bitrate, asString(title), asString(artist), asString(album), asString(comment), asString(genre), "", asString(year));
+            }
+        } catch (Throwable e) {
+            LOG.warn("Unable to parse flv metadata: " + file);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        return data;
+    }
+
+    @Override
+    public BufferedImage getArtwork() {
+        return null;
+    }
+
+    private Map<String, Object> readMetadata(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != 'F' || in.readUnsignedByte() != 'L' || in.readUnsignedByte() != 'V') {
+            return null;
+        }
+
+        in.readUnsignedByte(); // version
+        in.readUnsignedByte(); // flags
+        int headerSize = in.readInt();
+        in.skipBytes(headerSize - 9);
+
+        in.readInt(); // previous tag size, always 0
+
+        int tagType = in.readUnsignedByte() & 0x1F;
+        int dataSize = readUInt24(in);
+        in.skipBytes(7); // timestamp and stream id
+
+        if (tagType != TAG_TYPE_SCRIPT || dataSize > MAX_SCRIPT_TAG_SIZE) {
+            return null;
+        }
+
+        byte[] script = new byte[dataSize];
+        in.readFully(script);
+
+        DataInputStream amf = new DataInputStream(new ByteArrayInputStream(script));
+
+        Object name = readValue(amf);
+        Object value = readValue(amf);
+
+        if ("onMetaData".equals(name) && value instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> metadata = (Map<String, Object>) value;
+            return metadata;
+        }
+
+        return null;
+    }
+
+    private Object readValue(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+
+        switch (type) {
+        case AMF_NUMBER:
+            return in.readDouble();
+        case AMF_BOOLEAN:
+            return in.readUnsignedByte() != 0;
+        case AMF_STRING:
+            return readString(in, in.readUnsignedShort());
+        case AMF_OBJECT:
+            return readProperties(in);
+        case AMF_NULL:
+        case AMF_UNDEFINED:
+            return null;
+        case AMF_ECMA_ARRAY:
+            in.readInt(); // approximate count, the end marker is what counts
+            return readProperties(in);
+        case AMF_STRICT_ARRAY:
+            long count = in.readInt() & 0xFFFFFFFFL;
+            for (long i = 0; i < count; i++) {
+                readValue(in);
+            }
+            return null;
+        case AMF_DATE:
+            in.readDouble();
+            in.readShort();
+            return null;
+        case AMF_LONG_STRING:
+            return readString(in, in.readInt());
+        default:
+            throw new IOException("Unsupported AMF type: " + type);
+        }
+    }
+
+    private Map<String, Object> readProperties(DataInputStream in) throws IOException {
+        Map<String, Object> properties = new HashMap<String, Object>();
+
+        while (true) {
+            String key;
+            try {
+                key = readString(in, in.readUnsignedShort());
+            } catch (EOFException e) {
+                // some muxers don't write the end marker of the last array
+                return properties;
+            }
+
+            if (key.length() == 0) {
+                if (in.readUnsignedByte() == AMF_OBJECT_END) {
+                    return properties;
+                }
+                throw new IOException("Invalid AMF object end");
+            }
+
+            properties.put(key, readValue(in));
+        }
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > MAX_SCRIPT_TAG_SIZE) {
+            throw new IOException("Invalid AMF string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static int readUInt24(DataInputStream in) throws IOException {
+        return (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+    }
+
+    private static double getNumber(Map<String, Object> metadata, String key) {
+        Object value = metadata.get(key);
+        return value instanceof Double ? (Double) value : 0;
+    }
+
+    private static String asString(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+}
@@ -20,12 +20,17 @@ package com.frostwire.gui.library.tags;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 import com.frostwire.gui.mplayer.MPlayer;
 import com.frostwire.logging.Logger;
 
 /**
- * 
+ * Last resort parser, it runs an mplayer process to identify the file.
+ * <p>
+ * At most {@link #MAX_CONCURRENT_PROCESSES} mplayer processes identify files
+ * at the same time, no matter how many threads are parsing.
+ *
  * @author aldenml
  *
  */
@@ -33,6 +38,10 @@ class MPlayerParser extends AbstractTagParser {
 
     private static final Logger LOG = Logger.getLogger(MPlayerParser.class);
 
+    private static final int MAX_CONCURRENT_PROCESSES = 2;
+
+    private static final Semaphore PROCESSES = new Semaphore(MAX_CONCURRENT_PROCESSES, true);
+
     public MPlayerParser(File file) {
         super(file);
     }
@@ -42,27 +51,23 @@ class MPlayerParser extends AbstractTagParser {
         TagsData data = null;
 
         try {
-            MPlayer mplayer = new MPlayer();
+            Map<String, String> properties = getProperties();
 
-            try {
-                Map<String, String> properties = mplayer.getProperties(file.getAbsolutePath());
+            int duration = parseDuration(properties.get("ID_LENGTH"));
+            String bitrate = parseBitrate(properties.get("ID_AUDIO_BITRATE"));
 
-                int duration = parseDuration(properties.get("ID_LENGTH"));
-                String bitrate = parseBitrate(properties.get("ID_AUDIO_BITRATE"));
+            String title = properties.get("Title");
+            String artist = properties.get("Artist");
+            String album = properties.get("Album");
+            String comment = properties.get("Comment");
+            String genre = properties.get("Genre");
+            String track = properties.get("Track");
+            String year = properties.get("Year");
 
-                String title = properties.get("Title");
-                String artist = properties.get("Artist");
-                String album = properties.get("Album");
-                String comment = properties.get("Comment");
-                String genre = properties.get("Genre");
-                String track = properties.get("Track");
-                String year = properties.get("Year");
+            data = sanitize(duration, bitrate, title, artist, album, comment, genre, track, year);
 
-                data = sanitize(duration, bitrate, title, artist, album, comment, genre, track, year);
-
-            } finally {
-                mplayer.dispose();
-            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             LOG.warn("Unable to parse file with mplayer: " + file, e);
         }
@@ -75,6 +80,20 @@ class MPlayerParser extends AbstractTagParser {
         return null;
     }
 
+    private Map<String, String> getProperties() throws InterruptedException {
+        PROCESSES.acquire();
+        try {
+            MPlayer mplayer = new MPlayer();
+            try {
+                return mplayer.getProperties(file.getAbsolutePath());
+            } finally {
+                mplayer.dispose();
+            }
+        } finally {
+            PROCESSES.release();
+        }
+    }
+
     private int parseDuration(String durationInSecs) {
         try {
             return (int) Float.parseFloat(durationInSecs);
@@ -0,0 +1,349 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.gui.library.tags;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.frostwire.content.ContentValues;
+import com.frostwire.content.Context;
+import com.frostwire.database.Cursor;
+import com.frostwire.database.sqlite.SQLiteDatabase;
+import com.frostwire.database.sqlite.SQLiteOpenHelper;
+import com.frostwire.database.sqlite.SQLiteQueryBuilder;
+import com.frostwire.logging.Logger;
+
+/**
+ * Persistent cache of the tags read from files, so that a file is parsed
+ * only once while it doesn't change.
+ * <p>
+ * Entries are keyed by canonical path, one per file, and only valid while
+ * the size and the last modified time of the file are the ones it had when
+ * parsed. Entries of files that are gone or changed are pruned at most once
+ * per {@link #PRUNE_INTERVAL_MILLIS}.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TagsCacheDB {
+
+    private static final Logger LOG = Logger.getLogger(TagsCacheDB.class);
+
+    static {
+        try {
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final String DATABASE_NAME = "tagscache";
+
+    private static final int DATABASE_VERSION = 3;
+
+    private static final String TABLE_NAME = "TagsCache";
+
+    private static final int ARTWORK_UNKNOWN = -1;
+    private static final int ARTWORK_NONE = 0;
+    private static final int ARTWORK_PRESENT = 1;
+
+    private static final long PRUNE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final int PRUNE_BATCH_SIZE = 500;
+
+    private static final String[] TAGS_COLUMNS = new String[] { Columns.FILE_SIZE, Columns.LAST_MODIFIED, Columns.DURATION, Columns.BITRATE, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.COMMENT, Columns.GENRE, Columns.TRACK, Columns.YEAR, Columns.PARSE_FAILED };
+
+    private static final String MERGE_SQL = "MERGE INTO " + TABLE_NAME + " (" + Columns.FILE_PATH + ", " + Columns.FILE_SIZE + ", " + Columns.LAST_MODIFIED + ", " + Columns.DURATION + ", " + Columns.BITRATE + ", " + Columns.TITLE + ", " + Columns.ARTIST + ", " + Columns.ALBUM + ", " + Columns.COMMENT + ", "
+            + Columns.GENRE + ", " + Columns.TRACK + ", " + Columns.YEAR + ", " + Columns.ARTWORK + ", " + Columns.PARSE_FAILED + ") KEY (" + Columns.FILE_PATH + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final DatabaseHelper databaseHelper;
+
+    private volatile long lastPrune;
+
+    private static final TagsCacheDB instance = new TagsCacheDB();
+
+    public static TagsCacheDB instance() {
+        return instance;
+    }
+
+    private TagsCacheDB() {
+        databaseHelper = new DatabaseHelper(new Context());
+    }
+
+    /**
+     * Resolves the canonical path, size and last modified time of the file
+     * once, for all the calls made about it.
+     */
+    public FileKey key(File file) {
+        return new FileKey(canonicalPath(file), file.length(), file.lastModified());
+    }
+
+    /**
+     * Returns the cached tags of the file, or null if they are not cached,
+     * the file changed since or it couldn't be parsed.
+     */
+    public TagsData get(FileKey key) {
+        Cursor c = null;
+
+        try {
+            c = query(TAGS_COLUMNS, key);
+
+            if (c != null && c.moveToNext() && key.matches(c.getLong(1), c.getLong(2)) && c.getInt(12) == 0) {
+                return new TagsData(c.getInt(3), c.getString(4), c.getString(5), c.getString(6), c.getString(7), c.getString(8), c.getString(9), c.getString(10), c.getString(11));
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error reading cached tags of file: " + key.path, e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Caches the tags of the file, replacing the ones of older versions of it.
+     */
+    public void put(FileKey key, TagsData data) {
+        Object[] args = new Object[] { key.path, key.size, key.lastModified, Long.valueOf(data.getDuration()), data.getBitrate(), data.getTitle(), data.getArtist(), data.getAlbum(), data.getComment(), data.getGenre(), data.getTrack(), data.getYear(), Long.valueOf(ARTWORK_UNKNOWN), Long.valueOf(0) };
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        // a single statement on the unique path, concurrent parses of a file can't duplicate it
+        db.execSQL(MERGE_SQL, args);
+    }
+
+    /**
+     * Records that no parser could read the file, so it's not probed again
+     * while it doesn't change.
+     */
+    public void putParseFailed(FileKey key) {
+        Object[] args = new Object[] { key.path, key.size, key.lastModified, null, null, null, null, null, null, null, null, null, Long.valueOf(ARTWORK_NONE), Long.valueOf(1) };
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        db.execSQL(MERGE_SQL, args);
+    }
+
+    /**
+     * Returns if the file is known to not be parseable in its current version.
+     */
+    public boolean isParseFailed(FileKey key) {
+        Cursor c = null;
+
+        try {
+            c = query(new String[] { Columns.FILE_SIZE, Columns.LAST_MODIFIED, Columns.PARSE_FAILED }, key);
+
+            return c != null && c.moveToNext() && key.matches(c.getLong(1), c.getLong(2)) && c.getInt(3) != 0;
+        } catch (Throwable e) {
+            LOG.warn("Error reading cached parse failure of file: " + key.path, e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns if the cached entry of the file says it has artwork, or null
+     * if it's unknown.
+     */
+    public Boolean hasArtwork(FileKey key) {
+        Cursor c = null;
+
+        try {
+            c = query(new String[] { Columns.FILE_SIZE, Columns.LAST_MODIFIED, Columns.ARTWORK }, key);
+
+            if (c != null && c.moveToNext() && key.matches(c.getLong(1), c.getLong(2))) {
+                int artwork = c.getInt(3);
+                return artwork != ARTWORK_UNKNOWN ? artwork == ARTWORK_PRESENT : null;
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error reading cached artwork presence of file: " + key.path, e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Records in the cached entry of the file, if there is one, whether it
+     * has artwork.
+     */
+    public void setArtwork(FileKey key, boolean present) {
+        ContentValues values = new ContentValues();
+        values.put(Columns.ARTWORK, present ? ARTWORK_PRESENT : ARTWORK_NONE);
+
+        String where = Columns.FILE_PATH + " = ? AND " + Columns.FILE_SIZE + " = ? AND " + Columns.LAST_MODIFIED + " = ?";
+        String[] whereArgs = new String[] { key.path, String.valueOf(key.size), String.valueOf(key.lastModified) };
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        db.update(TABLE_NAME, values, where, whereArgs);
+    }
+
+    /**
+     * Deletes the entries of the files that are gone or changed since they
+     * were cached, if the last prune is older than {@link #PRUNE_INTERVAL_MILLIS}.
+     * It checks every file, so it must not run in the UI thread.
+     */
+    public void pruneIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastPrune < PRUNE_INTERVAL_MILLIS) {
+            return;
+        }
+        lastPrune = now;
+
+        List<String> stale = new ArrayList<String>();
+
+        Cursor c = null;
+        try {
+            SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+            qb.setTables(TABLE_NAME);
+
+            c = qb.query(databaseHelper.getReadableDatabase(), new String[] { Columns.ID, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.LAST_MODIFIED }, null, null, null, null, null);
+
+            while (c.moveToNext()) {
+                File file = new File(c.getString(2));
+                if (!file.exists() || file.length() != c.getLong(3) || file.lastModified() != c.getLong(4)) {
+                    stale.add(String.valueOf(c.getInt(1)));
+                }
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error reading the tags cache to prune it", e);
+            return;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        for (int i = 0; i < stale.size(); i += PRUNE_BATCH_SIZE) {
+            List<String> ids = stale.subList(i, Math.min(i + PRUNE_BATCH_SIZE, stale.size()));
+
+            StringBuilder where = new StringBuilder(Columns.ID + " IN (");
+            for (int j = 0; j < ids.size(); j++) {
+                where.append(j > 0 ? ",?" : "?");
+            }
+            where.append(")");
+
+            db.delete(TABLE_NAME, where.toString(), ids.toArray(new String[ids.size()]));
+        }
+
+        if (!stale.isEmpty()) {
+            LOG.info("Pruned " + stale.size() + " stale entries from the tags cache");
+        }
+    }
+
+    private Cursor query(String[] columns, FileKey key) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+
+        qb.setTables(TABLE_NAME);
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        return qb.query(db, columns, Columns.FILE_PATH + " = ?", new String[] { key.path }, null, null, null);
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * The canonical path, size and last modified time of a file, as they
+     * were when it was resolved.
+     */
+    public static final class FileKey {
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        private FileKey(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    public static final class Columns {
+
+        private Columns() {
+        }
+
+        public static final String ID = "id";
+        public static final String FILE_PATH = "filePath";
+        public static final String FILE_SIZE = "fileSize";
+        public static final String LAST_MODIFIED = "lastModified";
+        public static final String DURATION = "duration";
+        public static final String BITRATE = "bitrate";
+        public static final String TITLE = "title";
+        public static final String ARTIST = "artist";
+        public static final String ALBUM = "album";
+        public static final String COMMENT = "comment";
+        public static final String GENRE = "genre";
+        public static final String TRACK = "track";
+        public static final String YEAR = "year";
+        public static final String ARTWORK = "artwork";
+        public static final String PARSE_FAILED = "parseFailed";
+    }
+
+    /**
+     * This class helps open, create, and upgrade the database file.
+     */
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        // 1MB cache size, entries are read by path with no scans
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION, "CACHE_SIZE=1024");
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            // paths are case sensitive, no IGNORECASE here, and the unique constraint indexes them
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.FILE_PATH + " VARCHAR UNIQUE," + Columns.FILE_SIZE + " BIGINT," + Columns.LAST_MODIFIED + " BIGINT," + Columns.DURATION + " INTEGER," + Columns.BITRATE + " VARCHAR," + Columns.TITLE + " VARCHAR,"
+                    + Columns.ARTIST + " VARCHAR," + Columns.ALBUM + " VARCHAR," + Columns.COMMENT + " VARCHAR," + Columns.GENRE + " VARCHAR," + Columns.TRACK + " VARCHAR," + Columns.YEAR + " VARCHAR," + Columns.ARTWORK + " INTEGER," + Columns.PARSE_FAILED + " INTEGER" + ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            LOG.warn("Upgrading tags cache database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+            onCreate(db);
+        }
+    }
+}
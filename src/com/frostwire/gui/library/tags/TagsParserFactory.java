@@ -21,10 +21,13 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
+import org.jaudiotagger.audio.asf.AsfFileReader;
 import org.limewire.util.FilenameUtils;
 
 /**
- * 
+ * Picks the parser of a file by its extension. Only the formats without a
+ * Java parser fall through to {@link MPlayerParser}, which spawns a process.
+ *
  * @author aldenml
  *
  */
@@ -35,7 +38,10 @@ class TagsParserFactory {
     private static final List<String> MP4_EXTENSIONS = Arrays.asList("mp4", "m4v", "mov", "3gp");
     private static final List<String> OGG_EXTENSIONS = Arrays.asList("ogg");
     private static final List<String> FLAC_EXTENSIONS = Arrays.asList("flac");
-    private static final List<String> JAUDIOTAGGER_EXTENSIONS = Arrays.asList("wma", "wav");
+    private static final List<String> JAUDIOTAGGER_EXTENSIONS = Arrays.asList("wma", "wav", "ra", "rm", "m4b", "m4p", "aif");
+    // same container as wma, jaudiotagger reads them if told so
+    private static final List<String> ASF_EXTENSIONS = Arrays.asList("wmv", "asf");
+    private static final List<String> FLV_EXTENSIONS = Arrays.asList("flv");
 
     public TagsParser getInstance(File file) {
         String ext = FilenameUtils.getExtension(file.getName());
@@ -52,6 +58,10 @@ class TagsParserFactory {
             return new FlacParser(file);
         } else if (isJaudiotagger(ext)) {
             return new JaudiotaggerParser(file);
+        } else if (isAsf(ext)) {
+            return new JaudiotaggerParser(file, new AsfFileReader());
+        } else if (isFlv(ext)) {
+            return new FlvParser(file);
         } else {
             return new MPlayerParser(file);
         }
@@ -80,4 +90,12 @@ class TagsParserFactory {
     private boolean isJaudiotagger(String ext) {
         return JAUDIOTAGGER_EXTENSIONS.contains(ext);
     }
+
+    private boolean isAsf(String ext) {
+        return ASF_EXTENSIONS.contains(ext);
+    }
+
+    private boolean isFlv(String ext) {
+        return FLV_EXTENSIONS.contains(ext);
+    }
 }
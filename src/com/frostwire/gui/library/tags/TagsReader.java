@@ -37,8 +37,19 @@ public class TagsReader {
         this.file = file;
     }
 
+    /**
+     * Returns the tags of the file, from the tags cache if the file didn't
+     * change since it was last parsed. Files no parser can read are
+     * remembered as such, and not probed again until they change.
+     */
     public TagsData parse() {
-        TagsData data = null;
+        TagsCacheDB cache = TagsCacheDB.instance();
+        TagsCacheDB.FileKey key = cache.key(file);
+
+        TagsData data = cache.get(key);
+        if (data != null || cache.isParseFailed(key)) {
+            return data;
+        }
 
         TagsParser parser = new TagsParserFactory().getInstance(file);
 
@@ -46,9 +57,16 @@ public class TagsReader {
             data = parser.parse();
 
             // aldenml: fallback to mplayer parsing, refactor this logic (remove it)
-            if (data == null || isEmpty(data)) {
+            if ((data == null || isEmpty(data)) && !(parser instanceof MPlayerParser)) {
                 data = new MPlayerParser(file).parse();
             }
+
+            if (data != null) {
+                cache.put(key, data);
+            } else if (!Thread.currentThread().isInterrupted()) {
+                // an interrupted probe says nothing about the file
+                cache.putParseFailed(key);
+            }
         } else {
             LOG.warn("Unable to create tags parser for file: " + file);
         }
@@ -57,11 +75,20 @@ public class TagsReader {
     }
 
     public BufferedImage getArtwork() {
+        TagsCacheDB cache = TagsCacheDB.instance();
+        TagsCacheDB.FileKey key = cache.key(file);
+
+        // known to have none, no need to open the file
+        if (Boolean.FALSE.equals(cache.hasArtwork(key))) {
+            return null;
+        }
+
         BufferedImage image = null;
 
         TagsParser parser = new TagsParserFactory().getInstance(file);
         if (parser != null) {
             image = parser.getArtwork();
+            cache.setArtwork(key, image != null);
         } else {
             LOG.warn("Unable to create tags parser for file: " + file);
         }
@@ -1021,8 +1021,13 @@ MPlayerInstance
             //COMMENT/UNCOMMENT THIS FOR TO SEE WHAT COMMAND IS BEING SENT TO MPLAYER
             //printCommand(cmd);
 
+            Process process = null;
+
             try {
-                InputStream stdOut = Runtime.getRuntime().exec(cmd).getInputStream();
+                // stderr merged, so that mplayer never blocks on a full pipe nobody reads
+                process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+
+                InputStream stdOut = process.getInputStream();
 
                 final BufferedReader brStdOut = new BufferedReader(new InputStreamReader(stdOut));
 
@@ -1050,6 +1055,11 @@ MPlayerInstance
             } catch (Throwable e) {
 
                 e.printStackTrace();
+            } finally {
+                // done or timed out, don't leave it running
+                if (process != null) {
+                    process.destroy();
+                }
             }
         } finally {
         }
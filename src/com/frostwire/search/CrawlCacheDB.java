@@ -18,6 +18,7 @@
 
 package com.frostwire.search;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.commons.io.FileUtils;
@@ -52,7 +53,7 @@ public final class CrawlCacheDB {
 
     private static final String DATABASE_NAME = "crawldb";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     private static final String TABLE_NAME = "CacheData";
 
@@ -71,6 +72,10 @@ public final class CrawlCacheDB {
     }
 
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 
         qb.setTables(TABLE_NAME);
@@ -87,11 +92,31 @@ public final class CrawlCacheDB {
         // Get the database and run the query
         SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
         return c;
     }
 
+    /**
+     * Returns the number of entries and the sum of their data sizes,
+     * in a single aggregate query.
+     */
+    public long[] countAndSize() {
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        Cursor c = db.rawQueryWithFactory(null, "SELECT COUNT(*), SUM(" + Columns.DATA_SIZE + ") FROM " + TABLE_NAME, null, TABLE_NAME);
+
+        if (c == null) {
+            return null;
+        }
+
+        try {
+            return c.moveToNext() ? new long[] { c.getLong(1), c.getLong(2) } : null;
+        } finally {
+            c.close();
+        }
+    }
+
     public long insert(ContentValues initialValues) {
         ContentValues values;
 
@@ -138,6 +163,7 @@ public final class CrawlCacheDB {
         public static final String KEY = "key";
         public static final String DATA = "data";
         public static final String DATE_ADDED = "dateAdded";
+        public static final String DATA_SIZE = "dataSize";
     }
 
     /**
@@ -160,12 +186,25 @@ public final class CrawlCacheDB {
                 }
             }
 
+            // every version lives in its own folder, remove the ones without size tracking
+            for (int version = 1; version < DATABASE_VERSION; version++) {
+                File old = new File(new Context().getDatabasePath(DATABASE_NAME).getAbsolutePath() + "." + version);
+                if (old.exists()) {
+                    try {
+                        FileUtils.deleteDirectory(old);
+                    } catch (IOException e) {
+                        LOG.warn("Unable to delete old crawl cache database: " + old);
+                    }
+                }
+            }
+
             db.execSQL("SET IGNORECASE TRUE");
 
-            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATE_ADDED + " BIGINT" + ");");
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATE_ADDED + " BIGINT," + Columns.DATA_SIZE + " BIGINT" + ");");
 
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.ID + " ON " + TABLE_NAME + " (" + Columns.ID + ")");
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.KEY + " ON " + TABLE_NAME + " (" + Columns.KEY + ")");
+            db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.DATE_ADDED + " ON " + TABLE_NAME + " (" + Columns.DATE_ADDED + ")");
         }
 
         @Override
@@ -17,6 +17,16 @@
 
 package com.frostwire.search;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.limewire.concurrent.ExecutorsHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +36,13 @@ import com.frostwire.search.CrawlCacheDB.Columns;
 import com.limegroup.gnutella.settings.SearchSettings;
 
 /**
+ * Two tier crawl cache, a memory LRU of the hot entries bounded by bytes in
+ * front of the database store.
+ * <p>
+ * The database entries expire after {@link SearchSettings#SMART_SEARCH_DATABASE_TTL_DAYS}
+ * and the store is kept under {@link SearchSettings#SMART_SEARCH_DATABASE_MAX_SIZE}
+ * by a background compaction that evicts the oldest entries. The number of
+ * entries and bytes are tracked in memory, so size() doesn't touch the database.
  * 
  * @author gubatron
  * @author aldenml
@@ -35,27 +52,80 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatabaseCrawlCache.class);
 
+    private static final long MEMORY_MAX_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Bigger entries are only kept in the database, to not flush the memory tier.
+     */
+    private static final int MEMORY_MAX_ENTRY_BYTES = 512 * 1024;
+
+    private static final long COMPACTION_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * Compaction evicts down to this fraction of the max size, so it doesn't
+     * run again right after the next put.
+     */
+    private static final double COMPACTION_TARGET = 0.9;
+
+    private static final int EVICTION_BATCH_SIZE = 1000;
+
+    private static final ExecutorService COMPACTION_EXECUTOR = ExecutorsHelper.newProcessingQueue("CrawlCacheCompaction");
+
     private CrawlCacheDB db;
 
+    private final LinkedHashMap<String, MemoryEntry> memory;
+    private long memoryBytes;
+
+    private final AtomicLong count;
+    private final AtomicLong bytes;
+    private volatile boolean countsLoaded;
+
+    private final AtomicLong memoryHits;
+    private final AtomicLong databaseHits;
+    private final AtomicLong misses;
+
+    private final AtomicBoolean compactionPending;
+    private volatile long lastCompaction;
+
     public DatabaseCrawlCache() {
         db = CrawlCacheDB.instance();
+
+        memory = new LinkedHashMap<String, MemoryEntry>(256, 0.75f, true);
+
+        count = new AtomicLong();
+        bytes = new AtomicLong();
+
+        memoryHits = new AtomicLong();
+        databaseHits = new AtomicLong();
+        misses = new AtomicLong();
+
+        compactionPending = new AtomicBoolean();
+
+        requestCompaction();
     }
 
     @Override
     public byte[] get(String key) {
-        byte[] data = null;
+        byte[] data = memoryGet(key);
+
+        if (data != null) {
+            memoryHits.incrementAndGet();
+            return data;
+        }
 
         Cursor c = null;
+        long dateAdded = 0;
 
         try {
-            String[] columns = new String[] { Columns.DATA };
-            String where = Columns.KEY + " = ?";
-            String[] whereArgs = new String[] { key };
+            String[] columns = new String[] { Columns.DATA, Columns.DATE_ADDED };
+            String where = Columns.KEY + " = ? AND " + Columns.DATE_ADDED + " >= ?";
+            String[] whereArgs = new String[] { key, String.valueOf(expirationTime()) };
 
             c = db.query(columns, where, whereArgs, null);
 
             if (c.moveToNext()) {
                 data = c.getBytes(c.getColumnIndex(Columns.DATA));
+                dateAdded = c.getLong(c.getColumnIndex(Columns.DATE_ADDED));
             }
 
         } catch (Throwable e) {
@@ -66,6 +136,13 @@ public class DatabaseCrawlCache implements CrawlCache {
             }
         }
 
+        if (data != null) {
+            databaseHits.incrementAndGet();
+            memoryPut(key, data, dateAdded);
+        } else {
+            misses.incrementAndGet();
+        }
+
         return data;
     }
 
@@ -73,25 +150,39 @@ public class DatabaseCrawlCache implements CrawlCache {
     public void put(String key, byte[] data) {
         if (SearchSettings.SMART_SEARCH_ENABLED.getValue()) {
             try {
+                databaseRemove(key);
+
+                long now = System.currentTimeMillis() / 1000;
+
                 ContentValues values = new ContentValues();
 
                 values.put(Columns.KEY, key);
                 values.put(Columns.DATA, data);
+                values.put(Columns.DATA_SIZE, Long.valueOf(data.length));
+                values.put(Columns.DATE_ADDED, Long.valueOf(now));
+
+                if (db.insert(values) > 0) {
+                    count.incrementAndGet();
+                    bytes.addAndGet(data.length);
+                }
 
-                db.insert(values);
+                memoryPut(key, data, now);
             } catch (Throwable e) {
                 LOG.warn("Error putting value to crawl cache: " + e.getMessage());
             }
+
+            if (bytes.get() > maxBytes() || System.currentTimeMillis() - lastCompaction > COMPACTION_INTERVAL_MILLIS) {
+                requestCompaction();
+            }
         }
     }
 
     @Override
     public void remove(String key) {
-        try {
-            String where = Columns.KEY + " = ?";
-            String[] whereArgs = new String[] { key };
+        memoryRemove(key);
 
-            db.delete(where, whereArgs);
+        try {
+            databaseRemove(key);
         } catch (Throwable e) {
             LOG.warn("Error deleting value from crawl cache: " + e.getMessage());
         }
@@ -99,8 +190,15 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     @Override
     public synchronized void clear() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+
         try {
             db.delete("", new String[] {});
+            count.set(0);
+            bytes.set(0);
         } catch (Throwable e) {
             LOG.warn("Error deleting crawl cache: " + e.getMessage());
         }
@@ -108,30 +206,243 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     @Override
     public long size() {
-        long size = 0;
+        loadCounts();
+        return count.get();
+    }
 
-        Cursor c = null;
+    /**
+     * Bytes of crawled data in the database.
+     */
+    public long getDatabaseBytes() {
+        loadCounts();
+        return bytes.get();
+    }
 
-        try {
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
 
-            String[] columns = new String[] { Columns.ID };
-            String where = "";
-            String[] whereArgs = new String[] {};
+    public long getDatabaseHits() {
+        return databaseHits.get();
+    }
 
-            c = db.query(columns, where, whereArgs, null);
+    public long getMisses() {
+        return misses.get();
+    }
 
-            if (c != null) {
-                size = c.getCount();
+    /**
+     * Entries expire in memory as they do in the database.
+     */
+    private byte[] memoryGet(String key) {
+        synchronized (memory) {
+            MemoryEntry entry = memory.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.dateAdded < expirationTime()) {
+                memoryRemove(key);
+                return null;
+            }
+            return entry.data;
+        }
+    }
+
+    private void memoryPut(String key, byte[] data, long dateAdded) {
+        if (data.length > MEMORY_MAX_ENTRY_BYTES) {
+            return;
+        }
+
+        synchronized (memory) {
+            MemoryEntry old = memory.put(key, new MemoryEntry(data, dateAdded));
+            if (old != null) {
+                memoryBytes -= old.data.length;
+            }
+            memoryBytes += data.length;
+
+            // evict the least recently used entries
+            Iterator<Map.Entry<String, MemoryEntry>> it = memory.entrySet().iterator();
+            while (memoryBytes > MEMORY_MAX_BYTES && it.hasNext()) {
+                memoryBytes -= it.next().getValue().data.length;
+                it.remove();
+            }
+        }
+    }
+
+    private void memoryRemove(String key) {
+        synchronized (memory) {
+            MemoryEntry old = memory.remove(key);
+            if (old != null) {
+                memoryBytes -= old.data.length;
+            }
+        }
+    }
+
+    private void memoryRemoveExpired(long expirationTime) {
+        synchronized (memory) {
+            Iterator<MemoryEntry> it = memory.values().iterator();
+            while (it.hasNext()) {
+                MemoryEntry entry = it.next();
+                if (entry.dateAdded < expirationTime) {
+                    memoryBytes -= entry.data.length;
+                    it.remove();
+                }
             }
+        }
+    }
+
+    /**
+     * Removes the rows of the key, keeping the counts.
+     */
+    private void databaseRemove(String key) {
+        String where = Columns.KEY + " = ?";
+        String[] whereArgs = new String[] { key };
+
+        Cursor c = null;
+        long removedBytes = 0;
+        int removed = 0;
 
-        } catch (Exception e) {
-            LOG.warn("Failed to get num of shared files", e);
+        try {
+            c = db.query(new String[] { Columns.DATA_SIZE }, where, whereArgs, null);
+            while (c.moveToNext()) {
+                removedBytes += c.getLong(1);
+                removed++;
+            }
         } finally {
             if (c != null) {
                 c.close();
             }
         }
 
-        return size;
+        if (removed > 0 && db.delete(where, whereArgs) > 0) {
+            count.addAndGet(-removed);
+            bytes.addAndGet(-removedBytes);
+        }
+    }
+
+    private void loadCounts() {
+        if (countsLoaded) {
+            return;
+        }
+
+        synchronized (count) {
+            if (countsLoaded) {
+                return;
+            }
+
+            try {
+                long[] counts = db.countAndSize();
+
+                if (counts != null) {
+                    count.set(counts[0]);
+                    bytes.set(counts[1]);
+                    countsLoaded = true;
+                }
+            } catch (Throwable e) {
+                LOG.warn("Failed to count the crawl cache entries", e);
+            }
+        }
+    }
+
+    private void requestCompaction() {
+        if (compactionPending.compareAndSet(false, true)) {
+            COMPACTION_EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    try {
+                        compact();
+                    } catch (Throwable e) {
+                        LOG.warn("Error compacting the crawl cache", e);
+                    } finally {
+                        lastCompaction = System.currentTimeMillis();
+                        compactionPending.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the expired entries and then the oldest ones while over the
+     * max size, from the database and from memory. The counts are reloaded
+     * from the database at the end.
+     */
+    private void compact() {
+        loadCounts();
+
+        long expirationTime = expirationTime();
+        memoryRemoveExpired(expirationTime);
+
+        int expired = db.delete(Columns.DATE_ADDED + " < ?", new String[] { String.valueOf(expirationTime) });
+        if (expired > 0) {
+            LOG.info("Removed " + expired + " expired entries from crawl cache");
+            countsLoaded = false;
+            loadCounts();
+        }
+
+        if (bytes.get() <= maxBytes()) {
+            return;
+        }
+
+        long target = (long) (maxBytes() * COMPACTION_TARGET);
+
+        while (bytes.get() > target) {
+            long toFree = bytes.get() - target;
+            long lastId = -1;
+            long freed = 0;
+            List<String> keys = new ArrayList<String>();
+
+            Cursor c = null;
+            try {
+                String[] columns = new String[] { Columns.ID, Columns.DATA_SIZE, Columns.KEY };
+                c = db.query(columns, null, null, Columns.ID + " ASC", String.valueOf(EVICTION_BATCH_SIZE));
+                while (freed < toFree && c.moveToNext()) {
+                    lastId = c.getLong(1);
+                    freed += c.getLong(2);
+                    keys.add(c.getString(3));
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+
+            if (lastId == -1) {
+                break;
+            }
+
+            int evicted = db.delete(Columns.ID + " <= ?", new String[] { String.valueOf(lastId) });
+            for (String key : keys) {
+                memoryRemove(key);
+            }
+            LOG.info("Evicted " + evicted + " entries from crawl cache, " + freed + " bytes");
+
+            countsLoaded = false;
+            loadCounts();
+
+            if (evicted <= 0) {
+                break;
+            }
+        }
+    }
+
+    private static long maxBytes() {
+        return SearchSettings.SMART_SEARCH_DATABASE_MAX_SIZE.getValue() * 1024L * 1024L;
+    }
+
+    /**
+     * Time in seconds, like the dateAdded column, before which entries are expired.
+     */
+    private static long expirationTime() {
+        return System.currentTimeMillis() / 1000 - SearchSettings.SMART_SEARCH_DATABASE_TTL_DAYS.getValue() * 24L * 60L * 60L;
+    }
+
+    private static final class MemoryEntry {
+
+        private final byte[] data;
+        private final long dateAdded;
+
+        public MemoryEntry(byte[] data, long dateAdded) {
+            this.data = data;
+            this.dateAdded = dateAdded;
+        }
     }
 }
@@ -16,11 +16,13 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.limegroup.gnutella.gui.tables.AbstractTableMediator;
 import com.limegroup.gnutella.gui.tables.BasicDataLineModel;
 import com.limegroup.gnutella.gui.tables.LimeTableColumn;
+import com.limegroup.gnutella.gui.tables.TreeList;
 import com.limegroup.gnutella.settings.SearchSettings;
 
 /** 
@@ -43,9 +45,16 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     protected final SearchTableColumns COLUMNS = new SearchTableColumns();
 
     /**
-     * HashMap for quick access to indexes based on SHA1 info.
+     * HashMap for quick access to lines based on SHA1 info, the row of
+     * a line is resolved by the tree list, so no remapping is needed when
+     * lines are inserted in the middle.
      */
-    private final Map<String, Integer> _indexes = new HashMap<String, Integer>();
+    private final Map<String, SearchResultDataLine> _indexes = new HashMap<String, SearchResultDataLine>();
+
+    /**
+     * The lines, kept in a tree so sorted inserts are O(log n).
+     */
+    private final TreeList<SearchResultDataLine> _lines;
 
     private int _numResults;
 
@@ -54,6 +63,8 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      */
     ResultPanelModel() {
         super(SearchResultDataLine.class);
+        _lines = new TreeList<SearchResultDataLine>();
+        _list = _lines;
     }
 
     /**
@@ -104,12 +115,12 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      * @param row  the index of the row to remove.
      */
     public void remove(int row) {
-        String sha1 = getHash(row);
-        if (sha1 != null)
+        SearchResultDataLine tl = get(row);
+        String sha1 = tl.getHash();
+        if (sha1 != null && _indexes.get(sha1) == tl)
             _indexes.remove(sha1);
         super.remove(row);
         _numResults -= 1;
-        remapIndexes(row);
     }
 
     /**
@@ -141,16 +152,52 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
         _numResults += 1;
         String sha1 = tl.getHash();
         if (sha1 != null)
-            _indexes.put(sha1, new Integer(row));
-        int addedAt = super.add(tl, row);
-        remapIndexes(addedAt + 1);
-        return addedAt;
+            _indexes.put(sha1, tl);
+        return super.add(tl, row);
     }
 
     /**
-     * Gets the row this DataLine is at.
+     * Finds the sorted position descending the tree, in O(log n).
+     */
+    public int getSortedPosition(SearchResultDataLine tl) {
+        return _lines.getSortedPosition(tl, this);
+    }
+
+    /**
+     * Maintains the indexes HashMap, in sorted mode every line is inserted
+     * at its sorted position in the tree and a single event is fired.
+     */
+    public int addAll(List<SearchResultDataLine> lines, boolean sorted) {
+        if (lines.isEmpty())
+            return 0;
+
+        for (SearchResultDataLine tl : lines) {
+            String sha1 = tl.getHash();
+            if (sha1 != null)
+                _indexes.put(sha1, tl);
+        }
+
+        if (sorted) {
+            for (SearchResultDataLine tl : lines) {
+                _lines.add(_lines.getSortedPosition(tl, this), tl);
+            }
+            fireTableDataChanged();
+        } else {
+            super.addAll(lines, false);
+        }
+
+        _numResults += lines.size();
+        return lines.size();
+    }
+
+    /**
+     * Gets the row this DataLine is at, or the row of the line
+     * with the same SHA1.
      */
     public int getRow(SearchResultDataLine tl) {
+        int row = _lines.indexOf(tl);
+        if (row != -1)
+            return row;
         String sha1 = tl.getHash();
         if (sha1 != null)
             return fastMatch(sha1);
@@ -158,16 +205,6 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
             return super.getRow(tl);
     }
 
-    /** 
-     * Overrides the default sort to maintain the indexes HashMap,
-     * according to the current sort column and order.
-     */
-    protected void doResort() {
-        super.doResort();
-        _indexes.clear(); // it's easier & quicker to just clear & re-input
-        remapIndexes(0);
-    }
-
     /**
      * Does nothing -- lines need no cleanup.
      */
@@ -184,36 +221,6 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
         super.clear();
     }
 
-    /**
-     * Remaps the indexes, starting at 'start' and going to the end of
-     * the list.  This is needed for when rows are added to the middle of
-     * the list to maintain the correct rows per objects.
-     */
-    private void remapIndexes(int start) {
-        remapIndexes(start, getRowCount());
-    }
-
-    /**
-     * Remaps the indexes, starting at 'start' and going to 'end'.
-     * This is useful for when we move a row from end to start or vice versa.
-     */
-    private void remapIndexes(int start, int end) {
-        for (int i = start; i < end; i++) {
-            String sha1 = getHash(i);
-            if (sha1 != null)
-                _indexes.put(sha1, new Integer(i));
-        }
-    }
-
-    /**
-     * Gets the SHA1 URN for a row.
-     */
-    private String getHash(int idx) {
-        if (idx >= getRowCount())
-            return null;
-        return get(idx).getHash();
-    }
-
     /** Compares the spam difference between the two rows. */
     private int compareSpam(SearchResultDataLine a, SearchResultDataLine b) {
         if (SearchSettings.moveJunkToBottom()) {
@@ -249,11 +256,11 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      * Fast match -- lookup in the table.
      */
     private int fastMatch(String sha1) {
-        Integer idx = _indexes.get(sha1);
-        if (idx == null)
+        SearchResultDataLine tl = _indexes.get(sha1);
+        if (tl == null)
             return -1;
         else
-            return idx.intValue();
+            return _lines.indexOf(tl);
     }
 
     public int getTotalResults() {
@@ -21,7 +21,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -38,6 +37,7 @@ import org.limewire.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.frostwire.gui.filters.KeywordMatcher;
 import com.frostwire.gui.filters.SearchFilter;
 import com.frostwire.gui.filters.SearchFilterFactory;
 import com.frostwire.gui.filters.SearchFilterFactoryImpl;
@@ -102,6 +102,13 @@ public final class SearchMediator {
 
     private static final int SEARCH_MANAGER_NUM_THREADS = 6;
 
+    /**
+     * Separators replaced by spaces when sanitizing, the words are checked
+     * before the chars.
+     */
+    private static final String[] SEPARATOR_WORDS = { ".torrent", "www.", ".com", ".net" };
+    private static final String SEPARATOR_CHARS = "\\/%_;-.()[]\n\rÐ&~{}*@^'=!,¡|#ÀÁ";
+
     private final SearchManager manager;
 
     /**
@@ -273,13 +280,20 @@ public final class SearchMediator {
         List<SearchResult> list = new LinkedList<SearchResult>();
 
         try {
+            KeywordMatcher matcher = null;
+
             for (SearchResult sr : results) {
                 if (sr instanceof CrawledSearchResult) {
                     // special case for youtube
                     if (sr instanceof YouTubeCrawledSearchResult) {
                         list.add(sr);
-                    } else if (filter(new LinkedList<String>(searchTokens), sr)) {
-                        list.add(sr);
+                    } else {
+                        if (matcher == null) {
+                            matcher = new KeywordMatcher(searchTokens);
+                        }
+                        if (filter(matcher, sr)) {
+                            list.add(sr);
+                        }
                     }
                 } else {
                     list.add(sr);
@@ -293,7 +307,11 @@ public final class SearchMediator {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
+    /**
+     * Returns true if all the search tokens are in the result's text,
+     * the tokens are matched in a single pass.
+     */
+    private boolean filter(KeywordMatcher tokens, SearchResult sr) {
         StringBuilder sb = new StringBuilder();
 
         sb.append(sr.getDisplayName());
@@ -308,29 +326,89 @@ public final class SearchMediator {
         String str = sanitize(sb.toString());
         str = normalize(str);
 
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
-
-        return tokens.isEmpty();
+        return tokens.matchesAll(str);
     }
 
+    /**
+     * Removes the html tags and then the html entities, without
+     * crossing line breaks.
+     */
     private static String stripHtml(String str) {
-        str = str.replaceAll("\\<.*?>", "");
-        str = str.replaceAll("\\&.*?\\;", "");
+        str = strip(str, '<', '>');
+        str = strip(str, '&', ';');
         return str;
     }
 
-    private String sanitize(String str) {
+    private static String strip(String str, char open, char close) {
+        if (str.indexOf(open) == -1) {
+            return str;
+        }
+
+        StringBuilder sb = new StringBuilder(str.length());
+        int n = str.length();
+        for (int i = 0; i < n; i++) {
+            char c = str.charAt(i);
+            if (c == open) {
+                int end = i + 1;
+                while (end < n && str.charAt(end) != close && str.charAt(end) != '\n' && str.charAt(end) != '\r') {
+                    end++;
+                }
+                if (end < n && str.charAt(end) == close) {
+                    i = end;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replaces the separators with spaces and collapses the whitespaces,
+     * in a single pass over the text. As with the regexes it replaces, the
+     * whitespaces are those of {@code \s} and the result is trimmed.
+     */
+    private static String sanitize(String str) {
         str = stripHtml(str);
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
 
-        return str.trim();
+        StringBuilder sb = new StringBuilder(str.length());
+        int n = str.length();
+        for (int i = 0; i < n; i++) {
+            int skip = separatorLength(str, i);
+            char c = skip > 0 ? ' ' : str.charAt(i);
+            if (skip > 1) {
+                i += skip - 1;
+            }
+
+            if (isSpace(c)) {
+                if (sb.length() == 0 || sb.charAt(sb.length() - 1) != ' ') {
+                    sb.append(' ');
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString().trim();
+    }
+
+    /**
+     * The characters matched by {@code \s}, not the wider Character.isWhitespace.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Length of the separator at the position, 0 if there is none.
+     */
+    private static int separatorLength(String str, int i) {
+        for (String word : SEPARATOR_WORDS) {
+            if (str.startsWith(word, i)) {
+                return word.length();
+            }
+        }
+        return SEPARATOR_CHARS.indexOf(str.charAt(i)) != -1 ? 1 : 0;
     }
 
     private List<String> tokenize(String keywords) {
@@ -352,12 +430,32 @@ public final class SearchMediator {
         return normalizedTokens;
     }
 
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
+    /**
+     * Removes the diacritics and lowercases, the decomposition is skipped
+     * for plain ascii text since it can't change it.
+     */
+    private static String normalize(String token) {
+        String norm = isAscii(token) ? token : Normalizer.normalize(token, Normalizer.Form.NFKD);
+
+        StringBuilder sb = new StringBuilder(norm.length());
+        for (int i = 0; i < norm.length(); i++) {
+            char c = norm.charAt(i);
+            // the combining diacritical marks block
+            if (c < '\u0300' || c > '\u036F') {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString().toLowerCase(Locale.US);
+    }
 
-        return norm;
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private static void updateSearchIcon(final long token, final boolean active) {
@@ -561,11 +659,15 @@ public final class SearchMediator {
                             public void run() {
                                 try {
                                     SearchFilter filter = getSearchFilterFactory().createFilter();
+                                    List<UISearchResult> allowed = new ArrayList<UISearchResult>(uiResults.size());
                                     for (UISearchResult sr : uiResults) {
                                         if (filter.allow(sr)) {
-                                            getSearchResultDisplayer().addQueryResult(token, sr, rp);
+                                            allowed.add(sr);
                                         }
                                     }
+                                    if (!allowed.isEmpty()) {
+                                        getSearchResultDisplayer().addQueryResults(token, allowed, rp);
+                                    }
                                 } catch (Exception e) {
                                     e.printStackTrace();
                                 }
@@ -334,14 +334,13 @@ public final class SearchResultDisplayer implements RefreshListener {
 
     /**
      * If i rp is no longer the i'th panel of this, returns silently. Otherwise
-     * adds line to rp under the given group. Updates the count on the tab in
+     * adds lines to rp in a single batch. Updates the count on the tab in
      * this and restarts the spinning lime.
      * 
-     * @requires this is called from Swing thread, group is null or similar to
-     *           line and already in rp
+     * @requires this is called from Swing thread
      * @modifies this
      */
-    void addQueryResult(long token, UISearchResult line, SearchResultMediator rp) {
+    void addQueryResults(long token, List<UISearchResult> lines, SearchResultMediator rp) {
         if (rp.isStopped()) {
             return;
         }
@@ -350,7 +349,7 @@ public final class SearchResultDisplayer implements RefreshListener {
         if (!rp.matches(token))//GUID of rp!=replyGuid
             throw new IllegalArgumentException("guids don't match");
 
-        rp.add(line);
+        rp.addAll(lines);
 
         int resultPanelIndex = -1;
         // Search for the ResultPanel to verify it exists.
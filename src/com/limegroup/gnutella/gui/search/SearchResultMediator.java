@@ -885,4 +885,13 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
 
         schemaBox.updateCounters(o);
     }
+
+    @Override
+    public void addAll(List<UISearchResult> objects) {
+        super.addAll(objects);
+
+        for (UISearchResult o : objects) {
+            schemaBox.updateCounters(o);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.limegroup.gnutella.gui.search.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.frostwire.gui.filters.KeywordMatcher;
+
+/**
+ * Checks KeywordMatcher against one indexOf per keyword.
+ */
+public class KeywordMatcherTest {
+
+    @Test
+    public void testOverlappingKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("he", "she", "his", "hers"));
+
+        assertEquals("size", 4, matcher.size());
+        assertTrue("any in ushers", matcher.matchesAny("ushers"));
+        assertFalse("his is not in ushers", matcher.matchesAll("ushers"));
+        assertTrue("all in ushers and his", matcher.matchesAll("ushers and his"));
+        assertFalse("none in hi s", matcher.matchesAny("hi s"));
+    }
+
+    @Test
+    public void testSuffixKeywords() {
+        // bc and c are only reached through fail links while matching abc
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("abcd", "bc", "c"));
+
+        assertTrue("bc inside a partial abcd", matcher.matchesAny("xabcx"));
+        assertTrue("abcd holds bc and c", matcher.matchesAll("abcd"));
+        assertFalse("abcd is not in abc", matcher.matchesAll("abc"));
+        assertTrue("single char keyword", matcher.matchesAny("c"));
+    }
+
+    @Test
+    public void testCaseAndEdgeCases() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("FrostWire", "", null, "frostwire"));
+
+        assertEquals("empty and null keywords are skipped", 2, matcher.size());
+        assertTrue("case insensitive", matcher.matchesAll("get FROSTWIRE now"));
+
+        KeywordMatcher empty = new KeywordMatcher(Collections.<String> emptyList());
+        assertFalse("no keywords match nothing", empty.matchesAny("anything"));
+        assertTrue("no keywords are all found", empty.matchesAll("anything"));
+    }
+
+    @Test
+    public void testAgainstIndexOf() {
+        Random random = new Random(42);
+        String alphabet = "abAB";
+
+        for (int round = 0; round < 2000; round++) {
+            List<String> keywords = new ArrayList<String>();
+            int n = 1 + random.nextInt(6);
+            for (int i = 0; i < n; i++) {
+                keywords.add(randomString(random, alphabet, 1 + random.nextInt(4)));
+            }
+            String text = randomString(random, alphabet, random.nextInt(20));
+
+            KeywordMatcher matcher = new KeywordMatcher(keywords);
+
+            boolean any = false;
+            boolean all = true;
+            String lower = text.toLowerCase(Locale.US);
+            for (String keyword : keywords) {
+                boolean found = lower.contains(keyword.toLowerCase(Locale.US));
+                any |= found;
+                all &= found;
+            }
+
+            assertEquals("matchesAny " + keywords + " in " + text, any, matcher.matchesAny(text));
+            assertEquals("matchesAll " + keywords + " in " + text, all, matcher.matchesAll(text));
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
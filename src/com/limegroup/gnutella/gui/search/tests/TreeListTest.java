@@ -0,0 +1,142 @@
+package com.limegroup.gnutella.gui.search.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.limegroup.gnutella.gui.tables.TreeList;
+
+/**
+ * Checks TreeList against an ArrayList doing the same operations.
+ */
+public class TreeListTest {
+
+    private static final Comparator<String> BY_NUMBER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            return Integer.valueOf(a.substring(1)).compareTo(Integer.valueOf(b.substring(1)));
+        }
+    };
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        TreeList<String> tree = new TreeList<String>();
+        List<String> reference = new ArrayList<String>();
+
+        for (int i = 0; i < 20000; i++) {
+            int op = random.nextInt(10);
+            if (op < 5 || reference.isEmpty()) {
+                int index = random.nextInt(reference.size() + 1);
+                // distinct instances, the tree maps elements by identity
+                String element = new String("e" + i);
+                tree.add(index, element);
+                reference.add(index, element);
+            } else if (op < 8) {
+                int index = random.nextInt(reference.size());
+                assertSame("remove at " + index, reference.remove(index), tree.remove(index));
+            } else {
+                int index = random.nextInt(reference.size());
+                String element = new String("s" + i);
+                assertSame("set at " + index, reference.set(index, element), tree.set(index, element));
+            }
+
+            assertEquals("size after operation " + i, reference.size(), tree.size());
+
+            if (!reference.isEmpty()) {
+                int index = random.nextInt(reference.size());
+                assertSame("get at " + index, reference.get(index), tree.get(index));
+                assertEquals("indexOf at " + index, index, tree.indexOf(reference.get(index)));
+            }
+        }
+
+        assertSameElements(reference, tree);
+
+        for (String element : reference) {
+            assertTrue("contains " + element, tree.contains(element));
+        }
+        assertFalse("contains a missing element", tree.contains(new String("missing")));
+        assertEquals("indexOf an equal but distinct element", -1, tree.indexOf(new String(reference.get(0))));
+    }
+
+    @Test
+    public void testIndexBounds() {
+        TreeList<String> tree = new TreeList<String>();
+        tree.add(new String("a"));
+
+        expectOutOfBounds(tree, -1);
+        expectOutOfBounds(tree, 1);
+
+        try {
+            tree.add(2, new String("b"));
+            fail("add past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSortedPosition() {
+        Random random = new Random(7);
+        TreeList<String> tree = new TreeList<String>();
+        List<String> reference = new ArrayList<String>();
+
+        for (int i = 0; i < 5000; i++) {
+            String element = new String("n" + random.nextInt(500));
+            int index = tree.getSortedPosition(element, BY_NUMBER);
+            tree.add(index, element);
+            reference.add(element);
+        }
+
+        // a stable sort keeps equal elements in insertion order, as the tree does
+        Collections.sort(reference, BY_NUMBER);
+        assertSameElements(reference, tree);
+    }
+
+    @Test
+    public void testClear() {
+        TreeList<String> tree = new TreeList<String>();
+        String element = new String("a");
+        tree.add(element);
+        tree.clear();
+
+        assertTrue("empty after clear", tree.isEmpty());
+        assertFalse("no element after clear", tree.contains(element));
+        tree.add(element);
+        assertEquals("indexOf after clear", 0, tree.indexOf(element));
+    }
+
+    private static void assertSameElements(List<String> reference, TreeList<String> tree) {
+        assertEquals("size", reference.size(), tree.size());
+        int i = 0;
+        for (String element : tree) {
+            assertSame("element at " + i, reference.get(i), element);
+            i++;
+        }
+    }
+
+    private static void expectOutOfBounds(TreeList<String> tree, int index) {
+        try {
+            tree.get(index);
+            throw new AssertionError("get at " + index);
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            tree.remove(index);
+            throw new AssertionError("remove at " + index);
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
@@ -24,8 +24,10 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -521,6 +523,53 @@ public abstract class AbstractTableMediator<T extends DataLineModel<E, I>, E ext
         fixSelection(addedAt, inView);
     }
 
+    /**
+     * Adds new DataLines initialized by the objects to the list in a single
+     * batch, so the table receives one event and repaints once.
+     * If the list is sorted the lines are merged in sorted order, otherwise
+     * they go where the model's addAll(List) puts them, which for models
+     * that always insert sorted is a sorted merge too. The selection is
+     * maintained.
+     */
+    public void addAll(List<I> objects) {
+        if (objects.isEmpty()) {
+            return;
+        }
+
+        if (TABLE.isEditing()) {
+            CellEditor editor = TABLE.getCellEditor();
+            editor.cancelCellEditing();
+        }
+
+        // a sorted merge changes the whole table, store the selection
+        int[] rows = TABLE.getSelectedRows();
+        List<E> lines = new ArrayList<E>(rows.length);
+        E inView = null;
+        for (int row : rows) {
+            E line = DATA_MODEL.get(row);
+            lines.add(line);
+            if (inView == null && TABLE.isRowVisible(row)) {
+                inView = line;
+            }
+        }
+
+        if (SETTINGS.REAL_TIME_SORT.getValue() && DATA_MODEL.isSorted()) {
+            DATA_MODEL.addAllSorted(objects);
+        } else {
+            DATA_MODEL.addAll(objects);
+        }
+
+        for (E line : lines) {
+            int row = DATA_MODEL.getRow(line);
+            if (row != -1) {
+                TABLE.addRowSelectionInterval(row, row);
+                if (line == inView) {
+                    TABLE.ensureRowVisible(row);
+                }
+            }
+        }
+    }
+
     /**
      * Forces the object to be added unsorted.
      */
@@ -340,6 +340,78 @@ public class BasicDataLineModel<T extends DataLine<E>, E> extends AbstractTableM
         return add(dl, getSortedPosition(dl));
     }
 
+    /**
+     * Helper function.
+     *
+     * Uses getNewDataLine(Object) and addAll(List, boolean).
+     */
+    public int addAll(List<E> objects) {
+        return addAll(getNewDataLines(objects), false);
+    }
+
+    /**
+     * Helper function.
+     *
+     * Uses getNewDataLine(Object) and addAll(List, boolean).
+     */
+    public int addAllSorted(List<E> objects) {
+        return addAll(getNewDataLines(objects), true);
+    }
+
+    /**
+     * Returns initialized new datalines, skipping the objects
+     * that couldn't create one.
+     */
+    protected List<T> getNewDataLines(List<E> objects) {
+        List<T> lines = new ArrayList<T>(objects.size());
+        for (E o : objects) {
+            T dl = getNewDataLine(o);
+            if (dl != null)
+                lines.add(dl);
+        }
+        return lines;
+    }
+
+    /**
+     * Adds the DataLines to the end of the list, or if sorted is true,
+     * sorts them and merges them with the (already sorted) list in a
+     * single linear pass.
+     *
+     * All forms of addAll(..) eventually end up here, and only one
+     * event is fired for the whole batch.
+     *
+     * The lines don't go through add(DataLine, int), so extending classes
+     * that override it to maintain a HashMap, filter lines or keep counts
+     * must override this too.
+     */
+    public int addAll(List<T> lines, boolean sorted) {
+        if (lines.isEmpty())
+            return 0;
+
+        if (sorted) {
+            Collections.sort(lines, this);
+            List<T> merged = new ArrayList<T>(_list.size() + lines.size());
+            int i = 0;
+            int j = 0;
+            while (i < _list.size() && j < lines.size()) {
+                if (compare(lines.get(j), _list.get(i)) < 0)
+                    merged.add(lines.get(j++));
+                else
+                    merged.add(_list.get(i++));
+            }
+            merged.addAll(_list.subList(i, _list.size()));
+            merged.addAll(lines.subList(j, lines.size()));
+            _list = merged;
+            fireTableDataChanged();
+        } else {
+            int first = _list.size();
+            _list.addAll(lines);
+            fireTableRowsInserted(first, _list.size() - 1);
+        }
+
+        return lines.size();
+    }
+
     //Implements the DataLineModel interface.
     public T get(int row) {
         if(row == -1)
@@ -2,6 +2,7 @@
 package com.limegroup.gnutella.gui.tables;
 
 import java.util.Comparator;
+import java.util.List;
 
 import javax.swing.table.TableModel;
 
@@ -101,6 +102,21 @@ public interface DataLineModel<T extends DataLine<E>, E> extends Comparator<T>,
      */
     public int add(T dl, int row);
 
+    /**
+     * Adds new DataLines to the end of the info, initialized by objects.
+     * Fires a single event for the whole batch.
+     * Return the number of DataLines added.
+     */
+    public int addAll(List<E> objects);
+
+    /**
+     * Adds new DataLines to the info, initialized by objects, merging
+     * them in whatever rows will keep the DataLines sorted.
+     * Fires a single event for the whole batch.
+     * Return the number of DataLines added.
+     */
+    public int addAllSorted(List<E> objects);
+
     /**
      * Get the DataLine associated with the row.
      */
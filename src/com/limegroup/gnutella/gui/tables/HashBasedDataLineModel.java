@@ -1,6 +1,10 @@
 package com.limegroup.gnutella.gui.tables;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /** 
  * This class extends the BasicDataLineModel
@@ -61,6 +65,37 @@ public class HashBasedDataLineModel<T extends DataLine<E>, E> extends BasicDataL
         }
     }
     
+    /**
+     * Override of the addAll function so we can maintain the HashMap
+     * with a single remap for the whole batch.
+     */
+    public int addAll(List<T> lines, boolean sorted) {
+        List<T> added = new ArrayList<T>(lines.size());
+        Set<E> inits = new HashSet<E>();
+        for (T dl : lines) {
+            E init = dl.getInitializeObject();
+            // If this object is already added, don't add.
+            if (!_indexes.containsKey(init) && inits.add(init)) {
+                added.add(dl);
+            } else {
+                // we aren't going to use this dl, so clean it up.
+                dl.cleanup();
+            }
+        }
+
+        int first = getRowCount();
+        int count = super.addAll(added, sorted);
+        if (count > 0) {
+            if (sorted) {
+                _indexes.clear();
+                remapIndexes(0);
+            } else {
+                remapIndexes(first);
+            }
+        }
+        return count;
+    }
+    
     /** 
      * Overrides the default remove to remove the index from the hashmap.
      *
@@ -0,0 +1,259 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.tables;
+
+import java.util.AbstractList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A List backed by a balanced tree (a treap) where every node knows the size
+ * of its subtree, so get, add and remove at any row run in O(log n) instead
+ * of the O(n) shifting of an ArrayList.
+ * <p>
+ * Elements are also mapped by identity to their nodes, so indexOf and
+ * contains run in O(log n). Because of that the elements must be distinct
+ * instances, as DataLines are.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TreeList<T> extends AbstractList<T> {
+
+    private final Map<Object, Node<T>> nodes;
+    private final Random random;
+
+    private Node<T> root;
+
+    // results of split, to avoid allocating pairs
+    private Node<T> splitLeft;
+    private Node<T> splitRight;
+
+    public TreeList() {
+        nodes = new IdentityHashMap<Object, Node<T>>();
+        random = new Random();
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public T get(int index) {
+        return node(index).value;
+    }
+
+    @Override
+    public T set(int index, T element) {
+        Node<T> n = node(index);
+        T old = n.value;
+        // while sorting, old may be already set at another row
+        if (nodes.get(old) == n) {
+            nodes.remove(old);
+        }
+        n.value = element;
+        nodes.put(element, n);
+        return old;
+    }
+
+    @Override
+    public void add(int index, T element) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+
+        Node<T> n = new Node<T>(element, random.nextInt());
+        nodes.put(element, n);
+
+        split(root, index);
+        Node<T> right = splitRight;
+        root = merge(merge(splitLeft, n), right);
+        root.parent = null;
+        modCount++;
+    }
+
+    @Override
+    public T remove(int index) {
+        checkIndex(index);
+
+        split(root, index);
+        Node<T> left = splitLeft;
+        split(splitRight, 1);
+        Node<T> n = splitLeft;
+        root = merge(left, splitRight);
+        if (root != null) {
+            root.parent = null;
+        }
+        nodes.remove(n.value);
+        modCount++;
+
+        return n.value;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        nodes.clear();
+        modCount++;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Node<T> n = nodes.get(o);
+        if (n == null) {
+            return -1;
+        }
+
+        int index = size(n.left);
+        while (n.parent != null) {
+            if (n == n.parent.right) {
+                index += size(n.parent.left) + 1;
+            }
+            n = n.parent;
+        }
+        return index;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return nodes.containsKey(o);
+    }
+
+    /**
+     * Returns the row where the element should be inserted to keep the
+     * list sorted according to the comparator, after any equal elements.
+     * The list must be already sorted by the same comparator.
+     */
+    public int getSortedPosition(T element, Comparator<? super T> c) {
+        int index = 0;
+        Node<T> n = root;
+        while (n != null) {
+            if (c.compare(element, n.value) < 0) {
+                n = n.left;
+            } else {
+                index += size(n.left) + 1;
+                n = n.right;
+            }
+        }
+        return index;
+    }
+
+    private Node<T> node(int index) {
+        checkIndex(index);
+
+        Node<T> n = root;
+        while (true) {
+            int leftSize = size(n.left);
+            if (index < leftSize) {
+                n = n.left;
+            } else if (index == leftSize) {
+                return n;
+            } else {
+                index -= leftSize + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    /**
+     * Splits the tree so that splitLeft holds the first k elements and
+     * splitRight the rest.
+     */
+    private void split(Node<T> n, int k) {
+        if (n == null) {
+            splitLeft = null;
+            splitRight = null;
+        } else if (size(n.left) < k) {
+            split(n.right, k - size(n.left) - 1);
+            n.right = splitLeft;
+            update(n);
+            splitLeft = n;
+        } else {
+            split(n.left, k);
+            n.left = splitRight;
+            update(n);
+            splitRight = n;
+        }
+    }
+
+    /**
+     * Merges two trees where every element of a goes before the ones of b.
+     */
+    private Node<T> merge(Node<T> a, Node<T> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static <T> void update(Node<T> n) {
+        n.size = 1 + size(n.left) + size(n.right);
+        if (n.left != null) {
+            n.left.parent = n;
+        }
+        if (n.right != null) {
+            n.right.parent = n;
+        }
+    }
+
+    private static int size(Node<?> n) {
+        return n != null ? n.size : 0;
+    }
+
+    private static final class Node<T> {
+
+        private final int priority;
+
+        private T value;
+        private int size;
+        private Node<T> left;
+        private Node<T> right;
+        private Node<T> parent;
+
+        public Node(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+            this.size = 1;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.limegroup.gnutella.util.FrostWireUtils;
 import org.limewire.setting.BooleanSetting;
 import org.limewire.setting.FileSetSetting;
 import org.limewire.setting.FileSetting;
+import org.limewire.setting.IntSetting;
 import org.limewire.util.CommonUtils;
 
 import java.io.File;
@@ -40,6 +41,12 @@ public class LibrarySettings extends LimeProps {
 
     public static final File LIBRARY_DATABASE = new File(CommonUtils.getUserSettingsDir(), "library_db");
 
+    /**
+     * Opens the library database in MVCC mode, so reads don't wait on the
+     * table locks of writes. Experimental in the bundled H2 version.
+     */
+    public static final BooleanSetting LIBRARY_DATABASE_MVCC = FACTORY.createBooleanSetting("LIBRARY_DATABASE_MVCC", false);
+
     public static final File DEFAULT_LIBRARY_FROM_DEVICE_DATA_DIR = new File((PORTABLE_ROOT_FOLDER == null) ? FrostWireUtils.getFrostWireRootFolder() : PORTABLE_ROOT_FOLDER, "From Device");
 
     /**
@@ -59,6 +66,11 @@ public class LibrarySettings extends LimeProps {
 
     public static final BooleanSetting LIBRARY_WIFI_SHARING_ENABLED = FACTORY.createBooleanSetting("LIBRARY_WIFI_SHARING_ENABLED", true);
 
+    /**
+     * How many files of a Wi-Fi download from a device are transferred at the same time.
+     */
+    public static final IntSetting LIBRARY_FROM_DEVICE_PARALLEL_DOWNLOADS = FACTORY.createIntSetting("LIBRARY_FROM_DEVICE_PARALLEL_DOWNLOADS", 3);
+
 
     public static void setupInitialLibraryFolders() {
         SharingSettings.initTorrentDataDirSetting();
@@ -312,6 +312,16 @@ public final class SearchSettings extends LimeProps {
 	public static final StringSetting LAST_MEDIA_TYPE_USED = FACTORY.createStringSetting("LAST_MEDIA_TYPE_USED", MediaType.getAudioMediaType().getMimeType());
 	
 	public static final BooleanSetting SMART_SEARCH_ENABLED = FACTORY.createBooleanSetting("SMART_SEARCH_ENABLED", true);
+
+	/**
+	 * Max size in megabytes of the smart search crawl cache on disk.
+	 */
+	public static final IntSetting SMART_SEARCH_DATABASE_MAX_SIZE = FACTORY.createIntSetting("SMART_SEARCH_DATABASE_MAX_SIZE", 256);
+
+	/**
+	 * Days a crawled entry is kept in the smart search crawl cache.
+	 */
+	public static final IntSetting SMART_SEARCH_DATABASE_TTL_DAYS = FACTORY.createIntSetting("SMART_SEARCH_DATABASE_TTL_DAYS", 30);
 	
     public static final BooleanSetting SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START = FACTORY.createBooleanSetting("SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START", false);
 }
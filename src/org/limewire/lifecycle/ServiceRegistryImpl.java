@@ -1,33 +1,51 @@
 package org.limewire.lifecycle;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.concurrent.ThreadExecutor;
 
 import com.frostwire.logging.Logger;
 
-class ServiceRegistryImpl implements ServiceRegistry {
+public class ServiceRegistryImpl implements ServiceRegistry {
     
     private static final Logger LOG = Logger.getLogger(ServiceRegistryImpl.class);
     
+    // startup is mostly disk bound, more threads only make the disk seek more
+    private static final int MAX_CONCURRENT_SERVICES = 4;
+    
     private final List<StagedRegisterBuilderImpl> builders
         = new ArrayList<StagedRegisterBuilderImpl>();
 
     private final Map<Object, List<ServiceHolder>> services
         = new HashMap<Object, List<ServiceHolder>>();
     
+    private final Map<Service, ServiceHolder> holders
+        = new IdentityHashMap<Service, ServiceHolder>();
+    
     private final List<ServiceHolder> startedServices
         = new ArrayList<ServiceHolder>();
     
     private final List<ServiceRegistryListener> registryListeners
-        = new ArrayList<ServiceRegistryListener>();
+        = new CopyOnWriteArrayList<ServiceRegistryListener>();
+    
+    private final ExecutorService executor
+        = ExecutorsHelper.newFixedSizeThreadPool(MAX_CONCURRENT_SERVICES, "ServiceRegistry");
         
     public void initialize() {
         // Remove builders & assign services.
+        Map<ServiceHolder, List<Service>> dependencies = new IdentityHashMap<ServiceHolder, List<Service>>();
         for(Iterator<StagedRegisterBuilderImpl> iter = builders.iterator(); iter.hasNext(); ) {
             StagedRegisterBuilderImpl builder = iter.next();
             Object stage = builder.getCustomStage();
@@ -38,32 +56,61 @@ class ServiceRegistryImpl implements ServiceRegistry {
                 servicesInStage = new ArrayList<ServiceHolder>();
                 services.put(stage, servicesInStage);
             }
-            servicesInStage.add(new ServiceHolder(builder.getService()));
+            ServiceHolder holder = new ServiceHolder(builder.getService(), builder.isConcurrent());
+            servicesInStage.add(holder);
+            holders.put(builder.getService(), holder);
+            dependencies.put(holder, builder.getDependencies());
             iter.remove();
         }
         
+        // Dependencies may be registered after their dependents.
+        for(Map.Entry<ServiceHolder, List<Service>> entry : dependencies.entrySet()) {
+            for(Service service : entry.getValue()) {
+                ServiceHolder dependency = holders.get(service);
+                if(dependency != null) {
+                    entry.getKey().dependencies.add(dependency);
+                } else {
+                    LOG.warn("service " + entry.getKey().getName() + " depends on unregistered service " + service.getClass().getSimpleName());
+                }
+            }
+        }
+        
         // Do the actual initialization.
         
         // First go through built-in stages.
         for(ServiceStage stage : getStagesInOrder()) {
             if(services.get(stage) != null) {
-                for(ServiceHolder service : services.get(stage)) {
-                    service.init();
-                }
+                initStage(services.get(stage));
             }
         }
         // Then go through custom stages.
         for(Map.Entry<Object, List<ServiceHolder>> entry : services.entrySet()) {
             if(entry.getKey().getClass() != ServiceStage.class) {
                 if(entry.getValue() != null) {
-                    for(ServiceHolder service : entry.getValue()) {
-                        service.init();
-                    }
+                    initStage(entry.getValue());
                 }
             }
         }
     }
     
+    private void initStage(List<ServiceHolder> servicesInStage) {
+        List<ServiceHolder> toInit = new ArrayList<ServiceHolder>();
+        for(ServiceHolder service : servicesInStage) {
+            if(!service.initted) {
+                toInit.add(service);
+            }
+        }
+        runConcurrently(toInit, "initialized", new ServiceTask() {
+            public void run(ServiceHolder service) {
+                service.init();
+            }
+            
+            public boolean isDone(ServiceHolder service) {
+                return service.initted;
+            }
+        });
+    }
+    
     public void start(Object stage) {
         initialize();        
         startStage(stage);
@@ -79,13 +126,26 @@ class ServiceRegistryImpl implements ServiceRegistry {
     private void startStage(Object stage) {
         List<ServiceHolder> servicedStages = services.get(stage);
         if(servicedStages != null) {
-            for(Iterator<ServiceHolder> iter = servicedStages.iterator(); iter.hasNext(); ) {
-                ServiceHolder service = iter.next();
-
-                LOG.debug("starting service: " + service.service.service.getClass().getSimpleName());
-                service.start();
-                startedServices.add(service);
-                iter.remove();
+            long startTime = System.currentTimeMillis();
+            try {
+                runConcurrently(new ArrayList<ServiceHolder>(servicedStages), "started", new ServiceTask() {
+                    public void run(ServiceHolder service) {
+                        service.start();
+                        synchronized(startedServices) {
+                            startedServices.add(service);
+                        }
+                    }
+                    
+                    public boolean isDone(ServiceHolder service) {
+                        return service.started;
+                    }
+                });
+            } finally {
+                for(Iterator<ServiceHolder> iter = servicedStages.iterator(); iter.hasNext(); ) {
+                    if(iter.next().started) {
+                        iter.remove();
+                    }
+                }
             }
             for (ServiceHolder startedService : startedServices) {
                 try {
@@ -94,12 +154,46 @@ class ServiceRegistryImpl implements ServiceRegistry {
                     e.printStackTrace();  // TODO log, throw?
                 }
             }
+            LOG.info("started stage " + stage + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+    
+    /**
+     * Runs the task on each of the services once the ones it depends on are
+     * done, at most {@link #MAX_CONCURRENT_SERVICES} at a time, and returns
+     * when all are done. Services not registered as concurrent also wait for
+     * the previous one of them in the list, so they run in order. Dependencies
+     * out of the list belong to earlier stages, so they are done already. If a
+     * task fails, the services that depend on it are skipped and the failure
+     * is rethrown at the end.
+     */
+    private void runConcurrently(List<ServiceHolder> servicesToRun, String action, ServiceTask task) {
+        if(servicesToRun.isEmpty()) {
+            return;
+        }
+        
+        ServiceBatch batch = new ServiceBatch(servicesToRun, action, task);
+        batch.execute();
+        
+        try {
+            batch.done.await();
+        } catch (InterruptedException e) {
+            LOG.warn("interrupted while waiting for services to be " + action);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        
+        Throwable failure = batch.failure.get();
+        if(failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if(failure instanceof Error) {
+            throw (Error) failure;
         }
     }
     
     public void stop() {
         for(int i = startedServices.size()-1; i >= 0; i--) {
-            LOG.debug("stopping service: " + startedServices.get(i).service.service.getClass().getSimpleName());
+            LOG.debug("stopping service: " + startedServices.get(i).getName());
             startedServices.get(i).stop();
         }
         for(int i = startedServices.size()-1; i >= 0; i--) {
@@ -126,14 +220,181 @@ class ServiceRegistryImpl implements ServiceRegistry {
         return new ServiceStage[] { ServiceStage.EARLY, ServiceStage.NORMAL, ServiceStage.LATE };
     }
     
+    private interface ServiceTask {
+        void run(ServiceHolder service);
+        
+        boolean isDone(ServiceHolder service);
+    }
+    
+    /**
+     * The services of a {@link ServiceRegistryImpl#runConcurrently} call, each
+     * is submitted to the executor when the last of its dependencies, and of
+     * its predecessor if it's not concurrent, is done.
+     */
+    private class ServiceBatch {
+        private final List<ServiceHolder> servicesToRun;
+        private final String action;
+        private final ServiceTask task;
+        private final Map<ServiceHolder, List<ServiceHolder>> dependents
+            = new IdentityHashMap<ServiceHolder, List<ServiceHolder>>();
+        private final Map<ServiceHolder, Integer> pending
+            = new IdentityHashMap<ServiceHolder, Integer>();
+        // declared dependencies of services in the batch, only those wait for asynchronous starts
+        private final Set<ServiceHolder> awaited
+            = Collections.newSetFromMap(new IdentityHashMap<ServiceHolder, Boolean>());
+        private final Set<ServiceHolder> failed
+            = Collections.newSetFromMap(new IdentityHashMap<ServiceHolder, Boolean>());
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        
+        ServiceBatch(List<ServiceHolder> servicesToRun, String action, ServiceTask task) {
+            this.servicesToRun = servicesToRun;
+            this.action = action;
+            this.task = task;
+            this.done = new CountDownLatch(servicesToRun.size());
+            
+            for(ServiceHolder service : servicesToRun) {
+                dependents.put(service, new ArrayList<ServiceHolder>());
+            }
+            ServiceHolder previous = null;
+            for(ServiceHolder service : servicesToRun) {
+                int count = 0;
+                for(ServiceHolder dependency : service.dependencies) {
+                    if(dependents.containsKey(dependency)) {
+                        dependents.get(dependency).add(service);
+                        awaited.add(dependency);
+                        count++;
+                    } else if(!task.isDone(dependency)) {
+                        LOG.warn("service " + service.getName() + " depends on " + dependency.getName() + " of a later stage");
+                    }
+                }
+                if(!service.concurrent) {
+                    if(previous != null) {
+                        dependents.get(previous).add(service);
+                        count++;
+                    }
+                    previous = service;
+                }
+                pending.put(service, count);
+            }
+            checkAcyclic();
+        }
+        
+        private void checkAcyclic() {
+            Map<ServiceHolder, Integer> remaining = new IdentityHashMap<ServiceHolder, Integer>(pending);
+            List<ServiceHolder> ready = new ArrayList<ServiceHolder>();
+            for(ServiceHolder service : servicesToRun) {
+                if(remaining.get(service) == 0) {
+                    ready.add(service);
+                }
+            }
+            for(int i = 0; i < ready.size(); i++) {
+                for(ServiceHolder dependent : dependents.get(ready.get(i))) {
+                    int count = remaining.get(dependent) - 1;
+                    remaining.put(dependent, count);
+                    if(count == 0) {
+                        ready.add(dependent);
+                    }
+                }
+            }
+            if(ready.size() != servicesToRun.size()) {
+                List<String> names = new ArrayList<String>();
+                for(ServiceHolder service : servicesToRun) {
+                    if(remaining.get(service) > 0) {
+                        names.add(service.getName());
+                    }
+                }
+                throw new IllegalStateException("circular dependencies between services: " + names);
+            }
+        }
+        
+        void execute() {
+            // collected before submitting, a task finishing meanwhile releases its own dependents
+            List<ServiceHolder> ready = new ArrayList<ServiceHolder>();
+            for(ServiceHolder service : servicesToRun) {
+                if(pending.get(service) == 0) {
+                    ready.add(service);
+                }
+            }
+            // submitted in registration order, so that a single thread keeps the old order
+            for(ServiceHolder service : ready) {
+                submit(service);
+            }
+        }
+        
+        private void submit(final ServiceHolder service) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    boolean ok = false;
+                    long startTime = System.currentTimeMillis();
+                    try {
+                        task.run(service);
+                        // asynchronous starts count as done when their thread is
+                        if(awaited.contains(service)) {
+                            service.join();
+                        }
+                        ok = true;
+                        LOG.info(action + " service: " + service.getName() + " in " + (System.currentTimeMillis() - startTime) + "ms");
+                    } catch (Throwable e) {
+                        LOG.error("error, service: " + service.getName() + " not " + action, e);
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        finished(service, ok);
+                    }
+                }
+            });
+        }
+        
+        private void finished(ServiceHolder service, boolean ok) {
+            List<ServiceHolder> ready = new ArrayList<ServiceHolder>();
+            List<ServiceHolder> skipped = new ArrayList<ServiceHolder>();
+            synchronized(this) {
+                if(!ok) {
+                    failed.add(service);
+                }
+                for(ServiceHolder dependent : dependents.get(service)) {
+                    int count = pending.get(dependent) - 1;
+                    pending.put(dependent, count);
+                    if(!ok) {
+                        failed.add(dependent);
+                    }
+                    if(count == 0) {
+                        if(failed.contains(dependent)) {
+                            skipped.add(dependent);
+                        } else {
+                            ready.add(dependent);
+                        }
+                    }
+                }
+            }
+            done.countDown();
+            
+            for(ServiceHolder dependent : ready) {
+                submit(dependent);
+            }
+            for(ServiceHolder dependent : skipped) {
+                LOG.warn("service: " + dependent.getName() + " not " + action + ", a dependency failed");
+                finished(dependent, false);
+            }
+        }
+    }
+    
     private class ServiceHolder {
         private final AnnotatedService service;
+        private final List<ServiceHolder> dependencies = new ArrayList<ServiceHolder>();
+        private final boolean concurrent;
         private boolean initted;
         private boolean started;
         private boolean stopped;
         
-        public ServiceHolder(Service service) {
+        public ServiceHolder(Service service, boolean concurrent) {
             this.service = new AnnotatedService(service);
+            this.concurrent = concurrent;
+        }
+        
+        String getName() {
+            String name = service.getServiceName();
+            return name != null ? name : service.service.getClass().getName();
         }
         
         void init() {
@@ -6,4 +6,19 @@ public interface StagedRegisterBuilder {
     
     public void in(Object customStage);
 
+    /**
+     * Declares services that must be initialized and started before this
+     * one, and lets this one be initialized and started concurrently with
+     * the rest of its stage once they are.
+     */
+    public StagedRegisterBuilder dependsOn(Service... services);
+
+    /**
+     * Lets this service be initialized and started concurrently with the
+     * rest of its stage. Services that neither declare dependencies nor are
+     * concurrent are initialized and started one after the other, in the
+     * order they were registered.
+     */
+    public StagedRegisterBuilder concurrent();
+
 }
@@ -1,5 +1,8 @@
 package org.limewire.lifecycle;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.limewire.util.Objects;
 
 class StagedRegisterBuilderImpl implements StagedRegisterBuilder {
@@ -7,6 +10,8 @@ class StagedRegisterBuilderImpl implements StagedRegisterBuilder {
     private final Service service;
     private ServiceStage stage = ServiceStage.NORMAL;
     private Object customStage = null;
+    private final List<Service> dependencies = new ArrayList<Service>();
+    private boolean concurrent;
     
     public StagedRegisterBuilderImpl(Service service) {
         this.service = Objects.nonNull(service, "service");
@@ -20,8 +25,22 @@ class StagedRegisterBuilderImpl implements StagedRegisterBuilder {
         this.customStage = Objects.nonNull(stage, "stage");
     }
     
+    public StagedRegisterBuilder dependsOn(Service... services) {
+        for(Service service : services) {
+            dependencies.add(Objects.nonNull(service, "service"));
+        }
+        return this;
+    }
+    
+    public StagedRegisterBuilder concurrent() {
+        this.concurrent = true;
+        return this;
+    }
+    
     ServiceStage getStage() { return stage; }
     Service getService() { return service; }
     Object getCustomStage() { return customStage; }
+    List<Service> getDependencies() { return dependencies; }
+    boolean isConcurrent() { return concurrent || !dependencies.isEmpty(); }
 
 }
@@ -0,0 +1,187 @@
+package org.limewire.lifecycle.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.limewire.lifecycle.Service;
+import org.limewire.lifecycle.ServiceRegistryImpl;
+
+/**
+ * Checks the order in which ServiceRegistryImpl starts services: serial by
+ * default, by declared dependencies otherwise.
+ */
+public class ServiceRegistryImplTest {
+
+    @Test
+    public void testSerialByDefault() {
+        ServiceRegistryImpl registry = new ServiceRegistryImpl();
+        Recorder recorder = new Recorder();
+
+        for (String name : Arrays.asList("a", "b", "c", "d", "e")) {
+            registry.register(new RecordingService(name, recorder, 20, false));
+        }
+        registry.start();
+
+        assertEquals("started in registration order", Arrays.asList("a", "b", "c", "d", "e"), recorder.started());
+        assertEquals("no two plain services run at once", 1, recorder.maxActive.get());
+    }
+
+    @Test
+    public void testDependenciesAndConcurrent() {
+        ServiceRegistryImpl registry = new ServiceRegistryImpl();
+        Recorder recorder = new Recorder();
+
+        RecordingService a = new RecordingService("a", recorder, 100, false);
+        RecordingService b = new RecordingService("b", recorder, 0, false);
+        RecordingService c = new RecordingService("c", recorder, 100, false);
+
+        // registered before its dependency, which must start first anyway
+        registry.register(b).dependsOn(a);
+        registry.register(a).concurrent();
+        registry.register(c).concurrent();
+        registry.start();
+
+        List<String> started = recorder.started();
+        assertEquals("all started: " + started, 3, started.size());
+        assertTrue("dependency first: " + started, started.indexOf("a") < started.indexOf("b"));
+        assertTrue("concurrent services overlap", recorder.maxActive.get() > 1);
+    }
+
+    @Test
+    public void testCycleDetection() {
+        ServiceRegistryImpl registry = new ServiceRegistryImpl();
+        Recorder recorder = new Recorder();
+
+        RecordingService a = new RecordingService("a", recorder, 0, false);
+        RecordingService b = new RecordingService("b", recorder, 0, false);
+        RecordingService c = new RecordingService("c", recorder, 0, false);
+
+        registry.register(a).dependsOn(c);
+        registry.register(b).dependsOn(a);
+        registry.register(c).dependsOn(b);
+
+        try {
+            registry.start();
+            fail("a cycle must fail");
+        } catch (IllegalStateException e) {
+            assertTrue("cycle reported: " + e.getMessage(), e.getMessage().contains("circular"));
+        }
+        assertTrue("nothing in the cycle initialized", recorder.initialized.isEmpty());
+    }
+
+    @Test
+    public void testFailureSkipsDependentsAndRethrows() {
+        ServiceRegistryImpl registry = new ServiceRegistryImpl();
+        Recorder recorder = new Recorder();
+
+        RecordingService failing = new RecordingService("failing", recorder, 0, true);
+        RecordingService dependent = new RecordingService("dependent", recorder, 0, false);
+        RecordingService transitive = new RecordingService("transitive", recorder, 0, false);
+        RecordingService independent = new RecordingService("independent", recorder, 50, false);
+
+        registry.register(failing).concurrent();
+        registry.register(dependent).dependsOn(failing);
+        registry.register(transitive).dependsOn(dependent);
+        registry.register(independent).concurrent();
+
+        try {
+            registry.start();
+            fail("the failure must be rethrown");
+        } catch (IllegalArgumentException e) {
+            assertEquals("the failure of the service is rethrown", "failing", e.getMessage());
+        }
+
+        List<String> started = recorder.started();
+        assertFalse("dependent skipped: " + started, started.contains("dependent"));
+        assertFalse("dependent of a skipped service skipped: " + started, started.contains("transitive"));
+        assertTrue("independent service started: " + started, started.contains("independent"));
+    }
+
+    @Test
+    public void testSerialStopsAtFailure() {
+        ServiceRegistryImpl registry = new ServiceRegistryImpl();
+        Recorder recorder = new Recorder();
+
+        registry.register(new RecordingService("a", recorder, 0, false));
+        registry.register(new RecordingService("b", recorder, 0, true));
+        registry.register(new RecordingService("c", recorder, 0, false));
+
+        try {
+            registry.start();
+            fail("the failure must be rethrown");
+        } catch (IllegalArgumentException e) {
+            assertEquals("the failure of the service is rethrown", "b", e.getMessage());
+        }
+
+        assertEquals("services after the failed one not started", Arrays.asList("a"), recorder.started());
+    }
+
+    private static final class Recorder {
+
+        private final List<String> initialized = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        List<String> started() {
+            synchronized (started) {
+                return new ArrayList<String>(started);
+            }
+        }
+    }
+
+    private static final class RecordingService implements Service {
+
+        private final String name;
+        private final Recorder recorder;
+        private final long startMillis;
+        private final boolean fail;
+
+        RecordingService(String name, Recorder recorder, long startMillis, boolean fail) {
+            this.name = name;
+            this.recorder = recorder;
+            this.startMillis = startMillis;
+            this.fail = fail;
+        }
+
+        public void initialize() {
+            recorder.initialized.add(name);
+        }
+
+        public void start() {
+            int active = recorder.active.incrementAndGet();
+            try {
+                int max = recorder.maxActive.get();
+                while (active > max && !recorder.maxActive.compareAndSet(max, active)) {
+                    max = recorder.maxActive.get();
+                }
+                if (fail) {
+                    throw new IllegalArgumentException(name);
+                }
+                Thread.sleep(startMillis);
+                // recorded when done, a dependent must come after
+                recorder.started.add(name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                recorder.active.decrementAndGet();
+            }
+        }
+
+        public void stop() {
+        }
+
+        public String getServiceName() {
+            return name;
+        }
+    }
+}